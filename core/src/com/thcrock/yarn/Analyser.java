@@ -131,7 +131,7 @@ public class Analyser {
 		@Override
 		public void diagnose(Program program) {
 			//each node, find all reads and writes to variables
-			for (Map.Entry<String, Program.Node> nodeinfo : program.nodes.entrySet()) {
+			for (Map.Entry<String, Program.Node> nodeinfo : program.getNodes().entrySet()) {
 
 				Program.Node the_node = nodeinfo.getValue();
 
@@ -167,7 +167,7 @@ public class Analyser {
 		@Override
 		public void diagnose(Program program) {
 			//in each node, find all reads and writes to variables
-			for (Map.Entry<String, Program.Node> nodeinfo : program.nodes.entrySet()) {
+			for (Map.Entry<String, Program.Node> nodeinfo : program.getNodes().entrySet()) {
 
 
 				Program.Node node = nodeinfo.getValue();
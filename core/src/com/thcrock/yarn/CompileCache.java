@@ -0,0 +1,169 @@
+package com.kyper.yarn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.kyper.yarn.Loader.NodeInfo;
+
+/**
+ * an on disk cache of compiled nodes for the {@link Loader}. Each node is keyed
+ * by a hash of its title, body and tags and the signatures of the library it is
+ * compiled against, so a node is only lexed, parsed and compiled again when one
+ * of those changes.
+ * <p>
+ * an entry is the compiled node together with its slice of the string table,
+ * stored in the {@link ProgramWriter} format. entries that can not be read are
+ * treated as misses and written again.
+ */
+public class CompileCache {
+
+	private static final String EXTENSION = ".yarnc";
+
+	private final File directory;
+
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * @param directory
+	 *            - where entries are kept, it is created if it does not exist
+	 */
+	public CompileCache(File directory) {
+		if (directory == null)
+			throw new IllegalArgumentException("cache directory is null");
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** the number of nodes that were found in the cache */
+	public int getHits() {
+		return hits.get();
+	}
+
+	/** the number of nodes that had to be compiled */
+	public int getMisses() {
+		return misses.get();
+	}
+
+	public void resetStats() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * the key for info when compiled against a library with the given
+	 * {@link Library#signature()}
+	 */
+	public String key(NodeInfo info, String library_signature) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		//the format version is part of the key so old entries are never read
+		update(digest, String.valueOf(ProgramWriter.VERSION));
+		update(digest, info.getTitle());
+		update(digest, info.getBodyText());
+		update(digest, info.getTags());
+		update(digest, library_signature);
+
+		byte[] hash = digest.digest();
+		StringBuilder b = new StringBuilder(hash.length * 2);
+		for (byte x : hash) {
+			b.append(Character.forDigit((x >> 4) & 0xF, 16));
+			b.append(Character.forDigit(x & 0xF, 16));
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return the program holding the single cached node for key, or null if
+	 *         there is no usable entry
+	 */
+	public Program get(String key) {
+		File file = entry(key);
+		if (file.isFile()) {
+			try {
+				Program program = new ProgramReader().read(Files.readAllBytes(file.toPath()));
+				hits.incrementAndGet();
+				return program;
+			} catch (IOException e) {
+				//unreadable entries are replaced by the next put
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * store the program holding a single compiled node under key. failing to
+	 * write the cache never fails the load.
+	 */
+	public void put(String key, Program program) {
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+				return;
+
+			//write to a temporary file first so readers never see half an entry
+			File temp = File.createTempFile(key, ".tmp", directory);
+			try {
+				FileOutputStream out = new FileOutputStream(temp);
+				try {
+					new ProgramWriter().write(program, out);
+				} finally {
+					out.close();
+				}
+				Files.move(temp.toPath(), entry(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				temp.delete();
+			}
+		} catch (IOException e) {
+			//the cache is only an optimisation
+		}
+	}
+
+	/**
+	 * delete every entry in the cache
+	 */
+	public void clear() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.getName().endsWith(EXTENSION))
+				file.delete();
+		}
+	}
+
+	private File entry(String key) {
+		return new File(directory, key + EXTENSION);
+	}
+
+	private static void update(MessageDigest digest, CharSequence value) {
+		if (value == null) {
+			digest.update((byte) 0);
+			return;
+		}
+		ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(value));
+		int length = bytes.remaining();
+		digest.update((byte) 1);
+		digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+				(byte) length });
+		digest.update(bytes);
+	}
+
+}
@@ -29,13 +29,24 @@ public class Compiler {
 	protected Program program;
 	public String program_name;
 
+	//both counters start over for every node, so a compiled node only depends on
+	//its own source and nodes can be compiled in any order
 	private int label_count = 0;
+	private int string_count = 0;
+
+	//rewrites each node before it is linked, null leaves them as emitted
+	private Optimizer optimizer;
 
 	protected Compiler(String program_name) {
 		program = new Program();
 		this.program_name = program_name;
 	}
 
+	protected Compiler(String program_name, Optimizer optimizer) {
+		this(program_name);
+		this.optimizer = optimizer;
+	}
+
 	public Program getProgram() {
 		return program;
 	}
@@ -47,6 +58,10 @@ public class Compiler {
 
 		Program.Node compiled_node = new Program.Node();
 
+		label_count = 0;
+		string_count = 0;
+		flags = new CompileFlags();
+
 		compiled_node.name = node.getName();
 		compiled_node.tags = new ArrayList<String>(node.getNodeTags()); // TODO maybe just keep this as an ArrayList the whole time
 
@@ -55,7 +70,7 @@ public class Compiler {
 			//dump the entire contents of this node into the string table
 			//instead of compiling its contents
 			//the line number is 0 because the string starts at the begining of the node
-			compiled_node.source_string_id = program.registerString(node.getSource(), node.getName(),
+			compiled_node.source_string_id = registerString(node.getSource(), node.getName(),
 					"line:" + node.getName(), 0, true);
 		} else {
 
@@ -107,9 +122,54 @@ public class Compiler {
 
 		}
 
+		if (optimizer != null)
+			optimizer.optimize(compiled_node);
+
+		link(compiled_node);
+
 		program.nodes.put(compiled_node.name, compiled_node);
 	}
 
+	/**
+	 * drop the labels from a compiled node and point JumpTo and JumpIfFalse
+	 * straight at the instruction to run next. the label table is kept, pointing
+	 * at the same instructions, for the Jump that shortcut options use, and is
+	 * compacted so looking a label up does not box.
+	 */
+	protected void link(Program.Node node) {
+		ArrayList<Instruction> linked = new ArrayList<Instruction>(node.instructions.size());
+
+		//a label now points at the instruction that followed it
+		for (Instruction instruction : node.instructions) {
+			if (instruction.getOperation() == ByteCode.Label)
+				node.labels.put((String) instruction.operandA(), linked.size());
+			else
+				linked.add(instruction);
+		}
+
+		for (Instruction instruction : linked) {
+			ByteCode operation = instruction.getOperation();
+			if (operation != ByteCode.JumpTo && operation != ByteCode.JumpIfFalse)
+				continue;
+
+			String label = (String) instruction.operandA();
+			Integer target = node.labels.get(label);
+			if (target == null)
+				throw new IllegalStateException("Unknown label " + label + " in node " + node.name);
+
+			//keep the name around for dumps
+			instruction.setOperandA(target);
+			instruction.setOperandB(label);
+		}
+
+		node.instructions = linked;
+		node.compactLabels();
+
+		node.buildConstants();
+		node.buildCallSites();
+		node.buildVariableSites();
+	}
+
 	protected void emit(Program.Node node, ByteCode code, Object operandA, Object operandB) {
 		Instruction instruction = new Instruction();
 		instruction.setOperation(code);
@@ -204,7 +264,7 @@ public class Compiler {
 	protected void generateCode(Program.Node node, Statement parse_node, String line) {
 		//does this line have #line:LINENUM tag? use it
 		String line_id = getLineIDFromNodeTags(parse_node);
-		String num = program.registerString(line, node.name, line_id, parse_node.line_number, true);
+		String num = registerString(line, node.name, line_id, parse_node.line_number, true);
 
 		emit(node, ByteCode.RunLine, num);
 	}
@@ -230,7 +290,7 @@ public class Compiler {
 			}
 
 			String label_line_id = getLineIDFromNodeTags(option);
-			String label_string_id = program.registerString(option.getLabel(), node.name, label_line_id,
+			String label_string_id = registerString(option.getLabel(), node.name, label_line_id,
 					option.line_number, true);
 
 			emit(node, ByteCode.AddOption, label_string_id, option_destination);
@@ -292,6 +352,8 @@ public class Compiler {
 			if (clause.getExpression() != null) {
 				generateCode(node, clause.getExpression());
 				emit(node, ByteCode.JumpIfFalse, endof_clause);
+				//the clause runs, pop the expression before it does
+				emit(node, ByteCode.Pop);
 			}
 
 			generateCode(node, clause.getStatements());
@@ -301,7 +363,7 @@ public class Compiler {
 				emit(node, ByteCode.Label, endof_clause);
 			}
 
-			//clean the stack by popping the expression that was tested earlier
+			//the clause was skipped, pop the expression that was tested earlier
 			if (clause.getExpression() != null) {
 				emit(node, ByteCode.Pop);
 			}
@@ -320,7 +382,7 @@ public class Compiler {
 			emit(node, ByteCode.RunNode, destination);
 		} else {
 			String line_id = getLineIDFromNodeTags(statement.parent);
-			String string_id = program.registerString(statement.getLabel(), node.name, line_id, statement.line_number,
+			String string_id = registerString(statement.getLabel(), node.name, line_id, statement.line_number,
 					true);
 
 			emit(node, ByteCode.AddOption, string_id, destination);
@@ -391,6 +453,13 @@ public class Compiler {
 				generateCode(node, param);
 			}
 
+			//standard operators have their own instructions
+			ByteCode operation = expression.function.getOperation();
+			if (operation != null) {
+				emit(node, operation);
+				break;
+			}
+
 			//if this function has a variable number of params,
 			//put the number of params that we passed t the stack
 			if (expression.function.getParamCount() == -1) {
@@ -413,7 +482,7 @@ public class Compiler {
 			emit(node, ByteCode.PushNumber, value.getValue().getNumberValue());
 			break;
 		case STRING:
-			String id = program.registerString(value.getValue().getStringValue(), node.name, null, value.line_number,
+			String id = registerString(value.getValue().getStringValue(), node.name, null, value.line_number,
 					false);
 			emit(node, ByteCode.PushString, id);
 			break;
@@ -431,6 +500,18 @@ public class Compiler {
 		}
 	}
 
+	/**
+	 * register a string in the program. strings without a line id are keyed by
+	 * the node they are in and their position within that node
+	 */
+	protected String registerString(String string, String node_name, String line_id, int line_number,
+			boolean localisable) {
+		String key = line_id;
+		if (key == null)
+			key = StringUtils.format("%1$s - %2$s", node_name, string_count++);
+		return program.registerString(string, node_name, key, line_number, localisable);
+	}
+
 	protected String registerLabel(String commentary) {
 		return "L" + (label_count++) + commentary;
 	}
@@ -8,8 +8,11 @@ import java.util.Set;
 
 import com.kyper.yarn.Analyser.Context;
 import com.kyper.yarn.Lexer.TokenType;
+import com.kyper.yarn.Library.CallContext;
+import com.kyper.yarn.Library.ContextFunc;
 import com.kyper.yarn.Library.ReturningFunc;
 import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Program.ByteCode;
 import com.kyper.yarn.Program.LineInfo;
 import com.kyper.yarn.VirtualMachine.CommandHandler;
 import com.kyper.yarn.VirtualMachine.ExecutionState;
@@ -18,12 +21,16 @@ import com.kyper.yarn.VirtualMachine.NodeCompleteHandler;
 import com.kyper.yarn.VirtualMachine.OptionsHandler;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.*;
 import com.badlogic.gdx.Gdx;
 
-public class Dialogue {
+public class Dialogue implements CallContext {
 
 	protected VariableStorage continuity;
 
@@ -36,9 +43,12 @@ public class Dialogue {
 	// loader contains all the nodes we're going to run
 	protected Loader loader;
 
-	// the program is the compiled yarn program
+	// the program is the compiled yarn program, null until something is loaded
 	protected Program program;
 
+	// every load is appended to the builder's program
+	protected ProgramBuilder program_builder = new ProgramBuilder();
+
 	// the library contains all the functions and operators we know about
 	protected Library library;
 
@@ -89,6 +99,10 @@ public class Dialogue {
 		return library;
 	}
 
+	public Loader getLoader() {
+		return loader;
+	}
+
 	public boolean isRunning() {
 		return vm != null && vm.getExecutionState() != ExecutionState.Stopped;
 	}
@@ -156,7 +170,7 @@ public class Dialogue {
 		}
 
 
-		program = loader.load(text, library, file_name, program, show_tokens, show_tree, only_consider, format);
+		addToProgram(loader.load(text, library, file_name, null, show_tokens, show_tree, only_consider, format));
 	}
 
 	/**
@@ -207,6 +221,115 @@ public class Dialogue {
 	}
 
 
+	/**
+	 * load nodes as they are read, without holding the whole source in memory.
+	 * The format is worked out from the file name.
+	 *
+	 * @param reader
+	 *            - the source, read to the end but not closed
+	 * @param file_name
+	 *            - the name of the file used for the format and debug purposes
+	 * @param show_tokens
+	 *            - if true will show the tokens generated by the lexer
+	 * @param show_tree
+	 *            - if true will show a tree structure generated by the parser
+	 * @param only_consider
+	 *            - if not null, only the specified node will be considered for
+	 *            loading;all else will be ignored.
+	 */
+	public void loadReader(Reader reader, String file_name, boolean show_tokens, boolean show_tree,
+			String only_consider) throws IOException {
+		if (debug_logger == null) {
+			throw new YarnRuntimeException("DebugLogger must be set before loading");
+		}
+
+		if (error_logger == null)
+			throw new YarnRuntimeException("ErrorLogger must be set before loading");
+
+		addToProgram(loader.load(reader, library, file_name, null, show_tokens, show_tree, only_consider,
+				NodeFormat.Unkown));
+	}
+
+	/**
+	 * load nodes as they are read, the format is worked out from the file name
+	 *
+	 * @param reader
+	 *            - the source, read to the end but not closed
+	 * @param file_name
+	 *            - the name of the file used for the format and debug purposes
+	 */
+	public void loadReader(Reader reader, String file_name) throws IOException {
+		loadReader(reader, file_name, false, false, null);
+	}
+
+	/**
+	 * load a program that was precompiled with {@link #saveCompiled(OutputStream)}
+	 * or a {@link ProgramWriter}. Nothing is lexed, parsed or compiled.
+	 *
+	 * @param in
+	 *            - stream containing the compiled program, read to the end but not
+	 *            closed
+	 */
+	public void loadCompiled(InputStream in) throws IOException {
+		addToProgram(new ProgramReader().read(in));
+	}
+
+	/**
+	 * load a precompiled program file
+	 *
+	 * @param path
+	 *            - path to the file to load
+	 */
+	public void loadCompiledFile(String path) throws IOException {
+		InputStream in = Gdx.files.internal(path).read();
+		try {
+			loadCompiled(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * memory map a precompiled program file. nodes are only decoded the first
+	 * time they are run, which keeps startup cheap for large bundles
+	 *
+	 * @param file
+	 *            - the compiled program file, it must not change while mapped
+	 */
+	public void loadCompiledMapped(File file) throws IOException {
+		addToProgram(new ProgramReader().map(file));
+	}
+
+	private void addToProgram(Program loaded) {
+		program_builder.add(loaded);
+		program = program_builder.getProgram();
+	}
+
+	/**
+	 * swap the program for an immutable copy that is cheaper to run. Lazily loaded
+	 * nodes are still only compiled when they are first asked for. Nothing more
+	 * can be loaded, and no string tables added, until everything is unloaded.
+	 *
+	 * @return the frozen program
+	 */
+	public Program freeze() {
+		program = program_builder.freeze();
+		return program;
+	}
+
+	/**
+	 * write every loaded node in the binary format read by
+	 * {@link #loadCompiled(InputStream)}
+	 *
+	 * @param out
+	 *            - stream to write to, it is not closed
+	 */
+	public void saveCompiled(OutputStream out) throws IOException {
+		if (program == null)
+			throw new YarnRuntimeException("no program loaded to save");
+		new ProgramWriter().write(program, out);
+	}
+
 //	public void loadFile(String file, boolean show_tokens, boolean show_tree, String only_consider) {
 //		String input=null;
 //		try {
@@ -459,12 +582,11 @@ public class Dialogue {
 		return isNextComplete() ? (NodeCompleteResult) getNext() : null;
 	}
 
-	// we update the vm until the next result is no longer null
+	// we run the vm until the next result is no longer null
 	private void populateNext() {
-		while (next_result == null)
-			if (!update())
-				break;
-
+		while (next_result == null && vm != null && !execution_complete
+				&& vm.getExecutionState() == ExecutionState.Running)
+			vm.runUntilSuspend();
 	}
 
 	// CHECK FUNCS
@@ -542,9 +664,10 @@ public class Dialogue {
 	}
 
 	public Set<String> allNodes() {
-		return program.nodes.keySet();
+		return program.nodeNames();
 	}
 
+	@Override
 	public String currentNode() {
 		return vm == null ? null : vm.currentNodeName();
 	}
@@ -552,20 +675,20 @@ public class Dialogue {
 	HashMap<String, String> _tx4n;
 
 	protected Map<String, Program.Node> getAllNodes() {
-		return program.nodes;
+		return program.getNodes();
 	}
 
 	public HashMap<String, String> getTextForAllNodes() {
 		if (_tx4n == null)
 			_tx4n = new HashMap<String, String>();
 		_tx4n.clear();
-		for (Map.Entry<String, Program.Node> entry : program.nodes.entrySet()) {
-			String text = program.getTextForNode(entry.getKey());
+		for (String node_name : program.nodeNames()) {
+			String text = program.getTextForNode(node_name);
 
 			if (text == null)
 				continue;
 
-			_tx4n.put(entry.getKey(), text);
+			_tx4n.put(node_name, text);
 		}
 
 		return _tx4n;
@@ -578,10 +701,10 @@ public class Dialogue {
 	 * @return
 	 */
 	public String getTextForNode(String node) {
-		if (program.nodes.size() == 0) {
+		if (program.nodeCount() == 0) {
 			error_logger.log("no nodes are loaded!");
 			return null;
-		} else if (program.nodes.containsKey(node)) {
+		} else if (program.containsNode(node)) {
 			return program.getTextForNode(node);
 		} else {
 			error_logger.log("no node named " + node);
@@ -593,11 +716,17 @@ public class Dialogue {
 		program.loadStrings(string_table);
 	}
 
+	/**
+	 * the program's string table. a frozen program's table is read only, so it
+	 * gets a copy
+	 */
 	public HashMap<String, String> getStringTable() {
-		return program.strings;
+		if (program.strings instanceof HashMap)
+			return (HashMap<String, String>) program.strings;
+		return new HashMap<String, String>(program.strings);
 	}
 
-	protected HashMap<String, LineInfo> getStringInfoTable() {
+	protected Map<String, LineInfo> getStringInfoTable() {
 		return program.line_info;
 	}
 
@@ -610,24 +739,51 @@ public class Dialogue {
 		if (clear_visisted_nodes)
 			visited_node_count.clear();
 		program = null;
+		program_builder.clear();
 	}
 
 	public String getByteCode() {
 		return program.dumpCode(library);
 	}
 
+	@Override
 	public boolean nodeExists(String node_name) {
 		if (program == null) {
 			error_logger.log("no nodes compiled");
 			return false;
 		}
-		if (program.nodes.size() == 0) {
+		if (program.nodeCount() == 0) {
 			error_logger.log("no nodes in program");
 			return false;
 		}
 
-		return program.nodes.containsKey(node_name);
+		//a lazily loaded node is compiled here so it is ready to run
+		return program.getNode(node_name) != null;
+
+	}
 
+	/**
+	 * compile every node that has not been compiled yet, see
+	 * {@link Loader#setLazy(boolean)}. Each error is sent to the error logger.
+	 *
+	 * @return true if every node compiled
+	 */
+	public boolean validateAll() {
+		if (program == null) {
+			error_logger.log("no nodes compiled");
+			return false;
+		}
+
+		boolean valid = true;
+		for (String node_name : new ArrayList<String>(program.pendingNodeNames())) {
+			try {
+				program.getNode(node_name);
+			} catch (RuntimeException e) {
+				error_logger.log(e.getMessage());
+				valid = false;
+			}
+		}
+		return valid;
 	}
 
 	protected void printState() {
@@ -658,48 +814,57 @@ public class Dialogue {
 		unloadAll(true);
 	}
 
+	@Override
+	public int getVisitCount(String node_name) {
+		Integer count = visited_node_count.get(node_name);
+		return count == null ? 0 : count;
+	}
+
+	@Override
+	public YarnLogger getErrorLogger() {
+		return error_logger;
+	}
+
 	/**
 	 * A function exposed to yarn that returns the number of times a node has been
 	 * run. if no parameters are supplied, returns the number of times the current
-	 * node has been run.
+	 * node has been run. The counts are the calling dialogue's or session's own, so
+	 * one registration serves them all.
 	 */
-	protected ReturningFunc yarnFunctionNodeVisitCount = new ReturningFunc() {
+	protected static final ContextFunc yarnFunctionNodeVisitCount = new ContextFunc() {
 		@Override
-		public Object invoke(Value... params) {
+		public Object invoke(CallContext context, Value... params) {
 
 			// determin ethe node were checking
 			String node_name;
 
 			if (params.length == 0) {
 				// no marams? check the current node
-				node_name = vm.currentNodeName();
+				node_name = context.currentNode();
 			} else if (params.length == 1) {
 				// a parameter? check the named node
 				node_name = params[0].asString();
 				// ensure node existance
-				if (!nodeExists(node_name)) {
+				if (!context.nodeExists(node_name)) {
 					String error = StringUtils.format(" the node %s does not exist.", node_name);
-					error_logger.log(error);
+					context.getErrorLogger().log(error);
 					return 0;
 				}
 			} else {
 				// we go ttoo many parameters
 				String error = StringUtils.format("incorrect number of parameters visitcount expect 0 or 1, got %s",
 						params.length);
-				error_logger.log(error);
+				context.getErrorLogger().log(error);
 				return 0;
 			}
-			int visit_count = 0;
-			if (visited_node_count.containsKey(node_name))
-				visit_count = visited_node_count.get(node_name);
-			return visit_count;
+			return context.getVisitCount(node_name);
 		}
 	};
 
-	protected ReturningFunc yarnFunctionIsNodeVisited = new ReturningFunc() {
+	protected static final ContextFunc yarnFunctionIsNodeVisited = new ContextFunc() {
 		@Override
-		public Object invoke(Value... params) {
-			boolean visited = (Integer) yarnFunctionNodeVisitCount.invoke(params) > 0;
+		public Object invoke(CallContext context, Value... params) {
+			boolean visited = (Integer) yarnFunctionNodeVisitCount.invoke(context, params) > 0;
 			return visited;
 		}
 	};
@@ -882,10 +1047,35 @@ public class Dialogue {
 		public void clear();
 	}
 
+	/**
+	 * a variable storage that keeps each variable in a numbered slot. The machine
+	 * asks for a variable's slot once and then reads and writes it by number, so
+	 * names are not hashed on every access. Storages that only know names are
+	 * read and written by name.
+	 */
+	public static interface IndexedVariableStorage extends VariableStorage {
+		/**
+		 * the slot of the variable name, given out the first time it is asked
+		 * for. A name keeps its slot for as long as the storage lives, clearing only
+		 * drops the values.
+		 */
+		public int slotOf(String name);
+
+		public Value getValue(int slot);
+
+		public void setValue(int slot, Value value);
+	}
+
 	public static abstract class BaseVariableStorage implements VariableStorage {
 
 	}
 
+	/**
+	 * a variable storage backed by a map. The machine reads and writes it by
+	 * name, so subclasses that override
+	 * {@link #getValue(String)} or {@link #setValue(String, Value)} see every
+	 * access. Use a {@link SlotVariableStorage} to skip the name lookups.
+	 */
 	public static class MemoryVariableStorage extends BaseVariableStorage {
 
 		HashMap<String, Value> variables = new HashMap<String, Value>();
@@ -897,10 +1087,8 @@ public class Dialogue {
 
 		@Override
 		public Value getValue(String name) {
-			Value value = Value.NULL;
-			if (variables.containsKey(name))
-				value = variables.get(name);
-			return value;
+			Value value = variables.get(name);
+			return value == null ? Value.NULL : value;
 		}
 
 		@Override
@@ -910,6 +1098,72 @@ public class Dialogue {
 
 	}
 
+	/**
+	 * an in memory variable storage that keeps each variable in a numbered slot.
+	 * The machine reads and writes it by slot, the methods taking a name are only
+	 * used from outside the machine, so overriding them does not see the
+	 * machine's accesses.
+	 */
+	public static class SlotVariableStorage extends BaseVariableStorage implements IndexedVariableStorage {
+
+		private HashMap<String, Integer> slots = new HashMap<String, Integer>();
+		private Value[] values = new Value[16];
+
+		public SlotVariableStorage() {
+		}
+
+		/**
+		 * start with a slot for every name, in order. Use with
+		 * {@link Program#variableNames()} so a program's variables sit together
+		 */
+		public SlotVariableStorage(NameTable names) {
+			for (int i = 0; i < names.size(); i++)
+				slotOf(names.name(i));
+		}
+
+		@Override
+		public int slotOf(String name) {
+			Integer slot = slots.get(name);
+			if (slot == null) {
+				slot = slots.size();
+				slots.put(name, slot);
+				if (slot == values.length)
+					values = Arrays.copyOf(values, slot * 2);
+			}
+			return slot;
+		}
+
+		@Override
+		public Value getValue(int slot) {
+			Value value = values[slot];
+			return value == null ? Value.NULL : value;
+		}
+
+		@Override
+		public void setValue(int slot, Value value) {
+			values[slot] = value;
+		}
+
+		@Override
+		public void setValue(String name, Value value) {
+			//find the slot first, it may grow the array
+			int slot = slotOf(name);
+			values[slot] = value;
+		}
+
+		@Override
+		public Value getValue(String name) {
+			Integer slot = slots.get(name);
+			return slot == null ? Value.NULL : getValue(slot);
+		}
+
+		@Override
+		public void clear() {
+			Arrays.fill(values, null);
+		}
+
+	}
+
 	/**
 	 * a line localized into the current locale that is used in lines, options and
 	 * shortcut options. Anything that is user-facing.
@@ -956,119 +1210,120 @@ public class Dialogue {
 	private static class StandardLibrary extends Library {
 
 		public StandardLibrary() {
-			// operations
+			// operations, the compiler emits these as their own instructions
+			// which must give the same results as the functions here
 
-			registerFunction(TokenType.Add.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Add.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].add(params[1]);
 				}
-			});
+			}, ByteCode.Add);
 
-			registerFunction(TokenType.Minus.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Minus.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].sub(params[1]);
 				}
-			});
+			}, ByteCode.Subtract);
 
-			registerFunction(TokenType.UnaryMinus.name(), 1, new ReturningFunc() {
+			registerOperator(TokenType.UnaryMinus.name(), 1, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].negative();
 				}
-			});
+			}, ByteCode.Negate);
 
-			registerFunction(TokenType.Divide.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Divide.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].div(params[1]);
 				}
-			});
+			}, ByteCode.Divide);
 
-			registerFunction(TokenType.Multiply.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Multiply.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].mul(params[1]);
 				}
-			});
+			}, ByteCode.Multiply);
 
-			registerFunction(TokenType.Modulo.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Modulo.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].mod(params[1]);
 				}
-			});
+			}, ByteCode.Modulo);
 
-			registerFunction(TokenType.EqualTo.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.EqualTo.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].equals(params[1]);
 				}
-			});
+			}, ByteCode.EqualTo);
 
-			registerFunction(TokenType.NotEqualTo.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.NotEqualTo.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return !params[0].equals(params[1]);
 				}
-			});
+			}, ByteCode.NotEqualTo);
 
-			registerFunction(TokenType.GreaterThan.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.GreaterThan.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].greaterThan(params[1]);
 				}
-			});
+			}, ByteCode.GreaterThan);
 
-			registerFunction(TokenType.GreaterThanOrEqualTo.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.GreaterThanOrEqualTo.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].greaterThanOrEqual(params[1]);
 				}
-			});
+			}, ByteCode.GreaterThanOrEqualTo);
 
-			registerFunction(TokenType.LessThan.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.LessThan.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].lessThan(params[1]);
 				}
-			});
+			}, ByteCode.LessThan);
 
-			registerFunction(TokenType.LessThanOrEqualTo.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.LessThanOrEqualTo.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].lessThanOrEqual(params[1]);
 				}
-			});
+			}, ByteCode.LessThanOrEqualTo);
 
-			registerFunction(TokenType.And.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.And.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].asBool() && params[1].asBool();
 				}
-			});
+			}, ByteCode.And);
 
-			registerFunction(TokenType.Or.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Or.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].asBool() || params[1].asBool();
 				}
-			});
+			}, ByteCode.Or);
 
-			registerFunction(TokenType.Xor.name(), 2, new ReturningFunc() {
+			registerOperator(TokenType.Xor.name(), 2, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return params[0].asBool() ^ params[1].asBool();
 				}
-			});
+			}, ByteCode.Xor);
 
-			registerFunction(TokenType.Not.name(), 1, new ReturningFunc() {
+			registerOperator(TokenType.Not.name(), 1, new ReturningFunc() {
 				@Override
 				public Object invoke(Value... params) {
 					return !params[0].asBool();
 				}
-			});
+			}, ByteCode.Not);
 
 			// end operations ===
 
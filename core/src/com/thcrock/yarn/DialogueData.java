@@ -34,7 +34,7 @@ public class DialogueData implements VariableStorage {
 	}
 
 	public void put(String name, Object object) {
-		setValue(name, new Value(object));
+		setValue(name, Value.of(object));
 	}
 
 	public boolean contains(String name) {
@@ -51,18 +51,16 @@ public class DialogueData implements VariableStorage {
 	}
 
 	public String getString(String name) {
-		if (variables.containsKey(name)) {
-			Value val = variables.get(name);
+		Value val = variables.get(name);
+		if (val != null)
 			return val.getType() == Type.STRING?val.getStringValue():val.asString();
-		}
 		return Value.NULL.asString();
 	}
 
 	public float getFloat(String name) {
-		if(variables.containsKey(name)) {
-			Value val = variables.get(name);
+		Value val = variables.get(name);
+		if (val != null)
 			return val.getType() == Type.NUMBER?val.getNumberValue():val.asNumber();
-		}
 		return Value.NULL.asNumber();
 	}
 
@@ -71,10 +69,9 @@ public class DialogueData implements VariableStorage {
 	}
 
 	public boolean getBoolean(String name) {
-		if (variables.containsKey(name)) {
-			Value val = variables.get(name);
+		Value val = variables.get(name);
+		if (val != null)
 			return val.getType() == Type.BOOL?val.getBoolValue():val.asBool();
-		}
 		return Value.NULL.asBool();
 	}
 
@@ -124,10 +121,7 @@ public class DialogueData implements VariableStorage {
 
 	@Override
 	public Value getValue(String name) {
-		Value value = Value.NULL;
-		if (variables.containsKey(name)) {
-		   value =  variables.get(name);
-		}
-		return value;
+		Value value = variables.get(name);
+		return value == null ? Value.NULL : value;
 	}
 }
@@ -0,0 +1,87 @@
+package com.kyper.yarn;
+
+import java.util.Set;
+
+import com.kyper.yarn.Dialogue.VariableStorage;
+import com.kyper.yarn.Dialogue.YarnLogger;
+import com.kyper.yarn.Dialogue.YarnRuntimeException;
+
+/**
+ * one frozen program and library shared by any number of
+ * {@link DialogueSession}s. Load and compile with a {@link Dialogue} as usual,
+ * then hand it to a runtime and start a session per player. Sessions only keep
+ * their own machine state, variables and visit counts.
+ * <p>
+ * the program is frozen so it is safe to run from many threads at once. The
+ * library and loggers are shared as they are, so the library must not change
+ * and the loggers must be safe to call from every thread that runs a session.
+ * Functions like visited are handed the session that calls them, so they
+ * answer from that session's visit counts without a library per session.
+ */
+public class DialogueRuntime {
+
+	private final Program program;
+	private final Library library;
+	private final YarnLogger debug_logger;
+	private final YarnLogger error_logger;
+
+	/**
+	 * share everything dialogue has loaded. The dialogue's program is frozen, so
+	 * nothing more can be loaded into it afterwards.
+	 */
+	public DialogueRuntime(Dialogue dialogue) {
+		this(dialogue.freeze(), dialogue.library, dialogue.debug_logger, dialogue.error_logger);
+	}
+
+	/**
+	 * @param program
+	 *            - the compiled program, frozen here if it is not already
+	 * @param library
+	 *            - the functions the program was compiled against
+	 */
+	public DialogueRuntime(Program program, Library library, YarnLogger debug_logger, YarnLogger error_logger) {
+		if (program == null)
+			throw new YarnRuntimeException("no program to run");
+		if (debug_logger == null)
+			throw new YarnRuntimeException("debug_logger must be set before running");
+		if (error_logger == null)
+			throw new YarnRuntimeException("error_logger must be set before running");
+
+		this.program = program.freeze();
+		this.library = library;
+		this.debug_logger = debug_logger;
+		this.error_logger = error_logger;
+	}
+
+	/**
+	 * a new session that keeps its variables in continuity
+	 */
+	public DialogueSession newSession(VariableStorage continuity) {
+		return new DialogueSession(this, continuity);
+	}
+
+	public Program getProgram() {
+		return program;
+	}
+
+	public Library getLibrary() {
+		return library;
+	}
+
+	public boolean nodeExists(String node_name) {
+		return program.containsNode(node_name);
+	}
+
+	public Set<String> allNodes() {
+		return program.nodeNames();
+	}
+
+	public YarnLogger getErrorLogger() {
+		return error_logger;
+	}
+
+	protected VirtualMachine newMachine(DialogueSession session) {
+		return new VirtualMachine(program, library, session.getVariableStorage(), debug_logger, error_logger, session);
+	}
+
+}
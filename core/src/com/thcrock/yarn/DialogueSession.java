@@ -0,0 +1,217 @@
+package com.kyper.yarn;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+
+import com.kyper.yarn.Dialogue.CommandResult;
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.NodeCompleteResult;
+import com.kyper.yarn.Dialogue.OptionResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Dialogue.VariableStorage;
+import com.kyper.yarn.Dialogue.YarnLogger;
+import com.kyper.yarn.Library.CallContext;
+import com.kyper.yarn.VirtualMachine.CommandHandler;
+import com.kyper.yarn.VirtualMachine.ExecutionState;
+import com.kyper.yarn.VirtualMachine.LineHandler;
+import com.kyper.yarn.VirtualMachine.NodeCompleteHandler;
+import com.kyper.yarn.VirtualMachine.OptionsHandler;
+
+/**
+ * one run through a {@link DialogueRuntime}'s program. A session only holds
+ * its machine, variables and the nodes it has visited, everything else belongs
+ * to the runtime. A session must only be used by one thread at a time.
+ */
+public class DialogueSession implements CallContext {
+
+	private final DialogueRuntime runtime;
+	private final VariableStorage continuity;
+
+	//made by the first start and reused by the ones after it
+	private VirtualMachine vm;
+	private RunnerResult next_result;
+	private boolean execution_complete;
+
+	//made the first time a node is completed
+	private HashMap<String, Integer> visited_node_count;
+
+	protected DialogueSession(DialogueRuntime runtime, VariableStorage continuity) {
+		this.runtime = runtime;
+		this.continuity = continuity;
+	}
+
+	public DialogueRuntime getRuntime() {
+		return runtime;
+	}
+
+	public VariableStorage getVariableStorage() {
+		return continuity;
+	}
+
+	public Library getLibrary() {
+		return runtime.getLibrary();
+	}
+
+	/**
+	 * start running from the given node
+	 *
+	 * @return false if there is no such node
+	 */
+	public boolean start(String start) {
+		next_result = null;
+		execution_complete = false;
+
+		if (vm == null) {
+			vm = runtime.newMachine(this);
+			Handlers handlers = new Handlers();
+			vm.setLineHandler(handlers);
+			vm.setOptionsHandler(handlers);
+			vm.setCommandHandler(handlers);
+			vm.setCompleteHandler(handlers);
+		}
+
+		return vm.restart(start);
+	}
+
+	public boolean start() {
+		return start(Dialogue.DEFAULT_START);
+	}
+
+	public void stop() {
+		if (vm != null)
+			vm.stop();
+	}
+
+	public boolean isRunning() {
+		return vm != null && vm.getExecutionState() != ExecutionState.Stopped;
+	}
+
+	@Override
+	public String currentNode() {
+		return vm == null ? null : vm.currentNodeName();
+	}
+
+	/**
+	 * the next result, running the machine until there is one. null once the
+	 * dialogue is over, or while it waits on an option to be chosen.
+	 */
+	public RunnerResult getNext() {
+		RunnerResult result = checkNext();
+		next_result = null;
+		return result;
+	}
+
+	/**
+	 * the next result without taking it, running the machine until there is one
+	 */
+	public RunnerResult checkNext() {
+		while (next_result == null && isRunning() && !execution_complete
+				&& vm.getExecutionState() != ExecutionState.WaitingOnOptionSelection)
+			vm.runUntilSuspend();
+		return next_result;
+	}
+
+	public boolean isNextLine() {
+		return checkNext() instanceof LineResult;
+	}
+
+	public boolean isNextOptions() {
+		return checkNext() instanceof OptionResult;
+	}
+
+	public boolean isNextCommand() {
+		return checkNext() instanceof CommandResult;
+	}
+
+	public boolean isNextComplete() {
+		return checkNext() instanceof NodeCompleteResult;
+	}
+
+	/**
+	 * run a single instruction, {@link #checkNext()} runs until there is a result
+	 *
+	 * @return false if the machine has stopped or is waiting on an option
+	 */
+	public boolean update() {
+		if (!isRunning() || execution_complete || vm.getExecutionState() == ExecutionState.WaitingOnOptionSelection)
+			return false;
+		vm.runNext();
+		return true;
+	}
+
+	@Override
+	public boolean nodeExists(String node_name) {
+		return runtime.nodeExists(node_name);
+	}
+
+	@Override
+	public YarnLogger getErrorLogger() {
+		return runtime.getErrorLogger();
+	}
+
+	/**
+	 * how many times this session has finished the node
+	 */
+	@Override
+	public int getVisitCount(String node_name) {
+		if (visited_node_count == null)
+			return 0;
+		Integer count = visited_node_count.get(node_name);
+		return count == null ? 0 : count;
+	}
+
+	public Set<String> getVisitedNodes() {
+		if (visited_node_count == null)
+			return Collections.emptySet();
+		return Collections.unmodifiableSet(visited_node_count.keySet());
+	}
+
+	/**
+	 * forget the visited nodes, the variables are left alone
+	 */
+	public void clearVisitedNodes() {
+		visited_node_count = null;
+	}
+
+	/**
+	 * takes what the machine hands back, one object for all four handlers
+	 */
+	private class Handlers implements LineHandler, OptionsHandler, CommandHandler, NodeCompleteHandler {
+
+		@Override
+		public void handle(LineResult line) {
+			next_result = line;
+		}
+
+		@Override
+		public void handle(OptionResult options) {
+			next_result = options;
+		}
+
+		@Override
+		public void handle(CommandResult command) {
+			if (command.getCommand().equals("stop")) {
+				vm.stop();
+			} else if (command.getCommand().equals(VirtualMachine.EXEC_COMPLETE)) {
+				execution_complete = true;
+			} else {
+				next_result = command;
+			}
+		}
+
+		@Override
+		public void handle(NodeCompleteResult complete) {
+			String node = vm.currentNodeName();
+			if (node != null) {
+				if (visited_node_count == null)
+					visited_node_count = new HashMap<String, Integer>();
+				Integer count = visited_node_count.get(node);
+				visited_node_count.put(node, count == null ? 1 : count + 1);
+			}
+			next_result = complete;
+		}
+
+	}
+
+}
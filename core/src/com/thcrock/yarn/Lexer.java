@@ -1,19 +1,22 @@
 package com.kyper.yarn;
 
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ArrayDeque;
-import java.util.Collections;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.List;
 import regexodus.Matcher;
 import regexodus.Pattern;
 //import java.util.regex.Matcher;
 //import java.util.regex.Pattern;
-import com.badlogic.gdx.Gdx;
-
+import com.kyper.yarn.LexerGrammar.LexerState;
+import com.kyper.yarn.LexerGrammar.TokenRule;
+
+/**
+ * a lightweight cursor over the shared {@link LexerGrammar}. A lexer only holds
+ * the state of the text it is currently tokenising, so it is cheap to create and
+ * can be reused for any number of nodes, but it must not be shared between
+ * threads.
+ */
 public class Lexer {
 
 	// single-line comments, If this is encountered at any point, the rest of the line is just skipped
@@ -22,258 +25,180 @@ public class Lexer {
 
 	public static final String LINE_SEPARATOR = "\n";
 
-	//states consts
-	private static final String BASE = "base";
-	private static final String DASH = "-";
-	private static final String COMMAND = "command";
-	private static final String LINK = "link";
-	private static final String SHORTCUT = "shortcut";
-	private static final String TAG = "tag";
-	private static final String EXPRESSION = "expression";
-	private static final String ASSIGNMENT = "assignment";
-	private static final String OPTION = "option";
-	private static final String OR = "or";
-	private static final String DESTINATION = "destination";
-
 	private static final Regex WHITESPACE = new Regex("\\s*");
+	private static final Regex INITIAL_INDENT = new Regex("^(\\s*)");
 
-	protected HashMap<String, LexerState> states;
+	/**
+	 * how token rules are matched against a line
+	 */
+	public enum MatchMode {
+		Regex, //match every rule with its compiled regexodus pattern
+
+		Scanner //match every rule in place with the hand written {@link TokenScanner}
+	}
+
+	protected MatchMode match_mode;
+
+	protected final LexerGrammar grammar;
 
-	protected LexerState default_state;
 	protected LexerState current_state;
 
-	protected ArrayDeque<IntBoolPair> indentation_stack;
+	//the indentation levels we have passed, and whether each one emitted an indent token
+	protected int[] indentation_levels = new int[8];
+	protected boolean[] indentation_emitted = new boolean[8];
+	protected int indentation_depth;
 	protected boolean should_track_next_indent;
 
+	//scratch buffer for the regex match mode
+	private StringBuilder regex_input;
+
+	//the line being tokenised
+	private TextSlice line_view;
+
 	public Lexer() {
-		createStates();
+		this(MatchMode.Scanner);
 	}
 
-	private void createStates() {
-		HashMap<TokenType, String> patterns = new HashMap<Lexer.TokenType, String>();
-
-        patterns.put(TokenType.Text, ".*");
-
-        patterns.put(TokenType.Number, "-?[0-9]+(\\.[0-9+])?");
-        patterns.put(TokenType.Str, "\"([^\"\"\\\\]*(?:\\.[^\"\"\\\\]*)*)\"");
-        patterns.put(TokenType.TagMarker, "#");
-        patterns.put(TokenType.LeftParen, "\\(");
-        patterns.put(TokenType.RightParen, "\\)");
-        patterns.put(TokenType.EqualTo, "(==|is(?!\\w)|eq(?!\\w))");
-        patterns.put(TokenType.EqualToOrAssign, "(=|to(?!\\w))");
-        patterns.put(TokenType.NotEqualTo, "(!=|neq(?!\\w))");
-        patterns.put(TokenType.GreaterThanOrEqualTo, "(>=|gte(?!\\w))");
-        patterns.put(TokenType.GreaterThan, "(>|gt(?!\\w))");
-        patterns.put(TokenType.LessThanOrEqualTo, "(<=|lte(?!\\w))");
-        patterns.put(TokenType.LessThan, "(<|lt(?!\\w))");
-        patterns.put(TokenType.AddAssign, "\\+=");
-        patterns.put(TokenType.MinusAssign, "-=");
-        patterns.put(TokenType.MultiplyAssign, "\\*=");
-        patterns.put(TokenType.DivideAssign, "/=");
-        patterns.put(TokenType.Add, "\\+");
-        patterns.put(TokenType.Minus, "-");
-        patterns.put(TokenType.Multiply, "\\*");
-        patterns.put(TokenType.Divide, "/");
-        patterns.put(TokenType.Modulo, "%");
-        patterns.put(TokenType.And, "(&&|and(?!\\w))");
-        patterns.put(TokenType.Or, "(\\|\\||or(?!\\w))");
-        patterns.put(TokenType.Xor, "(\\^|xor(?!\\w))");
-        patterns.put(TokenType.Not, "(!|not(?!\\w))");
-        patterns.put(TokenType.Variable, "\\$([A-Za-z0-9_.])+");
-        patterns.put(TokenType.Comma, ",");
-        patterns.put(TokenType.True, "true(?!\\w)");
-        patterns.put(TokenType.False, "false(?!\\w)");
-        patterns.put(TokenType.Null, "null(?!\\w)");
-
-        patterns.put(TokenType.BeginCommand, "<<");
-        patterns.put(TokenType.EndCommand, ">>");
-
-        patterns.put(TokenType.OptionStart, "\\[\\[");
-        patterns.put(TokenType.OptionEnd, "]]");
-        patterns.put(TokenType.OptionDelimit, "\\|");
-
-        patterns.put(TokenType.Identifier, "[a-zA-Z0-9_:.]+");
-
-        patterns.put(TokenType.If, "if(?!\\w)");
-        patterns.put(TokenType.Else, "else(?!\\w)");
-        patterns.put(TokenType.ElseIf, "elseif(?!\\w)");
-        patterns.put(TokenType.EndIf, "endif(?!\\w)");
-        patterns.put(TokenType.Set, "set(?!\\w)");
-
-        patterns.put(TokenType.ShortcutOption, "->\\s*");
-		//compound states
-		String shortcut_option = SHORTCUT + DASH + OPTION;
-		String shortcut_option_tag = shortcut_option + DASH + TAG;
-		String command_or_expression = COMMAND + DASH + OR + DASH + EXPRESSION;
-		String link_destination = LINK + DASH + DESTINATION;
-
-		states = new HashMap<String, Lexer.LexerState>();
-		states.entrySet();
-
-		states.put(BASE, new LexerState(patterns));
-		states.get(BASE).addTransition(TokenType.BeginCommand, COMMAND, true);
-		states.get(BASE).addTransition(TokenType.OptionStart, LINK, true);
-		states.get(BASE).addTransition(TokenType.ShortcutOption, shortcut_option);
-		states.get(BASE).addTransition(TokenType.TagMarker, TAG, true);
-		states.get(BASE).addTextRule(TokenType.Text);
-
-		states.put(TAG, new LexerState(patterns));
-		states.get(TAG).addTransition(TokenType.Identifier, BASE);
-
-		states.put(shortcut_option, new LexerState(patterns));
-		states.get(shortcut_option).track_next_indentation = true;
-		states.get(shortcut_option).addTransition(TokenType.BeginCommand, EXPRESSION, true);
-		states.get(shortcut_option).addTransition(TokenType.TagMarker, shortcut_option_tag, true);
-		states.get(shortcut_option).addTextRule(TokenType.Text, BASE);
-
-		states.put(shortcut_option_tag, new LexerState(patterns));
-		states.get(shortcut_option_tag).addTransition(TokenType.Identifier, shortcut_option);
-
-		states.put(COMMAND, new LexerState(patterns));
-		states.get(COMMAND).addTransition(TokenType.If, EXPRESSION);
-		states.get(COMMAND).addTransition(TokenType.Else);
-		states.get(COMMAND).addTransition(TokenType.ElseIf, EXPRESSION);
-		states.get(COMMAND).addTransition(TokenType.EndIf);
-		states.get(COMMAND).addTransition(TokenType.Set, ASSIGNMENT);
-		states.get(COMMAND).addTransition(TokenType.EndCommand, BASE, true);
-		states.get(COMMAND).addTransition(TokenType.Identifier, command_or_expression);
-		states.get(COMMAND).addTextRule(TokenType.Text);
-
-		states.put(command_or_expression, new LexerState(patterns));
-		states.get(command_or_expression).addTransition(TokenType.LeftParen, EXPRESSION);
-		states.get(command_or_expression).addTransition(TokenType.EndCommand, BASE, true);
-		states.get(command_or_expression).addTextRule(TokenType.Text);
-
-		states.put(ASSIGNMENT, new LexerState(patterns));
-		states.get(ASSIGNMENT).addTransition(TokenType.Variable);
-		states.get(ASSIGNMENT).addTransition(TokenType.EqualToOrAssign, EXPRESSION);
-		states.get(ASSIGNMENT).addTransition(TokenType.AddAssign, EXPRESSION);
-		states.get(ASSIGNMENT).addTransition(TokenType.MinusAssign, EXPRESSION);
-		states.get(ASSIGNMENT).addTransition(TokenType.MultiplyAssign, EXPRESSION);
-		states.get(ASSIGNMENT).addTransition(TokenType.DivideAssign, EXPRESSION);
-
-		states.put(EXPRESSION, new LexerState(patterns));
-		states.get(EXPRESSION).addTransition(TokenType.EndCommand, BASE);
-		states.get(EXPRESSION).addTransition(TokenType.Number);
-		states.get(EXPRESSION).addTransition(TokenType.Str);
-		states.get(EXPRESSION).addTransition(TokenType.LeftParen);
-		states.get(EXPRESSION).addTransition(TokenType.RightParen);
-		states.get(EXPRESSION).addTransition(TokenType.EqualTo);
-		states.get(EXPRESSION).addTransition(TokenType.EqualToOrAssign);
-		states.get(EXPRESSION).addTransition(TokenType.NotEqualTo);
-		states.get(EXPRESSION).addTransition(TokenType.GreaterThanOrEqualTo);
-		states.get(EXPRESSION).addTransition(TokenType.GreaterThan);
-		states.get(EXPRESSION).addTransition(TokenType.LessThanOrEqualTo);
-		states.get(EXPRESSION).addTransition(TokenType.LessThan);
-		states.get(EXPRESSION).addTransition(TokenType.Add);
-		states.get(EXPRESSION).addTransition(TokenType.Minus);
-		states.get(EXPRESSION).addTransition(TokenType.Multiply);
-		states.get(EXPRESSION).addTransition(TokenType.Divide);
-		states.get(EXPRESSION).addTransition(TokenType.Modulo);
-		states.get(EXPRESSION).addTransition(TokenType.And);
-		states.get(EXPRESSION).addTransition(TokenType.Or);
-		states.get(EXPRESSION).addTransition(TokenType.Xor);
-		states.get(EXPRESSION).addTransition(TokenType.Not);
-		states.get(EXPRESSION).addTransition(TokenType.Variable);
-		states.get(EXPRESSION).addTransition(TokenType.Comma);
-		states.get(EXPRESSION).addTransition(TokenType.True);
-		states.get(EXPRESSION).addTransition(TokenType.False);
-		states.get(EXPRESSION).addTransition(TokenType.Null);
-		states.get(EXPRESSION).addTransition(TokenType.Identifier);
-
-		states.put(LINK, new LexerState(patterns));
-		states.get(LINK).addTransition(TokenType.OptionEnd, BASE, true);
-		states.get(LINK).addTransition(TokenType.OptionDelimit, link_destination, true);
-		states.get(LINK).addTextRule(TokenType.Text);
-
-		states.put(link_destination, new LexerState(patterns));
-		states.get(link_destination).addTransition(TokenType.Identifier);
-		states.get(link_destination).addTransition(TokenType.OptionEnd, BASE);
-
-		default_state = states.get(BASE);
-
-		for (Map.Entry<String, LexerState> entry : states.entrySet()) {
-			entry.getValue().name = entry.getKey();
-		}
+	public Lexer(MatchMode match_mode) {
+		this.match_mode = match_mode;
+		this.grammar = LexerGrammar.get();
+	}
+
+	public MatchMode getMatchMode() {
+		return match_mode;
+	}
 
+	public LexerGrammar getGrammar() {
+		return grammar;
 	}
 
-	public TokenList tokenise(String text) {
+	public TokenBuffer tokenise(CharSequence text) {
 
 		//setup
-		indentation_stack = new ArrayDeque<IntBoolPair>();
-		indentation_stack.push(new IntBoolPair(0, false));
+		indentation_depth = 0;
+		pushIndentation(0, false);
 		should_track_next_indent = false;
 
-		TokenList tokens = new TokenList();
+		TokenBuffer tokens = new TokenBuffer(grammar, Math.max(16, text.length() / 4));
+		tokens.setSource(text);
 
-		current_state = default_state;
+		current_state = grammar.getDefaultState();
 
-		//parse each line
-		ArrayList<String> lines = new ArrayList<>(Arrays.asList(text.split(LINE_SEPARATOR)));
-		//blank line to ensure 0 indentation end
-		lines.add("");
+		//parse each line, trailing empty lines are dropped
+		int text_end = text.length();
+		while (text_end > 0 && (text.charAt(text_end - 1) == '\n' || text.charAt(text_end - 1) == '\r'))
+			text_end--;
 
 		int line_number = 1;
 
-		for (String line : lines) {
-			tokens.addAll(tokeniseLine(line, line_number));
-			line_number++;
+		if (text_end > 0 || text.length() == 0) {
+			int line_start = 0;
+			while (true) {
+				int line_end = line_start;
+				while (line_end < text_end && text.charAt(line_end) != '\n')
+					line_end++;
+
+				tokeniseLine(text, line_start, line_end, line_number, tokens);
+				line_number++;
+
+				if (line_end == text_end)
+					break;
+				line_start = line_end + 1;
+			}
 		}
 
-		Token end_of_input = new Token(TokenType.EndOfInput, current_state,line_number,0);
-		//tokens.insert(0,end_of_input);
-		tokens.add(end_of_input);
-		//=====================================
-		//TODO: TO REVERSE INPUT PLEAS EUSE THIS
-		//tokens.reverse();
-		//TODO: REVERSE TOKENS
-		//====================================
+		//blank line to ensure 0 indentation end
+		tokeniseLine(text, 0, 0, line_number, tokens);
+		line_number++;
+
+		tokens.add(TokenType.EndOfInput, line_number, 0, current_state.index);
 
+		return tokens;
+	}
 
+	public TokenBuffer tokeniseLine(String line, int line_number) {
+		TokenBuffer tokens = new TokenBuffer(grammar);
+		tokens.setSource(line);
+		tokeniseLine(line, 0, line.length(), line_number, tokens);
 		return tokens;
 	}
 
-	public TokenList tokeniseLine(String line, int line_number) {
-		ArrayDeque<Token> line_tokens_stack = new ArrayDeque<Token>();
+	/**
+	 * tokenise text[start, end) as a single line, appending its tokens to the end
+	 * of tokens. The line is read where it is unless it has tabs to expand or \r's
+	 * to strip, then it is rewritten into the buffer's text first.
+	 */
+	protected void tokeniseLine(CharSequence text, int start, int end, int line_number, TokenBuffer tokens) {
+		int line_offset = start;
+		CharSequence source = text;
+
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c != '\t' && c != '\r')
+				continue;
+
+			//replace tabs with four spaces and strip out \r's
+			StringBuilder rewritten = tokens.text;
+			int rewritten_start = rewritten.length();
+			rewritten.append(text, start, i);
+			for (; i < end; i++) {
+				c = text.charAt(i);
+				if (c == '\t')
+					rewritten.append("    ");
+				else if (c != '\r')
+					rewritten.append(c);
+			}
+
+			line_offset = tokens.textOffset(rewritten_start);
+			source = rewritten;
+			start = rewritten_start;
+			end = rewritten.length();
+			break;
+		}
+
+		if (line_view == null)
+			line_view = new TextSlice(source, start, end);
+		else
+			line_view.set(source, start, end);
 
-		//replace tabs with four spaces
-		line = line.replaceAll("\t", "    ");
+		tokeniseLine(line_view, line_offset, line_number, tokens);
+	}
 
-		//strip out \r's
-		line = line.replaceAll("\r", "");
+	/**
+	 * tokenise a single line, appending its tokens to the end of tokens. Token
+	 * offsets are line_offset plus their column in the line.
+	 */
+	private void tokeniseLine(CharSequence line, int line_offset, int line_number, TokenBuffer tokens) {
+		//the tokens before this one belong to earlier lines
+		int line_first_token = tokens.size();
 
 		//record the indentation level if previous state wants us to
 		int this_indentation = lineIndentation(line);
-		IntBoolPair previous_indentation = indentation_stack.peek();
+		int previous_indentation = peekIndentation();
 
-		if (should_track_next_indent && this_indentation > previous_indentation.key) {
+		if (should_track_next_indent && this_indentation > previous_indentation) {
 			//if we are more indented than before, emit an
 			//indent token and record this indent level
-			indentation_stack.push(new IntBoolPair(this_indentation, true));
-
-			Token indent = new Token(TokenType.Indent, current_state, line_number, previous_indentation.key);
-			indent.value = padLeft("", this_indentation - previous_indentation.key);
+			pushIndentation(this_indentation, true);
 
+			tokens.add(TokenType.Indent, line_offset + previous_indentation, line_offset + this_indentation,
+					line_number, previous_indentation, current_state.index, false);
 
 			should_track_next_indent = false;
 
-			line_tokens_stack.push(indent);
-
-		} else if (this_indentation < previous_indentation.key) {
+		} else if (this_indentation < previous_indentation) {
 
 			//if we are less indented, emit a dedent for every
 			//indentation level that we passed on the way back to 0 that also
 			//emitted an indentation token.
 			//at the same time, remove those indent levels from the stack
 
-			while (this_indentation < indentation_stack.peek().key) {
+			while (this_indentation < peekIndentation()) {
 
-				IntBoolPair top_level = indentation_stack.pop();
+				indentation_depth--;
 
-				if (top_level.value) {
-					Token dedent = new Token(TokenType.Dedent, current_state, line_number, 0);
-					line_tokens_stack.push(dedent);
+				if (indentation_emitted[indentation_depth]) {
+					tokens.add(TokenType.Dedent, line_number, 0, current_state.index);
 				}
 			}
 		}
@@ -281,29 +206,26 @@ public class Lexer {
 		//now we start finding tokens
 		int column_number = this_indentation;
 
-		Regex whitespace = WHITESPACE;
-
 		while (column_number < line.length()) {
 
 			//if we are about to hit a line comment, abort processing line
 			//asap
-			if (line.substring(column_number).startsWith(LINE_COMMENT))
+			if (startsWith(line, LINE_COMMENT, column_number))
 				break;
 
 			boolean matched = false;
 
-			for (TokenRule rule : current_state.token_rules) {
-
-				Matcher myMatch = rule.altRegex.match(line,column_number);
-				Matcher match = rule.regex.match(line);
-				
+			List<TokenRule> rules = current_state.token_rules;
+			for (int i = 0; i < rules.size(); i++) {
+				TokenRule rule = rules.get(i);
 
-                myMatch.setPosition(0);
-				if (!myMatch.find()) {
+				int match_length = matchRule(rule, line, column_number);
+				if (match_length == TokenScanner.NO_MATCH) {
 					continue;
-                }
+				}
 
-				String token_text;
+				int token_start = column_number;
+				int token_end = column_number + match_length;
 
 				if (rule.type == TokenType.Text) {
 					//if this is text, then back up to the most recent text
@@ -316,66 +238,38 @@ public class Lexer {
 					//instead, we want to match as this
 					//  BeginCommand text("flip Harley3 +1") EndCommand
 
-					int text_start_index = this_indentation;
+					token_start = this_indentation;
 
-					if (line_tokens_stack.size() > 0) {
-						while (line_tokens_stack.peek().type == TokenType.Identifier) {
-							line_tokens_stack.pop();
+					if (tokens.size() > line_first_token) {
+						while (tokens.size() > line_first_token
+								&& tokens.type(tokens.size() - 1) == TokenType.Identifier) {
+							tokens.removeLast();
 						}
-
-						Token start_delimiter_token = line_tokens_stack.peek();
-						text_start_index = start_delimiter_token.column_number;
-						if (start_delimiter_token.type == TokenType.Indent)
-							text_start_index += start_delimiter_token.value.length();
-						if (start_delimiter_token.type == TokenType.Dedent)
-							text_start_index = this_indentation;
+						if (tokens.size() == line_first_token)
+							throw new TokeniserException(line_number, column_number, "Expected a text delimiter");
+
+						//token columns are where the token ended
+						int start_delimiter = tokens.size() - 1;
+						token_start = tokens.column(start_delimiter);
+						if (tokens.type(start_delimiter) == TokenType.Indent)
+							token_start += tokens.length(start_delimiter);
+						if (tokens.type(start_delimiter) == TokenType.Dedent)
+							token_start = this_indentation;
 					}
-
-					column_number = text_start_index;
-
-                    match.setPosition(0);
-					match.find();
-
-					//TODO: ====
-					//THIS IS PROBABLY WRONG
-					int text_end_index = match.start()+match.group().length();
-					token_text = line.substring(text_start_index,text_end_index);
-					//token_text = token_text. ? token_text.startsWith("\\s") : ;
-
-
-				}else {
-					token_text = myMatch.group();
-
-				}
-
-				column_number+=token_text.length();
-
-				//if this was a string, lop off the quotes at the start and end
-				//and un-escape the quotes and slashes
-				if(rule.type == TokenType.Str) {
-
-					token_text = token_text.substring(1, token_text.length()-1);
-					token_text = token_text.replaceAll("\\\\", "\\");
-					token_text = token_text.replaceAll("\\\"", "\"");
 				}
 
-				//System.out.println("line:"+line_number+" col:"+column_number+" text:"+token_text);
-
-				Token token = new Token(rule.type, current_state,line_number,column_number,token_text);
-				token.delimits_text = rule.delimits_text;
+				column_number = token_end;
 
-				line_tokens_stack.push(token);
+				tokens.add(rule.type, line_offset + token_start, line_offset + token_end, line_number, column_number,
+						current_state.index, rule.delimits_text);
 
-				if(rule.enter_state!=null) {
-					if(!states.containsKey(rule.enter_state))
-						throw new TokeniserException(line_number, column_number, "Unkown tokeniser state "+rule.enter_state);
+				if(rule.enter != null) {
 
-
-					enterState(states.get(rule.enter_state));
+					enterState(rule.enter);
 
 					if(should_track_next_indent == true) {
-						if(indentation_stack.peek().key < this_indentation) {
-							indentation_stack.push(new IntBoolPair(this_indentation, false));
+						if(peekIndentation() < this_indentation) {
+							pushIndentation(this_indentation, false);
 						}
 					}
 				}
@@ -389,38 +283,97 @@ public class Lexer {
 				throw TokeniserException.expectedTokens(line_number, column_number, current_state);
 			}
 
-			Matcher last_white_space = whitespace.match(line);
-            last_white_space.setPosition(column_number);
-			if(last_white_space.find()) {
-				column_number=last_white_space.end();
-			}
+			column_number += matchWhitespace(line, column_number);
 
 		}
+	}
+
+	/**
+	 * the length of the match for rule at column_number in the current match mode
+	 *
+	 * @return the length of the match or {@link TokenScanner#NO_MATCH}
+	 */
+	private int matchRule(TokenRule rule, CharSequence line, int column_number) {
+		if (match_mode == MatchMode.Scanner)
+			return rule.scan(line, column_number);
+
+		if (regex_input == null)
+			regex_input = new StringBuilder();
+		regex_input.setLength(0);
+		regex_input.append(line, column_number, line.length());
+
+		Matcher match = rule.regex().match(regex_input);
+		match.setPosition(0);
+		if (!match.find())
+			return TokenScanner.NO_MATCH;
+		return match.group().length();
+	}
 
-		TokenList list_to_return = new TokenList(new ArrayList<>(line_tokens_stack));
-		Collections.reverse(list_to_return);
+	private int matchWhitespace(CharSequence line, int column_number) {
+		if (match_mode == MatchMode.Scanner)
+			return TokenScanner.matchWhitespace(line, column_number);
 
-		return list_to_return;
+		Matcher match = WHITESPACE.match(line);
+		match.setPosition(column_number);
+		if (match.find())
+			return match.end() - column_number;
+		return 0;
 	}
 
-	Regex initial_indent_regex;
+	private static boolean startsWith(CharSequence line, String prefix, int offset) {
+		if (offset + prefix.length() > line.length())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line.charAt(offset + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
 
-	private int lineIndentation(String line) {
-		if (initial_indent_regex == null)
-			initial_indent_regex = new Regex("^(\\s*)");
-		Matcher match = initial_indent_regex.match(line);
+	private int lineIndentation(CharSequence line) {
+		if (match_mode == MatchMode.Scanner)
+			return TokenScanner.matchWhitespace(line, 0);
+		Matcher match = INITIAL_INDENT.match(line);
 
 		if (!match.find() || match.group(0) == null)
 			return 0;
 		return match.group(0).length();
 	}
 
+	private void pushIndentation(int level, boolean emitted) {
+		if (indentation_depth == indentation_levels.length) {
+			indentation_levels = Arrays.copyOf(indentation_levels, indentation_depth * 2);
+			indentation_emitted = Arrays.copyOf(indentation_emitted, indentation_depth * 2);
+		}
+		indentation_levels[indentation_depth] = level;
+		indentation_emitted[indentation_depth] = emitted;
+		indentation_depth++;
+	}
+
+	private int peekIndentation() {
+		return indentation_levels[indentation_depth - 1];
+	}
+
 	private void enterState(LexerState state) {
 		current_state = state;
 		if (current_state.track_next_indentation)
 			should_track_next_indent = true;
 	}
 
+	//indent token values are all spaces, most of them are short enough to share
+	private static final String[] INDENT_STRINGS = new String[33];
+	static {
+		for (int i = 0; i < INDENT_STRINGS.length; i++) {
+			INDENT_STRINGS[i] = i == 0 ? "" : padLeft("", i);
+		}
+	}
+
+	protected static String indentString(int length) {
+		if (length < INDENT_STRINGS.length)
+			return INDENT_STRINGS[length];
+		return padLeft("", length);
+	}
+
 	protected static class TokeniserException extends IllegalStateException {
 		private static final long serialVersionUID = 337269479504244415L;
 
@@ -460,24 +413,6 @@ public class Lexer {
 
 	}
 
-	/**
-	 *
-	 */
-	public class TokenList extends ArrayList<Token> {
-
-		public TokenList() {
-			super();
-		}
-
-		public TokenList(Token[] tokens) {
-			super(Arrays.asList(tokens));
-		}
-
-		public TokenList(List<Token> tokens) {
-			super(tokens);
-		}
-	}
-
 	protected enum TokenType {
 
 		// Special tokens
@@ -560,157 +495,56 @@ public class Lexer {
 		Text // a run of text until we hit other syntax
 	}
 
-	protected class Token {
+	/**
+	 * a single token from a {@link TokenBuffer}, made when the parser wants to
+	 * hold on to one. its value is only sliced when it is asked for.
+	 */
+	protected static class Token {
 
 		//the token itself
 		public TokenType type;
-		public String value; //optional
 
 		//where we found this token
-		public int line_number;
-		public int column_number;
-		public String context;
+		public final int line_number;
+		public final int column_number;
 
-		public boolean delimits_text = false;
+		public final boolean delimits_text;
 
 		//if this is a function in an expression
 		//this is the number of parameters
 		public int parameter_count;
 
-		//the state that the lexer was in when the token was emitted
-		public String lexer_state;
-
-		public Token(TokenType type, LexerState lexer_state, int line_number, int column_number, String value) {
-			this.type = type;
-			this.lexer_state = lexer_state.name;
-			this.line_number = line_number;
-			this.column_number = column_number;
-			this.value = value;
-		}
+		private final TokenBuffer buffer;
+		private final int index;
 
-		public Token(TokenType type, LexerState lexer_state, int line_number, int column_number) {
-			this(type, lexer_state, line_number, column_number, null);
+		public Token(TokenBuffer buffer, int index) {
+			this.buffer = buffer;
+			this.index = index;
+			this.type = buffer.type(index);
+			this.line_number = buffer.line(index);
+			this.column_number = buffer.column(index);
+			this.delimits_text = buffer.delimitsText(index);
 		}
 
-		public Token(TokenType type, LexerState lexer_state, int line_number) {
-			this(type, lexer_state, line_number, -1);
+		/** the text of the token, null for tokens without any */
+		public String value() {
+			return buffer.value(index);
 		}
 
-		public Token(TokenType type, LexerState lexer_state) {
-			this(type, lexer_state, -1);
+		/** the state that the lexer was in when the token was emitted */
+		public String lexerState() {
+			return buffer.lexerState(index);
 		}
 
 		@Override
 		public String toString() {
+			String value = value();
 			if (value != null) {
-				 return StringUtils.format("%1$s (%2$s) at %3$s:%4$s (state: %5$s)", type.name(), value.toString(), line_number, column_number, lexer_state);
-			}
-			return StringUtils.format("%1$s at %2$s :%3$s (state: %4$s)", type, line_number, column_number, lexer_state);
-		}
-
-	}
-
-	protected class LexerState {
-
-		public String name;
-		private HashMap<TokenType, String> patterns;
-		public ArrayList<TokenRule> token_rules;
-		public boolean track_next_indentation;
-
-		public LexerState(HashMap<TokenType, String> patterns) {
-
-			this.patterns = patterns;
-			token_rules = new ArrayList<Lexer.TokenRule>();
-			track_next_indentation = false;
-
-		}
-
-        public String toString() {
-            return StringUtils.format("name: %s, patterns: %s, token_rules: %s", name, patterns.toString(), token_rules.toString());
-        }
-
-		public TokenRule addTransition(TokenType type, String enter_state, boolean delimits_text) {
-
-			String pattern = StringUtils.format("\\G%1$s", patterns.get(type));
-			TokenRule rule = new TokenRule(type, new Regex(pattern), enter_state, delimits_text);
-			token_rules.add(rule);
-			return rule;
-		}
-
-		public TokenRule addTransition(TokenType type, String enter_state) {
-			return addTransition(type, enter_state, false);
-		}
-
-		public TokenRule addTransition(TokenType type) {
-			return addTransition(type, null);
-		}
-
-		/**
-		 * a text rule matches everything that it possibly can, up to Any of the rules
-		 * that already exist.
-		 *
-		 * @return {@link TokenRule} - text rule
-		 */
-		public TokenRule addTextRule(TokenType type, String enter_state) {
-			if (containsTextRule()) {
-				throw new IllegalStateException("State already contains a text rule");
+				 return StringUtils.format("%1$s (%2$s) at %3$s:%4$s (state: %5$s)", type.name(), value, line_number, column_number, lexerState());
 			}
-			ArrayList<String> delimiter_rules = new ArrayList<String>();
-
-			for (TokenRule other_rule : token_rules) {
-				if (other_rule.delimits_text)
-					delimiter_rules.add(StringUtils.format("(%1$s)", other_rule.regex.toString().substring(2)));
-			}
-
-			//create a regex that matches all text up to but not including
-			//any of the delimiter rules
-
-			String pattern = StringUtils.format("\\G((?!%1$s).)*", String.join("|", delimiter_rules));
-
-			TokenRule rule = addTransition(type, enter_state);
-			rule.regex = new Regex(pattern);
-			rule.is_text_rule = true;
-
-			return rule;
-
-		}
-
-		public TokenRule addTextRule(TokenType type) {
-			return addTextRule(type, null);
+			return StringUtils.format("%1$s at %2$s :%3$s (state: %4$s)", type, line_number, column_number, lexerState());
 		}
 
-		public boolean containsTextRule() {
-			for (TokenRule rule : token_rules) {
-				if (rule.is_text_rule)
-					return true;
-			}
-			return false;
-		}
-
-	}
-
-	protected class TokenRule {
-		public Regex regex = null;
-		public Regex altRegex = null;
-
-		//set to null if should stay in same state
-		public String enter_state;
-		public TokenType type;
-		public boolean is_text_rule = false;
-		public boolean delimits_text = false;
-
-		public TokenRule(TokenType type, Regex regex, String enter_state, boolean delimits_text) {
-			this.regex = regex;
-			this.enter_state = enter_state;
-			this.type = type;
-			this.delimits_text = delimits_text;
-			altRegex = new Regex(regex.pattern.toString().replace("\\G","^"));
-		}
-
-		@Override
-		public String toString() {
-			return StringUtils.format("[TokenRule: %s - %s ]", type, this.regex);
-		}
 	}
 
 	protected static class Regex {
@@ -761,15 +595,6 @@ public class Lexer {
 		}
 	}
 
-	public class IntBoolPair {
-	    int key;
-	    boolean value;
-		public IntBoolPair(int key, boolean value) {
-			this.key = key;
-			this.value = value;
-		}
-	}
-
 	public static String padRight(String s, int n) {
 		return StringUtils.format("%1$-" + n + "s", s);
 	}
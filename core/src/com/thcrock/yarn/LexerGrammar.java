@@ -0,0 +1,412 @@
+package com.kyper.yarn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.kyper.yarn.Lexer.Regex;
+import com.kyper.yarn.Lexer.TokenType;
+
+/**
+ * the states and token rules used by the {@link Lexer}. The grammar never
+ * changes once it is built, so a single instance is shared by every lexer in
+ * the jvm and is safe to use from any number of threads.
+ */
+public class LexerGrammar {
+
+	//states consts
+	private static final String BASE = "base";
+	private static final String DASH = "-";
+	private static final String COMMAND = "command";
+	private static final String LINK = "link";
+	private static final String SHORTCUT = "shortcut";
+	private static final String TAG = "tag";
+	private static final String EXPRESSION = "expression";
+	private static final String ASSIGNMENT = "assignment";
+	private static final String OPTION = "option";
+	private static final String OR = "or";
+	private static final String DESTINATION = "destination";
+
+	private final Map<String, LexerState> states;
+	private final LexerState[] state_array;
+	private final LexerState default_state;
+
+	/**
+	 * the grammar shared by every lexer
+	 */
+	public static LexerGrammar get() {
+		return Holder.INSTANCE;
+	}
+
+	//the jvm builds this the first time get() is called, exactly once
+	private static class Holder {
+		private static final LexerGrammar INSTANCE = new LexerGrammar();
+	}
+
+	private LexerGrammar() {
+		HashMap<String, StateBuilder> builders = createStates();
+
+		//make every state first, so each rule can be given the state it enters
+		HashMap<String, LexerState> states = new HashMap<String, LexerState>();
+		state_array = new LexerState[builders.size()];
+		for (Map.Entry<String, StateBuilder> entry : builders.entrySet()) {
+			StateBuilder builder = entry.getValue();
+			int index = states.size();
+			LexerState state = new LexerState(entry.getKey(), index, builder.track_next_indentation,
+					builder.rules.size());
+			states.put(entry.getKey(), state);
+			state_array[index] = state;
+		}
+
+		for (Map.Entry<String, StateBuilder> entry : builders.entrySet()) {
+			LexerState state = states.get(entry.getKey());
+			List<RuleBuilder> rules = entry.getValue().rules;
+			for (int i = 0; i < rules.size(); i++) {
+				RuleBuilder rule = rules.get(i);
+				LexerState enter = null;
+				if (rule.enter_state != null) {
+					enter = states.get(rule.enter_state);
+					if (enter == null)
+						throw new IllegalStateException("Unkown tokeniser state " + rule.enter_state);
+				}
+				state.rules[i] = new TokenRule(rule, enter);
+			}
+		}
+
+		this.states = Collections.unmodifiableMap(states);
+		this.default_state = states.get(BASE);
+	}
+
+	public LexerState getDefaultState() {
+		return default_state;
+	}
+
+	public LexerState getState(String name) {
+		return states.get(name);
+	}
+
+	/**
+	 * @return the state with the given {@link LexerState#index}
+	 */
+	public LexerState getState(int index) {
+		return state_array[index];
+	}
+
+	public Map<String, LexerState> getStates() {
+		return states;
+	}
+
+	private static HashMap<String, StateBuilder> createStates() {
+		HashMap<TokenType, String> patterns = new HashMap<Lexer.TokenType, String>();
+
+        patterns.put(TokenType.Text, ".*");
+
+        patterns.put(TokenType.Number, "-?[0-9]+(\\.[0-9+])?");
+        patterns.put(TokenType.Str, "\"([^\"\"\\\\]*(?:\\.[^\"\"\\\\]*)*)\"");
+        patterns.put(TokenType.TagMarker, "#");
+        patterns.put(TokenType.LeftParen, "\\(");
+        patterns.put(TokenType.RightParen, "\\)");
+        patterns.put(TokenType.EqualTo, "(==|is(?!\\w)|eq(?!\\w))");
+        patterns.put(TokenType.EqualToOrAssign, "(=|to(?!\\w))");
+        patterns.put(TokenType.NotEqualTo, "(!=|neq(?!\\w))");
+        patterns.put(TokenType.GreaterThanOrEqualTo, "(>=|gte(?!\\w))");
+        patterns.put(TokenType.GreaterThan, "(>|gt(?!\\w))");
+        patterns.put(TokenType.LessThanOrEqualTo, "(<=|lte(?!\\w))");
+        patterns.put(TokenType.LessThan, "(<|lt(?!\\w))");
+        patterns.put(TokenType.AddAssign, "\\+=");
+        patterns.put(TokenType.MinusAssign, "-=");
+        patterns.put(TokenType.MultiplyAssign, "\\*=");
+        patterns.put(TokenType.DivideAssign, "/=");
+        patterns.put(TokenType.Add, "\\+");
+        patterns.put(TokenType.Minus, "-");
+        patterns.put(TokenType.Multiply, "\\*");
+        patterns.put(TokenType.Divide, "/");
+        patterns.put(TokenType.Modulo, "%");
+        patterns.put(TokenType.And, "(&&|and(?!\\w))");
+        patterns.put(TokenType.Or, "(\\|\\||or(?!\\w))");
+        patterns.put(TokenType.Xor, "(\\^|xor(?!\\w))");
+        patterns.put(TokenType.Not, "(!|not(?!\\w))");
+        patterns.put(TokenType.Variable, "\\$([A-Za-z0-9_.])+");
+        patterns.put(TokenType.Comma, ",");
+        patterns.put(TokenType.True, "true(?!\\w)");
+        patterns.put(TokenType.False, "false(?!\\w)");
+        patterns.put(TokenType.Null, "null(?!\\w)");
+
+        patterns.put(TokenType.BeginCommand, "<<");
+        patterns.put(TokenType.EndCommand, ">>");
+
+        patterns.put(TokenType.OptionStart, "\\[\\[");
+        patterns.put(TokenType.OptionEnd, "]]");
+        patterns.put(TokenType.OptionDelimit, "\\|");
+
+        patterns.put(TokenType.Identifier, "[a-zA-Z0-9_:.]+");
+
+        patterns.put(TokenType.If, "if(?!\\w)");
+        patterns.put(TokenType.Else, "else(?!\\w)");
+        patterns.put(TokenType.ElseIf, "elseif(?!\\w)");
+        patterns.put(TokenType.EndIf, "endif(?!\\w)");
+        patterns.put(TokenType.Set, "set(?!\\w)");
+
+        patterns.put(TokenType.ShortcutOption, "->\\s*");
+		//compound states
+		String shortcut_option = SHORTCUT + DASH + OPTION;
+		String shortcut_option_tag = shortcut_option + DASH + TAG;
+		String command_or_expression = COMMAND + DASH + OR + DASH + EXPRESSION;
+		String link_destination = LINK + DASH + DESTINATION;
+
+		HashMap<String, StateBuilder> states = new HashMap<String, StateBuilder>();
+
+		states.put(BASE, new StateBuilder(patterns));
+		states.get(BASE).addTransition(TokenType.BeginCommand, COMMAND, true);
+		states.get(BASE).addTransition(TokenType.OptionStart, LINK, true);
+		states.get(BASE).addTransition(TokenType.ShortcutOption, shortcut_option);
+		states.get(BASE).addTransition(TokenType.TagMarker, TAG, true);
+		states.get(BASE).addTextRule(TokenType.Text);
+
+		states.put(TAG, new StateBuilder(patterns));
+		states.get(TAG).addTransition(TokenType.Identifier, BASE);
+
+		states.put(shortcut_option, new StateBuilder(patterns));
+		states.get(shortcut_option).track_next_indentation = true;
+		states.get(shortcut_option).addTransition(TokenType.BeginCommand, EXPRESSION, true);
+		states.get(shortcut_option).addTransition(TokenType.TagMarker, shortcut_option_tag, true);
+		states.get(shortcut_option).addTextRule(TokenType.Text, BASE);
+
+		states.put(shortcut_option_tag, new StateBuilder(patterns));
+		states.get(shortcut_option_tag).addTransition(TokenType.Identifier, shortcut_option);
+
+		states.put(COMMAND, new StateBuilder(patterns));
+		states.get(COMMAND).addTransition(TokenType.If, EXPRESSION);
+		states.get(COMMAND).addTransition(TokenType.Else);
+		states.get(COMMAND).addTransition(TokenType.ElseIf, EXPRESSION);
+		states.get(COMMAND).addTransition(TokenType.EndIf);
+		states.get(COMMAND).addTransition(TokenType.Set, ASSIGNMENT);
+		states.get(COMMAND).addTransition(TokenType.EndCommand, BASE, true);
+		states.get(COMMAND).addTransition(TokenType.Identifier, command_or_expression);
+		states.get(COMMAND).addTextRule(TokenType.Text);
+
+		states.put(command_or_expression, new StateBuilder(patterns));
+		states.get(command_or_expression).addTransition(TokenType.LeftParen, EXPRESSION);
+		states.get(command_or_expression).addTransition(TokenType.EndCommand, BASE, true);
+		states.get(command_or_expression).addTextRule(TokenType.Text);
+
+		states.put(ASSIGNMENT, new StateBuilder(patterns));
+		states.get(ASSIGNMENT).addTransition(TokenType.Variable);
+		states.get(ASSIGNMENT).addTransition(TokenType.EqualToOrAssign, EXPRESSION);
+		states.get(ASSIGNMENT).addTransition(TokenType.AddAssign, EXPRESSION);
+		states.get(ASSIGNMENT).addTransition(TokenType.MinusAssign, EXPRESSION);
+		states.get(ASSIGNMENT).addTransition(TokenType.MultiplyAssign, EXPRESSION);
+		states.get(ASSIGNMENT).addTransition(TokenType.DivideAssign, EXPRESSION);
+
+		states.put(EXPRESSION, new StateBuilder(patterns));
+		states.get(EXPRESSION).addTransition(TokenType.EndCommand, BASE);
+		states.get(EXPRESSION).addTransition(TokenType.Number);
+		states.get(EXPRESSION).addTransition(TokenType.Str);
+		states.get(EXPRESSION).addTransition(TokenType.LeftParen);
+		states.get(EXPRESSION).addTransition(TokenType.RightParen);
+		states.get(EXPRESSION).addTransition(TokenType.EqualTo);
+		states.get(EXPRESSION).addTransition(TokenType.EqualToOrAssign);
+		states.get(EXPRESSION).addTransition(TokenType.NotEqualTo);
+		states.get(EXPRESSION).addTransition(TokenType.GreaterThanOrEqualTo);
+		states.get(EXPRESSION).addTransition(TokenType.GreaterThan);
+		states.get(EXPRESSION).addTransition(TokenType.LessThanOrEqualTo);
+		states.get(EXPRESSION).addTransition(TokenType.LessThan);
+		states.get(EXPRESSION).addTransition(TokenType.Add);
+		states.get(EXPRESSION).addTransition(TokenType.Minus);
+		states.get(EXPRESSION).addTransition(TokenType.Multiply);
+		states.get(EXPRESSION).addTransition(TokenType.Divide);
+		states.get(EXPRESSION).addTransition(TokenType.Modulo);
+		states.get(EXPRESSION).addTransition(TokenType.And);
+		states.get(EXPRESSION).addTransition(TokenType.Or);
+		states.get(EXPRESSION).addTransition(TokenType.Xor);
+		states.get(EXPRESSION).addTransition(TokenType.Not);
+		states.get(EXPRESSION).addTransition(TokenType.Variable);
+		states.get(EXPRESSION).addTransition(TokenType.Comma);
+		states.get(EXPRESSION).addTransition(TokenType.True);
+		states.get(EXPRESSION).addTransition(TokenType.False);
+		states.get(EXPRESSION).addTransition(TokenType.Null);
+		states.get(EXPRESSION).addTransition(TokenType.Identifier);
+
+		states.put(LINK, new StateBuilder(patterns));
+		states.get(LINK).addTransition(TokenType.OptionEnd, BASE, true);
+		states.get(LINK).addTransition(TokenType.OptionDelimit, link_destination, true);
+		states.get(LINK).addTextRule(TokenType.Text);
+
+		states.put(link_destination, new StateBuilder(patterns));
+		states.get(link_destination).addTransition(TokenType.Identifier);
+		states.get(link_destination).addTransition(TokenType.OptionEnd, BASE);
+
+		return states;
+	}
+
+	/**
+	 * a lexer state, never changed once the grammar is built
+	 */
+	protected static final class LexerState {
+
+		public final String name;
+		//position of this state in the grammar, small enough to store per token
+		public final int index;
+		public final boolean track_next_indentation;
+		//the token rules in matching order
+		public final List<TokenRule> token_rules;
+
+		//filled in while the grammar is built, never after
+		private final TokenRule[] rules;
+
+		private LexerState(String name, int index, boolean track_next_indentation, int rule_count) {
+			this.name = name;
+			this.index = index;
+			this.track_next_indentation = track_next_indentation;
+			rules = new TokenRule[rule_count];
+			token_rules = Collections.unmodifiableList(Arrays.asList(rules));
+		}
+
+		@Override
+		public String toString() {
+			return StringUtils.format("name: %s, token_rules: %s", name, token_rules.toString());
+		}
+
+	}
+
+	/**
+	 * a token rule, never changed once the grammar is built
+	 */
+	protected static final class TokenRule {
+		//the regex source, anchored with \G
+		public final String pattern;
+
+		//null if should stay in same state
+		public final String enter_state;
+		//the state named by enter_state
+		public final LexerState enter;
+		public final TokenType type;
+		public final boolean is_text_rule;
+		public final boolean delimits_text;
+
+		//the rules a text rule stops in front of, used by the scanner
+		private final TokenType[] text_delimiters;
+
+		//compiled the first time the regex match mode needs it
+		private volatile Regex regex;
+
+		private TokenRule(RuleBuilder rule, LexerState enter) {
+			this.pattern = rule.pattern;
+			this.enter_state = rule.enter_state;
+			this.enter = enter;
+			this.type = rule.type;
+			this.is_text_rule = rule.is_text_rule;
+			this.delimits_text = rule.delimits_text;
+			this.text_delimiters = rule.text_delimiters;
+		}
+
+		/**
+		 * the length of the scanner's match at column, see {@link TokenScanner}
+		 *
+		 * @return the length of the match or {@link TokenScanner#NO_MATCH}
+		 */
+		public int scan(CharSequence line, int column) {
+			if (is_text_rule)
+				return TokenScanner.matchText(line, column, text_delimiters);
+			return TokenScanner.match(type, line, column);
+		}
+
+		/**
+		 * the pattern anchored at the start of its input, which is how the regex
+		 * match mode runs it
+		 */
+		public Regex regex() {
+			Regex r = regex;
+			if (r == null) {
+				r = new Regex(pattern.replace("\\G", "^"));
+				regex = r;
+			}
+			return r;
+		}
+
+		@Override
+		public String toString() {
+			return StringUtils.format("[TokenRule: %s - %s ]", type, pattern);
+		}
+	}
+
+	/**
+	 * collects the rules of a state while the grammar is built
+	 */
+	private static class StateBuilder {
+
+		private final HashMap<TokenType, String> patterns;
+		private final List<RuleBuilder> rules = new ArrayList<RuleBuilder>();
+		private boolean track_next_indentation;
+
+		private StateBuilder(HashMap<TokenType, String> patterns) {
+			this.patterns = patterns;
+		}
+
+		private RuleBuilder addTransition(TokenType type, String enter_state, boolean delimits_text) {
+			RuleBuilder rule = new RuleBuilder();
+			rule.type = type;
+			rule.pattern = StringUtils.format("\\G%1$s", patterns.get(type));
+			rule.enter_state = enter_state;
+			rule.delimits_text = delimits_text;
+			rules.add(rule);
+			return rule;
+		}
+
+		private RuleBuilder addTransition(TokenType type, String enter_state) {
+			return addTransition(type, enter_state, false);
+		}
+
+		private RuleBuilder addTransition(TokenType type) {
+			return addTransition(type, null);
+		}
+
+		/**
+		 * a text rule matches everything that it possibly can, up to Any of the rules
+		 * that already exist.
+		 */
+		private RuleBuilder addTextRule(TokenType type, String enter_state) {
+			for (RuleBuilder rule : rules) {
+				if (rule.is_text_rule)
+					throw new IllegalStateException("State already contains a text rule");
+			}
+			ArrayList<String> delimiter_rules = new ArrayList<String>();
+			ArrayList<TokenType> delimiter_types = new ArrayList<TokenType>();
+
+			for (RuleBuilder other_rule : rules) {
+				if (other_rule.delimits_text) {
+					delimiter_rules.add(StringUtils.format("(%1$s)", other_rule.pattern.substring(2)));
+					delimiter_types.add(other_rule.type);
+				}
+			}
+
+			//create a regex that matches all text up to but not including
+			//any of the delimiter rules
+
+			RuleBuilder rule = addTransition(type, enter_state);
+			rule.pattern = StringUtils.format("\\G((?!%1$s).)*", String.join("|", delimiter_rules));
+			rule.text_delimiters = delimiter_types.toArray(new TokenType[delimiter_types.size()]);
+			rule.is_text_rule = true;
+
+			return rule;
+		}
+
+		private RuleBuilder addTextRule(TokenType type) {
+			return addTextRule(type, null);
+		}
+
+	}
+
+	private static class RuleBuilder {
+		private TokenType type;
+		private String pattern;
+		private String enter_state;
+		private boolean is_text_rule;
+		private boolean delimits_text;
+		private TokenType[] text_delimiters;
+	}
+
+}
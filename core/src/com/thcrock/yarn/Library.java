@@ -1,8 +1,12 @@
 package com.kyper.yarn;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.kyper.yarn.Dialogue.YarnLogger;
+
 /**
  * A collection of callable functions
  */
@@ -44,6 +48,53 @@ public class Library {
 		registerFunction(info);
 	}
 
+	public void registerFunction(String name, int param_count, ContextFunc implementation) {
+		FunctionInfo info = new FunctionInfo(name, param_count, implementation);
+		registerFunction(info);
+	}
+
+	/**
+	 * register a function that takes no parameters. the machine calls it
+	 * directly, without a parameter array
+	 */
+	public void registerFunction(String name, Function0 implementation) {
+		FunctionInfo info = new FunctionInfo(name, 0);
+		info.function0 = implementation;
+		registerFunction(info);
+	}
+
+	/**
+	 * register a function that takes one parameter. the machine calls it
+	 * directly, without a parameter array
+	 */
+	public void registerFunction(String name, Function1 implementation) {
+		FunctionInfo info = new FunctionInfo(name, 1);
+		info.function1 = implementation;
+		registerFunction(info);
+	}
+
+	/**
+	 * register a function that takes two parameters. the machine calls it
+	 * directly, without a parameter array
+	 */
+	public void registerFunction(String name, Function2 implementation) {
+		FunctionInfo info = new FunctionInfo(name, 2);
+		info.function2 = implementation;
+		registerFunction(info);
+	}
+
+	/**
+	 * register an operator that the compiler can emit as its own instruction
+	 * instead of a function call. the instruction must give the same results as
+	 * implementation
+	 */
+	protected void registerOperator(String name, int param_count, ReturningFunc implementation,
+			Program.ByteCode operation) {
+		FunctionInfo info = new FunctionInfo(name, param_count, implementation);
+		info.operation = operation;
+		registerFunction(info);
+	}
+
 	public boolean functionExists(String name) {
 		return functions.containsKey(name);
 	}
@@ -53,6 +104,25 @@ public class Library {
 			functions.remove(name);
 	}
 
+	/**
+	 * a description of every registered function's name, parameter count and
+	 * whether it returns a value, sorted by name. two libraries with the same
+	 * signature compile yarn the same way.
+	 */
+	public String signature() {
+		ArrayList<String> names = new ArrayList<String>(functions.keySet());
+		Collections.sort(names);
+		StringBuilder b = new StringBuilder();
+		for (String name : names) {
+			FunctionInfo info = functions.get(name);
+			b.append(name).append('(').append(info.param_count).append(')');
+			b.append(info.returnsValue() ? '=' : ';');
+			if (info.operation != null)
+				b.append(info.operation.name());
+		}
+		return b.toString();
+	}
+
 	public static interface ReturningFunc {
 		public Object invoke(Value... params);
 	}
@@ -61,7 +131,45 @@ public class Library {
 		public void invoke(Value... params);
 	}
 
+	/**
+	 * a returning function that answers differently for each run, like visited.
+	 * The machine that calls it passes in the dialogue or session it runs for, so
+	 * one registration serves every session sharing the library.
+	 */
+	public static interface ContextFunc {
+		public Object invoke(CallContext context, Value... params);
+	}
+
+	/**
+	 * what a {@link ContextFunc} can ask about the run that called it
+	 */
+	public static interface CallContext {
+		/** the name of the node being run, or null */
+		public String currentNode();
+
+		public boolean nodeExists(String node_name);
+
+		/** how many times the node has been completed in this run */
+		public int getVisitCount(String node_name);
+
+		public YarnLogger getErrorLogger();
+	}
+
+	public static interface Function0 {
+		public Object invoke();
+	}
+
+	public static interface Function1 {
+		public Object invoke(Value a);
+	}
+
+	public static interface Function2 {
+		public Object invoke(Value a, Value b);
+	}
+
 	protected static class FunctionInfo {
+		private static final Value[] NO_PARAMS = new Value[0];
+
 		//the name of the function as it exists in the script
 		private String name;
 		//the number of parameters this function requores.
@@ -74,6 +182,16 @@ public class Library {
 		//to the end of a function if it doesnt return values
 		private Function function;
 		private ReturningFunc ret_function;
+		private ContextFunc context_function;
+
+		//set instead of ret_function for functions with a fixed number of
+		//parameters that are called without an array
+		private Function0 function0;
+		private Function1 function1;
+		private Function2 function2;
+
+		//the instruction that does the same as this function, null for most functions
+		private Program.ByteCode operation;
 
 		//TODO: support for typed parameters
 		//TODO: support for return type
@@ -91,6 +209,12 @@ public class Library {
 			this.function = null;
 		}
 
+		protected FunctionInfo(String name, int param_count, ContextFunc implementation) {
+			this.name = name;
+			this.param_count = param_count;
+			this.context_function = implementation;
+		}
+
 		protected FunctionInfo(String name, int param_count) {
 			this.name = name;
 			this.param_count = param_count;
@@ -106,6 +230,22 @@ public class Library {
 			return ret_function;
 		}
 
+		public ContextFunc getContextFunction() {
+			return context_function;
+		}
+
+		public Function0 getFunction0() {
+			return function0;
+		}
+
+		public Function1 getFunction1() {
+			return function1;
+		}
+
+		public Function2 getFunction2() {
+			return function2;
+		}
+
 		public String getName() {
 			return name;
 		}
@@ -114,23 +254,83 @@ public class Library {
 			return param_count;
 		}
 
+		/**
+		 * @return the instruction the compiler can use in place of calling this
+		 *         function, or null
+		 */
+		public Program.ByteCode getOperation() {
+			return operation;
+		}
+
 		//does this function return a value?
 		public boolean returnsValue() {
-			return ret_function != null;
+			return ret_function != null || context_function != null || function0 != null || function1 != null || function2 != null;
+		}
+
+		/**
+		 * call a function that takes no parameters
+		 *
+		 * @param context
+		 *            - the run calling the function, only needed by context
+		 *            functions
+		 */
+		public Value invoke0(CallContext context) {
+			if (function0 != null)
+				return Value.of(function0.invoke());
+			return invokeWithArray(context, NO_PARAMS);
+		}
+
+		/**
+		 * call a function that takes one parameter, without an array if it was
+		 * registered as a {@link Function1}
+		 */
+		public Value invoke1(CallContext context, Value a) {
+			if (function1 != null)
+				return Value.of(function1.invoke(a));
+			return invokeWithArray(context, new Value[] { a });
+		}
+
+		/**
+		 * call a function that takes two parameters, without an array if it was
+		 * registered as a {@link Function2}
+		 */
+		public Value invoke2(CallContext context, Value a, Value b) {
+			if (function2 != null)
+				return Value.of(function2.invoke(a, b));
+			return invokeWithArray(context, new Value[] { a, b });
 		}
 
 		public Value invoke(Value... params) {
-			return invokeWithArray(params);
+			return invokeWithArray(null, params);
 		}
 
 		public Value invokeWithArray(Value[] params) {
+			return invokeWithArray(null, params);
+		}
+
+		/**
+		 * @param context
+		 *            - the run calling the function, only needed by context
+		 *            functions
+		 */
+		public Value invokeWithArray(CallContext context, Value[] params) {
 			int length = 0;
 			if (params != null)
 				length = params.length;
 
 			if (isParamCountCorrect(length)) {
-				if (returnsValue()) {
-					return new Value(ret_function.invoke(params));
+				if (context_function != null) {
+					if (context == null)
+						throw new IllegalStateException(name + " can only be called by a running dialogue");
+					return Value.of(context_function.invoke(context, params));
+				} else if (ret_function != null) {
+					return Value.of(ret_function.invoke(params));
+				} else if (function0 != null) {
+					return Value.of(function0.invoke());
+				} else if (function1 != null) {
+					return Value.of(function1.invoke(params[0]));
+				} else if (function2 != null) {
+					return Value.of(function2.invoke(params[0], params[1]));
 				} else {
 					function.invoke(params);
 					return Value.NULL;
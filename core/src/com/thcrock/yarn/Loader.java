@@ -1,20 +1,30 @@
 package com.kyper.yarn;
 
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import regexodus.Matcher;
-//import java.util.regex.Matcher;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
-import com.badlogic.gdx.utils.Json;
-import com.kyper.yarn.Lexer.Regex;
 import com.kyper.yarn.Lexer.Token;
-import com.kyper.yarn.Lexer.TokenList;
 import com.kyper.yarn.Lexer.TokeniserException;
 import com.kyper.yarn.Loader.NodeInfo.Position;
 import com.kyper.yarn.Parser.Node;
@@ -35,6 +45,21 @@ public class Loader {
 	private Dialogue dialogue;
 	private Program program;
 
+	//how the lexer matches tokens, the regex mode is kept around to check the scanner against
+	private Lexer.MatchMode lexer_mode = Lexer.MatchMode.Scanner;
+
+	//runs the per node lexing, parsing and compiling; null loads one node at a time
+	private Executor executor;
+
+	//compiled nodes from earlier loads; null compiles every node
+	private CompileCache compile_cache;
+
+	//only split the text into nodes and compile each one the first time it is asked for
+	private boolean lazy;
+
+	//how hard the compiled instructions are optimized
+	private Optimizer.Level optimization = Optimizer.Level.Full;
+
 	public Loader(Dialogue d) {
 		if (d == null)
 			throw new IllegalArgumentException("dialogue d is null");
@@ -45,14 +70,87 @@ public class Loader {
 		return program;
 	}
 
+	public Lexer.MatchMode getLexerMode() {
+		return lexer_mode;
+	}
+
+	public void setLexerMode(Lexer.MatchMode lexer_mode) {
+		this.lexer_mode = lexer_mode;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * set the executor that nodes are lexed, parsed and compiled on. The loaded
+	 * program is the same as a serial load.
+	 *
+	 * @param executor
+	 *            - null to load nodes one at a time on the calling thread
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * load nodes in parallel on the common {@link ForkJoinPool}
+	 */
+	public void setParallel(boolean parallel) {
+		this.executor = parallel ? ForkJoinPool.commonPool() : null;
+	}
+
+	public CompileCache getCompileCache() {
+		return compile_cache;
+	}
+
+	/**
+	 * set the cache that unchanged nodes are loaded from instead of being
+	 * compiled again
+	 *
+	 * @param compile_cache
+	 *            - null to compile every node
+	 */
+	public void setCompileCache(CompileCache compile_cache) {
+		this.compile_cache = compile_cache;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * when lazy, loading only splits the text into nodes. Each node is lexed,
+	 * parsed and compiled the first time the program is asked for it, so errors
+	 * in a node are not found until then. Use {@link Dialogue#validateAll()} to
+	 * compile everything up front.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	public Optimizer.Level getOptimization() {
+		return optimization;
+	}
+
+	/**
+	 * set how much each node's instructions are rewritten after it is compiled.
+	 * Nodes run the same at every level, lower levels only make dumps easier to
+	 * follow.
+	 */
+	public void setOptimization(Optimizer.Level optimization) {
+		this.optimization = optimization;
+	}
+
 	/**
 	 * print tokens
 	 */
-	public void printTokenList(TokenList token_list) {
+	public void printTokenList(TokenBuffer token_list) {
 		StringBuilder b = new StringBuilder();
 		b.append("\n");
-		for (Token token : token_list) {
-			b.append(StringUtils.format("%1$s (%2$s line %3$s)\n", token.toString(), token.value, token.line_number));
+		for (int i = 0; i < token_list.size(); i++) {
+			Token token = token_list.token(i);
+			b.append(StringUtils.format("%1$s (%2$s line %3$s)\n", token.toString(), token.value(), token.line_number));
 		}
 
 		dialogue.debug_logger.log("Tokens:");
@@ -101,83 +199,149 @@ public class Loader {
 			format = getFormatFromFileName(file_name);
 		}
 
-		//final parsed nodes that were in file
-		HashMap<String, Node> nodes = new HashMap<String, Parser.Node>();
-
 		//load the raw data and get an array of node title-text pairs
 
 		List<NodeInfo> infos = getNodesFromText(text, format);
-		
-		//for soem weird reason its not used wtf
-		
-		int nodes_loaded = 0;
-
-		for (NodeInfo info : infos) {
-			if (onlyconsider_node != null && !info.title.equals(onlyconsider_node))
-				continue;
 
-			//attempt to parse every nodel log if we encounter any errors
-
-			try {
+		return load(infos.iterator(), library, file_name, include, show_tokens, show_parse_tree, onlyconsider_node);
+	}
 
-				if (nodes.containsKey(info.title)) {
-					throw new IllegalStateException("Attempted to load node called " + info.title
-							+ ", but a node with that name already exists!");
-				}
+	/**
+	 * load every node read from reader. Text and json sources are split as they
+	 * are read and each node is handed to the compiler as soon as its body ends,
+	 * so only the node being read has to be held in memory and, with an executor
+	 * set, compiling overlaps with reading. Single node files are read to the end
+	 * first.
+	 * <p>
+	 * the reader is read to the end but not closed
+	 */
+	public Program load(Reader reader, Library library, String file_name, Program include, boolean show_tokens,
+			boolean show_parse_tree, String onlyconsider_node, NodeFormat format) throws IOException {
 
-				Lexer lexer = new Lexer();
+		if (format == NodeFormat.Unkown) {
+			format = getFormatFromFileName(file_name);
+		}
 
+		if (format == NodeFormat.SingleNodeText) {
+			StringBuilder text = new StringBuilder();
+			char[] buffer = new char[8192];
+			int read;
+			while ((read = reader.read(buffer)) != -1)
+				text.append(buffer, 0, read);
+			return load(text.toString(), library, file_name, include, show_tokens, show_parse_tree,
+					onlyconsider_node, format);
+		}
 
-				TokenList tokens = lexer.tokenise(info.body);
+		try {
+			Iterator<NodeInfo> infos = format == NodeFormat.Json ? new JsonNodeReader(reader)
+					: new TextNodeReader(reader);
+			return load(infos, library, file_name, include, show_tokens, show_parse_tree,
+					onlyconsider_node);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
 
+	/**
+	 * load every node read from channel, decoded as UTF-8
+	 *
+	 * @see #load(Reader, Library, String, Program, boolean, boolean, String,
+	 *      NodeFormat)
+	 */
+	public Program load(ReadableByteChannel channel, Library library, String file_name, Program include,
+			boolean show_tokens, boolean show_parse_tree, String onlyconsider_node, NodeFormat format)
+			throws IOException {
+		Reader reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1);
+		return load(reader, library, file_name, include, show_tokens, show_parse_tree, onlyconsider_node, format);
+	}
 
-				if (show_tokens)
-					printTokenList(tokens);
+	/**
+	 * compile nodes as infos hands them over
+	 */
+	private Program load(Iterator<NodeInfo> infos, Library library, String file_name, Program include,
+			boolean show_tokens, boolean show_parse_tree, String onlyconsider_node) {
 
-				Node node = new Parser(tokens, library).parse();
+		HashSet<String> titles = new HashSet<String>();
 
+		//every node is compiled on its own, so the program comes out the same
+		//whether we compile one node at a time or all of them at once
+		Compiler compiler = newCompiler(file_name);
 
-				//if this node is tagged "rawText", then preserve its source
-				if (info.tags != null && !info.tags.isEmpty() && info.tags.contains("rawText")) {
-					node.setSource(info.getBody());
-				}
+		//only worked out when there is a cache to key
+		String library_signature = compile_cache == null ? null : cacheSignature(library);
 
-				node.setName(info.title);
+		//lexers are cheap cursors over the shared grammar, one does for every node
+		Lexer lexer = new Lexer(lexer_mode);
 
-				node.setNodeTags(info.tagsList());
+		//the nodes we are going to load lazily, in the order they appear in the file
+		ArrayList<NodeInfo> to_load = new ArrayList<NodeInfo>();
 
-				if (show_parse_tree)
-					printParseTree(node);
+		ArrayList<FutureTask<Program>> compiled = new ArrayList<FutureTask<Program>>();
 
-				nodes.put(node.getName(), node);
+		try {
+			while (infos.hasNext()) {
+				final NodeInfo info = infos.next();
 
-				nodes_loaded++;
+				if (onlyconsider_node != null && !info.title.equals(onlyconsider_node))
+					continue;
 
-			} catch (Exception e) {
-				if (e instanceof TokeniserException) {
-					String message = StringUtils.format("In file %s: Error reading %s:%s", file_name, info.title,
-							e.getMessage());
-					throw new TokeniserException(message);
+				if (!titles.add(info.title)) {
+					throw loadError(new IllegalStateException("Attempted to load node called " + info.title
+							+ ", but a node with that name already exists!"), file_name, info);
+				}
 
-				} else if (e instanceof ParseException) {
-					String message = StringUtils.format("In file %s: Error parsing node %s:%s", file_name, info.title,
-							e.getMessage());
-					throw new ParseException(message, e);
-				} else if (e instanceof IllegalStateException) {
-					String message = StringUtils.format("in file %s: Error reading node %s:%s", file_name, info.title,
-							e.getMessage());
-					throw new IllegalStateException(message);
-				}else {
-				    e.printStackTrace();
-					throw new IllegalStateException("Something went wrong in Yarn:"+e);
+				if (lazy) {
+					to_load.add(info);
+				} else if (executor == null) {
+					if (compile_cache == null) {
+						compiler.compileNode(parseNode(info, library, file_name, lexer, show_tokens, show_parse_tree));
+					} else {
+						compiler.program.include(compileCached(info, library, library_signature, file_name, lexer,
+								show_tokens, show_parse_tree));
+					}
+				} else {
+					FutureTask<Program> task = new FutureTask<Program>(() -> {
+						if (compile_cache != null)
+							return compileCached(info, library, library_signature, file_name, new Lexer(lexer_mode),
+									show_tokens, show_parse_tree);
+						Compiler node_compiler = newCompiler(file_name);
+						node_compiler.compileNode(parseNode(info, library, file_name, new Lexer(lexer_mode),
+								show_tokens, show_parse_tree));
+						return node_compiler.program;
+					});
+					compiled.add(task);
+					executor.execute(task);
 				}
 			}
+		} catch (RuntimeException e) {
+			//nothing will wait for the nodes already handed out
+			for (FutureTask<Program> task : compiled)
+				task.cancel(false);
+			throw e;
+		}
 
+		if (lazy) {
+			Program program = new Program();
+			if (!to_load.isEmpty())
+				program.addNodeSource(new LazyNodes(to_load, library, file_name, show_tokens, show_parse_tree));
+			if (include != null)
+				program.include(include);
+			return program;
 		}
 
-		Compiler compiler = new Compiler(file_name);
-		for (Map.Entry<String, Parser.Node> n : nodes.entrySet()) {
-			compiler.compileNode(n.getValue());
+		//merge in file order so keys and iteration order match the serial load
+		for (FutureTask<Program> task : compiled) {
+			try {
+				compiler.program.include(task.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while loading " + file_name, e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				throw new IllegalStateException("Something went wrong in Yarn:" + cause, cause);
+			}
 		}
 
 		if(include!=null)
@@ -186,6 +350,107 @@ public class Loader {
 		return compiler.program;
 	}
 
+	private Compiler newCompiler(String file_name) {
+		if (optimization == Optimizer.Level.None)
+			return new Compiler(file_name);
+		return new Compiler(file_name, new Optimizer(optimization));
+	}
+
+	/**
+	 * the library signature that cached nodes are keyed with, nodes compiled at
+	 * another optimization level are not the same
+	 */
+	private String cacheSignature(Library library) {
+		return library.signature() + ";optimization=" + optimization;
+	}
+
+	/**
+	 * compile a single node into its own program, reusing the cached copy when
+	 * the node and library have not changed. Nothing is printed for cached nodes.
+	 */
+	protected Program compileCached(NodeInfo info, Library library, String library_signature, String file_name,
+			Lexer lexer, boolean show_tokens, boolean show_parse_tree) {
+		String key = compile_cache.key(info, library_signature);
+		Program cached = compile_cache.get(key);
+		if (cached != null)
+			return cached;
+
+		Compiler node_compiler = newCompiler(file_name);
+		node_compiler.compileNode(parseNode(info, library, file_name, lexer, show_tokens, show_parse_tree));
+		compile_cache.put(key, node_compiler.program);
+		return node_compiler.program;
+	}
+
+	/**
+	 * compile a single node into its own program, through the cache if there is
+	 * one
+	 */
+	protected Program compileNode(NodeInfo info, Library library, String file_name, Lexer lexer,
+			boolean show_tokens, boolean show_parse_tree) {
+		if (compile_cache != null)
+			return compileCached(info, library, cacheSignature(library), file_name, lexer, show_tokens,
+					show_parse_tree);
+		Compiler node_compiler = newCompiler(file_name);
+		node_compiler.compileNode(parseNode(info, library, file_name, lexer, show_tokens, show_parse_tree));
+		return node_compiler.program;
+	}
+
+	/**
+	 * lex and parse a single node, errors are reported against the file and node
+	 * they came from
+	 */
+	protected Node parseNode(NodeInfo info, Library library, String file_name, Lexer lexer, boolean show_tokens,
+			boolean show_parse_tree) {
+		try {
+
+			TokenBuffer tokens = lexer.tokenise(info.getBodyText());
+
+
+			if (show_tokens)
+				printTokenList(tokens);
+
+			Node node = new Parser(tokens, library).parse();
+
+
+			//if this node is tagged "rawText", then preserve its source
+			if (info.tags != null && !info.tags.isEmpty() && info.tags.contains("rawText")) {
+				node.setSource(info.getBody());
+			}
+
+			node.setName(info.title);
+
+			node.setNodeTags(info.tagsList());
+
+			if (show_parse_tree)
+				printParseTree(node);
+
+			return node;
+
+		} catch (Exception e) {
+			throw loadError(e, file_name, info);
+		}
+	}
+
+	private static RuntimeException loadError(Exception e, String file_name, NodeInfo info) {
+		if (e instanceof TokeniserException) {
+			String message = StringUtils.format("In file %s: Error reading %s:%s", file_name, info.title,
+					e.getMessage());
+			return new TokeniserException(message);
+
+		} else if (e instanceof ParseException) {
+			String message = StringUtils.format("In file %s: Error parsing node %s:%s", file_name, info.title,
+					e.getMessage());
+			return new ParseException(message, e);
+		} else if (e instanceof IllegalStateException) {
+			String message = StringUtils.format("in file %s: Error reading node %s:%s", file_name, info.title,
+					e.getMessage());
+			return new IllegalStateException(message);
+		}else {
+		    e.printStackTrace();
+			return new IllegalStateException("Something went wrong in Yarn:"+e);
+		}
+	}
+
 	private static NodeFormat getFormatFromFileName(String file_name) {
 		NodeFormat format;
 		String fn = file_name.toLowerCase();
@@ -205,7 +470,6 @@ public class Loader {
 	 * given either twine,json or xml input, return an array containing info about
 	 * the nodes in text file
 	 */
-	@SuppressWarnings("unchecked")
 	protected List<NodeInfo> getNodesFromText(String text, NodeFormat format) {
 		ArrayList<NodeInfo> nodes = new ArrayList<Loader.NodeInfo>();
 
@@ -218,136 +482,645 @@ public class Loader {
 			nodes.add(node);
 			break;
 		case Json:
-			//parse it as json
-			Json json = new Json();
-			try {
-				nodes = json.fromJson(ArrayList.class, Loader.NodeInfo.class, text);
-			} catch (Exception e) {
-				if(e instanceof SerializationException) {
-					dialogue.error_logger.log("Error parsing Yarn input: " + e.getMessage());
-				}else if(e instanceof ClassCastException) {
-					dialogue.error_logger.log("Unable to cast yarn");
-				}
-			}
+			//parse it as json, one node at a time
+			JsonNodeReader json = new JsonNodeReader(new StringReader(text));
+			while (json.hasNext())
+				nodes.add(json.next());
 			break;
 		case Text:
+			//split it into nodes the same way text read from a reader is
+			TextNodeReader reader = new TextNodeReader(text);
+			while (reader.hasNext())
+				nodes.add(reader.next());
+			break;
+		default:
+			throw new IllegalStateException("Unkown format " + format.name());
+		}
 
-			//check for the existance of atleast one '---'+newline sentinel, which divides
-			//the headers frmo the body
+		return nodes;
+	}
 
-			//we use a regex to match either \r\n or \n line endings
-			Matcher match = new Regex("---(\r\n|\r|\n)").match(text);
-            match.setPosition(0);
-			if (!match.find()) {
-				dialogue.error_logger.log("Error parsing input: text appears corrupt(no header)");
+	/**
+	 * parse a 'field: value' header line into info. Headers the loader does not
+	 * know are kept in the node's metadata.
+	 */
+	private void parseHeader(NodeInfo info, String line, int line_number) {
+		int colon = line.indexOf(':');
+		if (colon == -1) {
+			dialogue.error_logger.log(StringUtils.format("Line %s: cant parse header '%s'", line_number, line));
+			return;
+		}
+
+		String field = line.substring(0, colon).trim();
+		String value = line.substring(colon + 1).trim();
+
+		try {
+			switch (field) {
+			case "title":
+				info.setTitle(value);
+				break;
+			case "tags":
+				info.setTags(value);
+				break;
+			case "body":
+				info.setBody(value);
+				break;
+			case "colorID":
+				info.setColorId(Integer.parseInt(value));
+				break;
+			case "position":
+				//expect 2 components x and y
+				int comma = value.indexOf(',');
+				if (comma == -1 || value.indexOf(',', comma + 1) != -1) {
+					dialogue.error_logger.log(StringUtils.format("%s:Error setting %s: invalid value '%s'",
+							line_number, field, value));
+					break;
+				}
+				info.setPosition(new Position(Integer.parseInt(value.substring(0, comma).trim()),
+						Integer.parseInt(value.substring(comma + 1).trim())));
+				break;
+			default:
+				info.putMetadata(field, value);
 				break;
 			}
+		} catch (NumberFormatException e) {
+			dialogue.error_logger.log("could not convert " + field + ":" + e.getMessage());
+		}
+	}
 
-			BufferedReader reader = new BufferedReader(new StringReader(text));
-			Regex header_regex = new Regex("(?<field>.*): *(?<value>.*)");
-			int line_number = 0;
-			String line;
-			try {
-				while ((line = reader.readLine()) != null) {
+	/**
+	 * splits yarn text into nodes, either all of a string or a reader as it is
+	 * read. A reader is read no further than the end of the node being asked for,
+	 * and only the text of that node is kept.
+	 * <p>
+	 * lines may end in \n, \r\n or \r. The text needs at least one '---'
+	 * followed by a line ending, which divides the headers from the body, or it is
+	 * logged as corrupt and has no nodes.
+	 */
+	protected class TextNodeReader implements Iterator<NodeInfo> {
+		private final Reader reader;
+		private final StringBuilder buffer;
+		private final char[] chunk;
+		private final CharSequence text;
+
+		//where the next line starts in text
+		private int position;
+		private int line_number;
+		private boolean has_sentinel;
+
+		//start, end and line number of each header line of the node being read
+		private int[] headers = new int[12];
+		private int header_count;
+
+		private NodeInfo next;
+		private boolean done;
+
+		protected TextNodeReader(String text) {
+			this.reader = null;
+			this.buffer = null;
+			this.chunk = null;
+			this.text = text;
+		}
 
-					//create a new node
-					NodeInfo info = new NodeInfo();
+		protected TextNodeReader(Reader reader) {
+			this.reader = reader;
+			this.buffer = new StringBuilder();
+			this.chunk = new char[8192];
+			this.text = buffer;
+		}
 
-					//read header lines
-					do {
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = readNode();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				done = next == null;
+			}
+			return next != null;
+		}
 
-						line_number++;
+		@Override
+		public NodeInfo next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			NodeInfo info = next;
+			next = null;
+			return info;
+		}
 
-						//skip empty lines
-						if (line.length() == 0) {
-							continue;
-						}
+		private NodeInfo readNode() throws IOException {
+			//the nodes before this one have been handed out, forget their text
+			if (buffer != null) {
+				buffer.delete(0, position);
+				position = 0;
+			}
 
-						//attempt ot parse header
-						Matcher header_match = header_regex.match(line);
+			NodeInfo info = new NodeInfo();
+			header_count = 0;
+			boolean has_body = false;
 
-						if (!header_match.find()) {
-							dialogue.error_logger
-									.log(StringUtils.format("Line %s: cant parse header '%s'", line_number, line));
-							continue;
-						}
+			//read header lines, they are parsed once it is known the text has a body
+			while (has(position)) {
+				int line_start = position;
+				int line_end = lineEnd(line_start);
+				position = nextLine(line_end);
+				line_number++;
 
-						String field = header_match.group("field");
-						String value = header_match.group("value");
+				if (position != line_end && endsWith(line_start, line_end, "---"))
+					has_sentinel = true;
 
-						Object convert_value;
+				if (isLine(line_start, line_end, "---")) {
+					has_body = true;
+					break;
+				}
 
-						try {
-							@SuppressWarnings("rawtypes")
-							Class type = info.typeOfField(field);
-							if (type == String.class) {
-								convert_value = value;
-							} else if (type == Integer.class) {
-								convert_value = Integer.parseInt(value);
-							} else if (type == Position.class) {
-								String[] components = value.split(",");
+				//skip empty lines
+				if (line_end == line_start) {
+					continue;
+				}
 
-								//expect 2 components x and y
-								if (components.length != 2) {
-									throw new IllegalStateException();
-								}
+				addHeader(line_start, line_end);
+			}
 
-								Position pos = new Position();
-								pos.setX(Integer.parseInt(components[0]));
-								pos.setY(Integer.parseInt(components[1]));
+			if (!has_sentinel) {
+				dialogue.error_logger.log("Error parsing input: text appears corrupt(no header)");
+				return null;
+			}
 
-								convert_value = pos;
-							} else {
-								throw new IllegalStateException();
-							}
+			for (int i = 0; i < header_count * 3; i += 3)
+				parseHeader(info, text.subSequence(headers[i], headers[i + 1]).toString(), headers[i + 2]);
 
-							if (!info.setField(field, convert_value))
-								throw new IllegalStateException();
+			if (!has_body) {
+				if (header_count > 0)
+					dialogue.error_logger.log(StringUtils.format("Line %s: node has no body", line_number));
+				return null;
+			}
 
-						} catch (Exception e) {
-							if (e instanceof IllegalArgumentException) {
+			//were past the header, the body runs up to the next '===' or the end
+			//of the text
+			int body_start = position;
+			int body_end = position;
+			boolean lone_cr = false;
 
-							} else if (e instanceof IllegalStateException) {
-								dialogue.error_logger.log(StringUtils.format("%s:Error setting %s: invalid value '%s'",
-										line_number, field, value));
-							} else if (e instanceof NumberFormatException) {
-								dialogue.error_logger.log("could not convert " + field + ":" + e.getMessage());
-							}
-						}
+			while (has(position)) {
+				int line_start = position;
+				int line_end = lineEnd(line_start);
+				position = nextLine(line_end);
+				line_number++;
 
-					} while (!(line = reader.readLine()).equals("---"));
+				if (isLine(line_start, line_end, "===")) {
+					break;
+				}
 
-					line_number++;
+				body_end = line_end;
+				if (position == line_end + 1 && text.charAt(line_end) == '\r')
+					lone_cr = true;
+			}
 
-					//were past the header
-					ArrayList<String> lines = new ArrayList<String>();
+			if (lone_cr) {
+				//the lexer only breaks lines on \n, so old mac line endings have to
+				//be rewritten
+				String body = text.subSequence(body_start, body_end).toString();
+				info.setBody(body.replace("\r\n", "\n").replace('\r', '\n'));
+			} else if (buffer == null) {
+				//a string never changes, keep the body as a slice of it
+				info.setBodyText(new TextSlice(text, body_start, body_end));
+			} else {
+				info.setBody(text.subSequence(body_start, body_end).toString());
+			}
+			return info;
+		}
 
-					while ((line = reader.readLine()) != null && !line.equals("===")) {
-						line_number++;
-						lines.add(line);
-					}
+		private void addHeader(int start, int end) {
+			if (header_count * 3 == headers.length)
+				headers = Arrays.copyOf(headers, headers.length * 2);
+			headers[header_count * 3] = start;
+			headers[header_count * 3 + 1] = end;
+			headers[header_count * 3 + 2] = line_number;
+			header_count++;
+		}
+
+		/**
+		 * true if text has a character at index, reading more from the reader
+		 * when it needs to
+		 */
+		private boolean has(int index) throws IOException {
+			while (index >= text.length()) {
+				if (reader == null)
+					return false;
+				int read = reader.read(chunk);
+				if (read == -1)
+					return false;
+				buffer.append(chunk, 0, read);
+			}
+			return true;
+		}
+
+		/**
+		 * the index of the line terminator of the line starting at start, or the
+		 * end of the text if it is the last line
+		 */
+		private int lineEnd(int start) throws IOException {
+			int end = start;
+			while (has(end)) {
+				char c = text.charAt(end);
+				if (c == '\n' || c == '\r')
+					break;
+				end++;
+			}
+			return end;
+		}
 
-					//were done reading lines, zip em up into a string and store it in the body
-					info.body = String.join("\n", lines);
+		/**
+		 * the start of the line after the terminator at line_end, which may be \n,
+		 * \r\n or \r
+		 */
+		private int nextLine(int line_end) throws IOException {
+			if (!has(line_end))
+				return line_end;
+			if (text.charAt(line_end) == '\r' && has(line_end + 1) && text.charAt(line_end + 1) == '\n')
+				return line_end + 2;
+			return line_end + 1;
+		}
 
-					//add thsi node to the list
-					nodes.add(info);
+		private boolean isLine(int start, int end, String line) {
+			return end - start == line.length() && endsWith(start, end, line);
+		}
 
-					//move on to the next line
+		private boolean endsWith(int start, int end, String suffix) {
+			int offset = end - suffix.length();
+			if (offset < start)
+				return false;
+			for (int i = 0; i < suffix.length(); i++) {
+				if (text.charAt(offset + i) != suffix.charAt(i))
+					return false;
+			}
+			return true;
+		}
+	}
 
+	/**
+	 * pulls nodes out of a json array of node objects as it is read. Only the
+	 * fields {@link NodeInfo#setField(String, Object)} knows are kept, anything
+	 * else is skipped without being built.
+	 */
+	protected class JsonNodeReader implements Iterator<NodeInfo> {
+		private final Reader reader;
+		private final char[] buffer = new char[8192];
+		private int position;
+		private int limit;
+		private int line_number = 1;
+
+		//scratch space for strings and numbers
+		private final StringBuilder scratch = new StringBuilder();
+
+		private boolean started;
+		private boolean done;
+		private NodeInfo next;
+
+		protected JsonNodeReader(Reader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				try {
+					next = readNode();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} catch (SerializationException e) {
+					dialogue.error_logger.log("Error parsing Yarn input: " + e.getMessage());
+					next = null;
 				}
+				done = next == null;
+			}
+			return next != null;
+		}
+
+		@Override
+		public NodeInfo next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			NodeInfo info = next;
+			next = null;
+			return info;
+		}
 
-				reader.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+		private NodeInfo readNode() throws IOException {
+			if (!started) {
+				started = true;
+				expect('[');
+				if (peekToken() == ']')
+					return null;
+			} else {
+				int c = nextToken();
+				if (c == ']')
+					return null;
+				if (c != ',')
+					throw error("expected ',' or ']' after a node");
 			}
 
-			break;
-		default:
-			throw new IllegalStateException("Unkown format " + format.name());
+			expect('{');
+			NodeInfo info = new NodeInfo();
+			if (peekToken() == '}') {
+				read();
+				return info;
+			}
+
+			int c;
+			do {
+				String field = readString();
+				expect(':');
+				readField(info, field);
+				c = nextToken();
+			} while (c == ',');
+
+			if (c != '}')
+				throw error("expected ',' or '}' after a field");
+			return info;
 		}
 
-		return nodes;
+		private void readField(NodeInfo info, String field) throws IOException {
+			if (!NodeInfo.hasField(field)) {
+				skipValue();
+				return;
+			}
+
+			@SuppressWarnings("rawtypes")
+			Class type = info.typeOfField(field);
+
+			if (type == String.class) {
+				info.setField(field, readText());
+			} else if (type == Integer.class) {
+				Integer value = readInteger();
+				if (value != null)
+					info.setField(field, value);
+			} else if (type == Position.class) {
+				info.setField(field, readPosition());
+			} else {
+				skipValue();
+			}
+		}
+
+		/**
+		 * a string, or the literal text of a number or boolean
+		 */
+		private String readText() throws IOException {
+			int c = peekToken();
+			if (c == '"')
+				return readString();
+			String literal = readLiteral();
+			return literal.equals("null") ? null : literal;
+		}
+
+		private Integer readInteger() throws IOException {
+			String text = readText();
+			if (text == null)
+				return null;
+			try {
+				return (int) Double.parseDouble(text.trim());
+			} catch (NumberFormatException e) {
+				throw error("expected a number but found '" + text + "'");
+			}
+		}
+
+		private Position readPosition() throws IOException {
+			if (peekToken() != '{') {
+				if (readText() != null)
+					throw error("expected a position");
+				return null;
+			}
+			read();
+
+			Position position = new Position();
+			if (peekToken() == '}') {
+				read();
+				return position;
+			}
+
+			int c;
+			do {
+				String field = readString();
+				expect(':');
+				if (field.equals("x")) {
+					Integer x = readInteger();
+					position.setX(x == null ? 0 : x);
+				} else if (field.equals("y")) {
+					Integer y = readInteger();
+					position.setY(y == null ? 0 : y);
+				} else {
+					skipValue();
+				}
+				c = nextToken();
+			} while (c == ',');
+
+			if (c != '}')
+				throw error("expected ',' or '}' in a position");
+			return position;
+		}
+
+		private void skipValue() throws IOException {
+			int c = peekToken();
+			if (c == '"') {
+				readString();
+			} else if (c == '{' || c == '[') {
+				int close = c == '{' ? '}' : ']';
+				read();
+				if (peekToken() == close) {
+					read();
+					return;
+				}
+				do {
+					if (close == '}') {
+						readString();
+						expect(':');
+					}
+					skipValue();
+					c = nextToken();
+				} while (c == ',');
+				if (c != close)
+					throw error("expected ',' or '" + (char) close + "'");
+			} else {
+				readLiteral();
+			}
+		}
+
+		private String readString() throws IOException {
+			if (nextToken() != '"')
+				throw error("expected a string");
+
+			scratch.setLength(0);
+			while (true) {
+				int c = read();
+				if (c == -1)
+					throw error("unterminated string");
+				if (c == '"')
+					break;
+				if (c != '\\') {
+					scratch.append((char) c);
+					continue;
+				}
+
+				c = read();
+				switch (c) {
+				case '"':
+				case '\\':
+				case '/':
+					scratch.append((char) c);
+					break;
+				case 'b':
+					scratch.append('\b');
+					break;
+				case 'f':
+					scratch.append('\f');
+					break;
+				case 'n':
+					scratch.append('\n');
+					break;
+				case 'r':
+					scratch.append('\r');
+					break;
+				case 't':
+					scratch.append('\t');
+					break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(read(), 16);
+						if (digit == -1)
+							throw error("invalid unicode escape");
+						code = code * 16 + digit;
+					}
+					scratch.append((char) code);
+					break;
+				default:
+					throw error("invalid escape in string");
+				}
+			}
+			return scratch.toString();
+		}
+
+		/**
+		 * a number, true, false or null
+		 */
+		private String readLiteral() throws IOException {
+			skipWhitespace();
+			scratch.setLength(0);
+			int c;
+			while ((c = peek()) != -1 && c != ',' && c != '}' && c != ']' && c != ':' && c != '"'
+					&& !isWhitespace(c)) {
+				scratch.append((char) read());
+			}
+			if (scratch.length() == 0)
+				throw error(c == -1 ? "unexpected end of input" : "unexpected '" + (char) c + "'");
+			return scratch.toString();
+		}
+
+		private void expect(char expected) throws IOException {
+			int c = nextToken();
+			if (c != expected)
+				throw error(c == -1 ? "expected '" + expected + "' but the input ended"
+						: "expected '" + expected + "' but found '" + (char) c + "'");
+		}
+
+		private SerializationException error(String message) {
+			return new SerializationException(StringUtils.format("line %s: %s", line_number, message));
+		}
+
+		private int nextToken() throws IOException {
+			skipWhitespace();
+			return read();
+		}
+
+		private int peekToken() throws IOException {
+			skipWhitespace();
+			return peek();
+		}
+
+		private void skipWhitespace() throws IOException {
+			int c;
+			while ((c = peek()) != -1 && isWhitespace(c))
+				read();
+		}
+
+		private boolean isWhitespace(int c) {
+			return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+		}
+
+		private int peek() throws IOException {
+			if (position == limit && !fill())
+				return -1;
+			return buffer[position];
+		}
+
+		private int read() throws IOException {
+			if (position == limit && !fill())
+				return -1;
+			char c = buffer[position++];
+			if (c == '\n')
+				line_number++;
+			return c;
+		}
+
+		private boolean fill() throws IOException {
+			int read;
+			do {
+				read = reader.read(buffer);
+			} while (read == 0);
+			if (read == -1)
+				return false;
+			position = 0;
+			limit = read;
+			return true;
+		}
+	}
+
+	/**
+	 * the raw text of nodes that have not been compiled yet. Each node is compiled
+	 * the first time it is loaded and kept for any program that asks again.
+	 */
+	protected class LazyNodes implements Program.NodeSource {
+		private final LinkedHashMap<String, NodeInfo> infos = new LinkedHashMap<String, NodeInfo>();
+		private final HashMap<String, Program> compiled = new HashMap<String, Program>();
+		private final Library library;
+		private final String file_name;
+		private final boolean show_tokens;
+		private final boolean show_parse_tree;
+		private final Lexer lexer = new Lexer(lexer_mode);
+
+		protected LazyNodes(List<NodeInfo> infos, Library library, String file_name, boolean show_tokens,
+				boolean show_parse_tree) {
+			for (NodeInfo info : infos) {
+				this.infos.put(info.title, info);
+			}
+			this.library = library;
+			this.file_name = file_name;
+			this.show_tokens = show_tokens;
+			this.show_parse_tree = show_parse_tree;
+		}
+
+		@Override
+		public Set<String> nodeNames() {
+			return Collections.unmodifiableSet(infos.keySet());
+		}
+
+		@Override
+		public synchronized Program loadNode(String name) {
+			Program program = compiled.get(name);
+			if (program != null)
+				return program;
+			NodeInfo info = infos.get(name);
+			if (info == null)
+				throw new IllegalStateException("No node named " + name + " in " + file_name);
+
+			program = compileNode(info, library, file_name, lexer, show_tokens, show_parse_tree);
+			compiled.put(name, program);
+			return program;
+		}
 	}
 
 	public static class NodeInfo {
@@ -355,20 +1128,36 @@ public class Loader {
 		private String title;
 		private String body;
 
+		//the body as a slice of the text it was loaded from, until someone asks
+		//for it as a string
+		private transient CharSequence body_text;
+
 		//the raw tags
 		private String tags;
 		private int colorID;
 		private Position position;
 
+		//headers the loader has no field for, in the order they were read
+		private LinkedHashMap<String, String> metadata;
+
 		//getters
 		public String getTitle() {
 			return title;
 		}
 
 		public String getBody() {
+			if (body == null && body_text != null)
+				body = body_text.toString();
 			return body;
 		}
 
+		/**
+		 * the body without copying it out of the text it was loaded from
+		 */
+		public CharSequence getBodyText() {
+			return body != null ? body : body_text;
+		}
+
 		public String getTags() {
 			return tags;
 		}
@@ -388,6 +1177,12 @@ public class Loader {
 
 		public void setBody(String body) {
 			this.body = body;
+			this.body_text = null;
+		}
+
+		public void setBodyText(CharSequence body_text) {
+			this.body = null;
+			this.body_text = body_text;
 		}
 
 		public void setTags(String tags) {
@@ -402,6 +1197,25 @@ public class Loader {
 			this.position = position;
 		}
 
+		/**
+		 * the headers this node had that are not one of its fields
+		 */
+		public Map<String, String> getMetadata() {
+			if (metadata == null)
+				return Collections.emptyMap();
+			return Collections.unmodifiableMap(metadata);
+		}
+
+		public String getMetadata(String name) {
+			return metadata == null ? null : metadata.get(name);
+		}
+
+		public void putMetadata(String name, String value) {
+			if (metadata == null)
+				metadata = new LinkedHashMap<String, String>();
+			metadata.put(name, value);
+		}
+
 		public List<String> tagsList() {
 			//no tags return empty
 			if (tags == null || tags.length() == 0) {
@@ -443,45 +1257,61 @@ public class Loader {
 
 		@Override
 		public String toString() {
-			return StringUtils.format("Node{ title:%1$s ,body:%2$s}", title, body);
+			return StringUtils.format("Node{ title:%1$s ,body:%2$s}", title, getBodyText());
 		}
 
 		public boolean setField(String name, Object value) {
-			if (name.equals("title")) {
+			switch (name) {
+			case "title":
 				title = (String) value;
 				return true;
-			} else if (name.equals("tags")) {
+			case "tags":
 				tags = (String) value;
 				return true;
-			} else if (name.equals("colorID")) {
+			case "colorID":
 				colorID = (Integer) value;
 				return true;
-			} else if (name.equals("position")) {
+			case "position":
 				position = (Position) value;
 				return true;
-			} else if (name.equals("body")) {
-				body = (String) value;
+			case "body":
+				setBody((String) value);
 				return true;
+			default:
+				return false;
 			}
+		}
 
-			return false;
+		/**
+		 * whether name is one of the fields {@link #setField(String, Object)} sets
+		 */
+		public static boolean hasField(String name) {
+			switch (name) {
+			case "title":
+			case "tags":
+			case "colorID":
+			case "position":
+			case "body":
+				return true;
+			default:
+				return false;
+			}
 		}
 
 		@SuppressWarnings("rawtypes")
 		public Class typeOfField(String name) {
-			if (name.equals("title")) {
-				return String.class;
-			} else if (name.equals("tags")) {
+			switch (name) {
+			case "title":
+			case "tags":
+			case "body":
 				return String.class;
-			} else if (name.equals("colorID")) {
+			case "colorID":
 				return Integer.class;
-			} else if (name.equals("position")) {
+			case "position":
 				return Position.class;
-			} else if (name.equals("body")) {
-				return String.class;
+			default:
+				throw new IllegalArgumentException("field not found " + name);
 			}
-
-			throw new IllegalArgumentException("field not found " + name);
 		}
 
 	}
@@ -0,0 +1,97 @@
+package com.kyper.yarn;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * an immutable open addressing table from names to their position in the
+ * order they were given. Callers keep whatever the names map to in arrays of
+ * their own, so a lookup never boxes and a table costs a few ints per name
+ * instead of a map entry. A table never changes once built, so it can be
+ * shared between threads.
+ */
+public final class NameTable {
+
+	public static final int NOT_FOUND = -1;
+
+	public static final NameTable EMPTY = new NameTable(new String[0]);
+
+	private final String[] names;
+
+	//index + 1 of the name hashed into each slot, 0 for an empty slot
+	private final int[] slots;
+	private final int mask;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a name is null or given twice
+	 */
+	public NameTable(Collection<String> names) {
+		this(names.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a name is null or given twice
+	 */
+	public NameTable(String[] names) {
+		this.names = Arrays.copyOf(names, names.length);
+
+		//keep the table at most half full so probes stay short
+		int capacity = 2;
+		while (capacity < names.length * 2)
+			capacity <<= 1;
+		slots = new int[capacity];
+		mask = capacity - 1;
+
+		for (int i = 0; i < names.length; i++) {
+			String name = names[i];
+			if (name == null)
+				throw new IllegalArgumentException("names can not be null");
+
+			int slot = hash(name) & mask;
+			while (slots[slot] != 0) {
+				if (this.names[slots[slot] - 1].equals(name))
+					throw new IllegalArgumentException("duplicate name " + name);
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * @return the position of name, or {@link #NOT_FOUND}
+	 */
+	public int indexOf(Object name) {
+		if (name == null)
+			return NOT_FOUND;
+
+		int slot = hash(name) & mask;
+		int index;
+		while ((index = slots[slot]) != 0) {
+			if (names[index - 1].equals(name))
+				return index - 1;
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	public boolean contains(Object name) {
+		return indexOf(name) != NOT_FOUND;
+	}
+
+	public String name(int index) {
+		return names[index];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	private static int hash(Object name) {
+		//spread the high bits down, the table only looks at the low ones
+		int h = name.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,395 @@
+package com.kyper.yarn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+
+/**
+ * rewrites a compiled node's instructions into fewer that do the same thing.
+ * Runs on the node before {@link Compiler#link(Program.Node)}, while labels are
+ * still instructions and jumps still name them. Labels are never removed, the
+ * Jump that shortcut options use looks them up by name at runtime.
+ * <p>
+ * rewrites that touch the value stack are only made where the stack is known
+ * to be empty first. Values come off the bottom of the machine's stack, so a
+ * push followed by a pop only cancels out when nothing is under it. How much a
+ * function call takes off the stack depends on the function registered when it
+ * runs, not when the node is compiled, so nothing is known about the stack
+ * after a CallFunc.
+ */
+public class Optimizer {
+
+	public static enum Level {
+		/** leave the instructions as the compiler emitted them */
+		None,
+		/** thread jumps, drop jumps to the next instruction and unreachable code */
+		Basic,
+		/** Basic, and also drop pushes that are popped straight away and fold constant expressions */
+		Full
+	}
+
+	//stack depths while analysing
+	private static final int UNREACHED = -2;
+	private static final int UNKNOWN = -1;
+
+	private final Level level;
+
+	public Optimizer(Level level) {
+		this.level = level;
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * optimize the instructions of node in place
+	 */
+	protected void optimize(Program.Node node) {
+		if (level == Level.None)
+			return;
+
+		ArrayList<Instruction> code = node.instructions;
+		boolean changed = true;
+		while (changed) {
+			changed = threadJumps(code);
+			changed |= removeJumpsToNext(code);
+			changed |= removeUnreachable(code, analyse(code));
+			if (level == Level.Full) {
+				changed |= removePushPop(code, analyse(code));
+				changed |= foldConstants(code, analyse(code));
+			}
+		}
+	}
+
+	/**
+	 * point jumps that land on another JumpTo at where that one goes
+	 */
+	private static boolean threadJumps(ArrayList<Instruction> code) {
+		HashMap<String, Integer> labels = labels(code);
+		boolean changed = false;
+
+		for (Instruction instruction : code) {
+			ByteCode operation = instruction.getOperation();
+			if (operation != ByteCode.JumpTo && operation != ByteCode.JumpIfFalse)
+				continue;
+
+			String label = (String) instruction.operandA();
+			//a loop of jumps never gets anywhere, stop once every instruction has been tried
+			for (int hops = 0; hops < code.size(); hops++) {
+				Instruction target = firstInstructionAt(code, labels.get(label));
+				if (target == null || target.getOperation() != ByteCode.JumpTo || target.operandA().equals(label))
+					break;
+				label = (String) target.operandA();
+			}
+
+			if (!label.equals(instruction.operandA())) {
+				instruction.setOperandA(label);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * drop a JumpTo that would land on the instruction after it anyway
+	 */
+	private static boolean removeJumpsToNext(ArrayList<Instruction> code) {
+		boolean changed = false;
+
+		for (int i = 0; i < code.size(); i++) {
+			Instruction instruction = code.get(i);
+			if (instruction.getOperation() != ByteCode.JumpTo)
+				continue;
+
+			for (int j = i + 1; j < code.size() && code.get(j).getOperation() == ByteCode.Label; j++) {
+				if (code.get(j).operandA().equals(instruction.operandA())) {
+					code.remove(i--);
+					changed = true;
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * drop everything nothing can jump or fall through to, such as the code after
+	 * a Stop or RunNode
+	 */
+	private static boolean removeUnreachable(ArrayList<Instruction> code, int[] depths) {
+		boolean changed = false;
+		int kept = 0;
+		for (int i = 0; i < code.size(); i++) {
+			Instruction instruction = code.get(i);
+			if (depths[i] == UNREACHED && instruction.getOperation() != ByteCode.Label) {
+				changed = true;
+				continue;
+			}
+			code.set(kept++, instruction);
+		}
+		code.subList(kept, code.size()).clear();
+		return changed;
+	}
+
+	/**
+	 * drop a push onto an empty stack that is popped straight away
+	 */
+	private static boolean removePushPop(ArrayList<Instruction> code, int[] depths) {
+		boolean changed = false;
+		for (int i = code.size() - 2; i >= 0; i--) {
+			if (depths[i] == 0 && isPush(code.get(i).getOperation())
+					&& code.get(i + 1).getOperation() == ByteCode.Pop) {
+				code.remove(i + 1);
+				code.remove(i);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * replace an operator applied to constants pushed onto an empty stack with
+	 * its result. Only numbers, bools and null are folded, strings would need new
+	 * entries in the string table.
+	 */
+	private static boolean foldConstants(ArrayList<Instruction> code, int[] depths) {
+		boolean changed = false;
+		for (int i = code.size() - 2; i >= 0; i--) {
+			if (depths[i] != 0)
+				continue;
+
+			Value first = constant(code.get(i));
+			if (first == null)
+				continue;
+
+			Instruction next = code.get(i + 1);
+			Value folded = null;
+			int length = 0;
+
+			if (next.getOperation() == ByteCode.Negate) {
+				folded = first.getType() == Value.Type.NUMBER ? Value.of(-first.getNumberValue()) : first.negative();
+				length = 2;
+			} else if (next.getOperation() == ByteCode.Not) {
+				folded = Value.of(!first.asBool());
+				length = 2;
+			} else if (i + 2 < code.size() && isOperator(code.get(i + 2).getOperation())) {
+				Value second = constant(next);
+				if (second == null)
+					continue;
+				try {
+					//the value pushed first is popped first, see VirtualMachine
+					folded = VirtualMachine.runOperator(code.get(i + 2).getOperation(), second, first);
+				} catch (RuntimeException e) {
+					//leave it to fail when it runs
+					continue;
+				}
+				length = 3;
+			}
+
+			Instruction push = push(folded);
+			if (push == null)
+				continue;
+
+			code.subList(i + 1, i + length).clear();
+			code.set(i, push);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * the depth of the value stack before each instruction, {@link #UNKNOWN} when
+	 * it can not be worked out and {@link #UNREACHED} if nothing gets there
+	 */
+	private static int[] analyse(ArrayList<Instruction> code) {
+		int[] depths = new int[code.size()];
+		Arrays.fill(depths, UNREACHED);
+		if (code.isEmpty())
+			return depths;
+
+		HashMap<String, Integer> labels = labels(code);
+
+		//where the Jump after a set of shortcut options can go
+		ArrayList<Integer> option_labels = new ArrayList<Integer>();
+		for (Instruction instruction : code) {
+			if (instruction.getOperation() == ByteCode.AddOption) {
+				Integer target = labels.get(instruction.operandB());
+				if (target != null)
+					option_labels.add(target);
+			}
+		}
+
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		depths[0] = 0;
+		work.add(0);
+
+		while (!work.isEmpty()) {
+			int i = work.poll();
+			Instruction instruction = code.get(i);
+			int depth = depths[i];
+			int after = depth == UNKNOWN ? UNKNOWN : effect(instruction, depth);
+
+			switch (instruction.getOperation()) {
+			case Stop:
+			case RunNode:
+				break;
+			case JumpTo:
+				flow(depths, work, labels.get(instruction.operandA()), after);
+				break;
+			case JumpIfFalse:
+				flow(depths, work, labels.get(instruction.operandA()), after);
+				flow(depths, work, i + 1 < code.size() ? i + 1 : null, after);
+				break;
+			case Jump:
+				for (Integer target : option_labels)
+					flow(depths, work, target, after);
+				break;
+			default:
+				flow(depths, work, i + 1 < code.size() ? i + 1 : null, after);
+				break;
+			}
+		}
+		return depths;
+	}
+
+	private static void flow(int[] depths, ArrayDeque<Integer> work, Integer target, int depth) {
+		if (target == null)
+			return;
+		int known = depths[target];
+		if (known == UNREACHED) {
+			depths[target] = depth;
+			work.add(target);
+		} else if (known != depth && known != UNKNOWN) {
+			depths[target] = UNKNOWN;
+			work.add(target);
+		}
+	}
+
+	/**
+	 * the depth of the stack after instruction
+	 */
+	private static int effect(Instruction instruction, int depth) {
+		switch (instruction.getOperation()) {
+		case PushString:
+		case PushNumber:
+		case PushBool:
+		case PushNull:
+		case PushVariable:
+		case ShowOptions:
+			return depth + 1;
+		case Pop:
+			return depth > 0 ? depth - 1 : UNKNOWN;
+		case Label:
+		case JumpTo:
+		case JumpIfFalse:
+		case Jump:
+		case RunLine:
+		case RunCommand:
+		case AddOption:
+		case StoreVariable:
+		case Negate:
+		case Not:
+		case Stop:
+		case RunNode:
+			return depth;
+		default:
+			if (isOperator(instruction.getOperation()))
+				return depth > 1 ? depth - 1 : UNKNOWN;
+			return UNKNOWN;
+		}
+	}
+
+	private static HashMap<String, Integer> labels(ArrayList<Instruction> code) {
+		HashMap<String, Integer> labels = new HashMap<String, Integer>();
+		for (int i = 0; i < code.size(); i++) {
+			if (code.get(i).getOperation() == ByteCode.Label)
+				labels.put((String) code.get(i).operandA(), i);
+		}
+		return labels;
+	}
+
+	/**
+	 * the first instruction that is not a label from index on, null at the end
+	 */
+	private static Instruction firstInstructionAt(ArrayList<Instruction> code, Integer index) {
+		if (index == null)
+			return null;
+		for (int i = index; i < code.size(); i++) {
+			if (code.get(i).getOperation() != ByteCode.Label)
+				return code.get(i);
+		}
+		return null;
+	}
+
+	private static boolean isPush(ByteCode operation) {
+		switch (operation) {
+		case PushString:
+		case PushNumber:
+		case PushBool:
+		case PushNull:
+		case PushVariable:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean isOperator(ByteCode operation) {
+		switch (operation) {
+		case Add:
+		case Subtract:
+		case Multiply:
+		case Divide:
+		case Modulo:
+		case EqualTo:
+		case NotEqualTo:
+		case GreaterThan:
+		case GreaterThanOrEqualTo:
+		case LessThan:
+		case LessThanOrEqualTo:
+		case And:
+		case Or:
+		case Xor:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * the value a number, bool or null push pushes, null for anything else
+	 */
+	private static Value constant(Instruction instruction) {
+		switch (instruction.getOperation()) {
+		case PushNumber:
+			return Value.of(Float.parseFloat(String.valueOf(instruction.operandA())));
+		case PushBool:
+			return Value.of(Boolean.parseBoolean(String.valueOf(instruction.operandA())));
+		case PushNull:
+			return Value.NULL;
+		default:
+			return null;
+		}
+	}
+
+	private static Instruction push(Value value) {
+		if (value == null)
+			return null;
+		switch (value.getType()) {
+		case NUMBER:
+			return new Instruction(ByteCode.PushNumber, value.getNumberValue(), null);
+		case BOOL:
+			return new Instruction(ByteCode.PushBool, value.getBoolValue(), null);
+		case NULL:
+			return new Instruction(ByteCode.PushNull, null, null);
+		default:
+			return null;
+		}
+	}
+
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Stack;
 
 import com.kyper.yarn.Lexer.Token;
@@ -16,21 +17,59 @@ import com.kyper.yarn.Program.ParseException;
 
 public class Parser {
 
-	//we will be consuming tokens fast
-	//TODO: i think becuase im not using a queue some issues might be caused by
-	//TODO: lexer function that reverses the tokens array
-	protected ArrayDeque<Token> tokens;
+	//we will be consuming tokens fast, so they are never removed; position is
+	//the index of the next token and lookahead is just an index past it
+	protected TokenBuffer tokens;
+	protected int position;
+	protected int end;
 	protected Library library;
 
-	public Parser(List<Token> tokens, Library library) {
-		this.tokens = new ArrayDeque<Token>(tokens);
-		//TODO:================================
-		//TODO: fix? this.tokens.reverse();
-		//Collections.reverse(this.tokens.toArray())
-		///TODO: ===============================
+	public Parser(TokenBuffer tokens, Library library) {
+		this(tokens, 0, tokens.size(), library);
+	}
+
+	/**
+	 * parse the tokens from start up to but not including end
+	 */
+	public Parser(TokenBuffer tokens, int start, int end, Library library) {
+		this.tokens = tokens;
+		this.position = start;
+		this.end = end;
 		this.library = library;
 	}
 
+	/**
+	 * @return the number of tokens left to parse
+	 */
+	public int remaining() {
+		return end - position;
+	}
+
+	/**
+	 * @return the next token without consuming it, or null if there are none left
+	 */
+	public Token peek() {
+		return position < end ? tokens.token(position) : null;
+	}
+
+	/**
+	 * the type of the next token, without making a token for it
+	 */
+	protected TokenType peekType() {
+		if (position >= end)
+			throw new NoSuchElementException();
+		return tokens.type(position);
+	}
+
+	/**
+	 * consume the next token
+	 */
+	protected Token pop() {
+		if (position >= end)
+			throw new NoSuchElementException();
+		return tokens.token(position++);
+	}
+
 	public Node parse() {
 		//kick off the parsing process by trying to parse a whole node;
 		return new Node("Start", null, this);
@@ -43,7 +82,7 @@ public class Parser {
 	 */
 	public boolean nextSymbolIs(TokenType... valid_types) {
 
-		TokenType t = this.tokens.peek().type;
+		TokenType t = peekType();
 		for (TokenType valid_type : valid_types) {
 			if (t == valid_type)
 				return true;
@@ -59,10 +98,10 @@ public class Parser {
 	 * @return
 	 */
 	public boolean nextSymbolsAre(TokenType... valid_types) {
-		ArrayList<Token> temp = new ArrayList<Lexer.Token>(tokens);
-		//temp.reverse();
-		for (TokenType type : valid_types) {
-			if (temp.remove(0).type != type)
+		if (valid_types.length > remaining())
+			return false;
+		for (int i = 0; i < valid_types.length; i++) {
+			if (tokens.type(position + i) != valid_types[i])
 				return false;
 		}
 		return true;
@@ -75,7 +114,7 @@ public class Parser {
 	 * @return
 	 */
 	public Token expectSymbol(TokenType type) {
-		Token t = this.tokens.pop();
+		Token t = pop();
 		if (t.type != type) {
 			throw ParseException.make(t, type);
 		}
@@ -88,7 +127,7 @@ public class Parser {
 	 * @return
 	 */
 	public Token expectSymbol() {
-		Token t = this.tokens.pop();
+		Token t = pop();
 		if (t.type == TokenType.EndOfInput) {
 			throw ParseException.make(t, "unexpected end of input.");
 		}
@@ -103,7 +142,7 @@ public class Parser {
 	 * @return
 	 */
 	public Token expectSymbol(TokenType... valid_types) {
-		Token t = this.tokens.pop();
+		Token t = pop();
 		for (TokenType valid_type : valid_types) {
 			if (t.type == valid_type)
 				return t;
@@ -111,6 +150,59 @@ public class Parser {
 		throw ParseException.make(t, valid_types);
 	}
 
+	/**
+	 * consume the next token, which must be of the 'type', without making a token
+	 * for it. used when the parser only cares that the symbol is there
+	 */
+	protected void skipSymbol(TokenType type) {
+		if (peekType() != type)
+			throw ParseException.make(pop(), type);
+		position++;
+	}
+
+	/**
+	 * consume the next token, which can be of any type except endOfInput, without
+	 * making a token for it
+	 */
+	protected void skipSymbol() {
+		if (peekType() == TokenType.EndOfInput)
+			throw ParseException.make(pop(), "unexpected end of input.");
+		position++;
+	}
+
+	/**
+	 * consume the next token, which must be of the 'type', and return only its
+	 * text
+	 */
+	protected String expectValue(TokenType type) {
+		skipSymbol(type);
+		return tokens.value(position - 1);
+	}
+
+	/**
+	 * consume the next token, which must be one of the valid_types, and return
+	 * only its text
+	 */
+	protected String expectValue(TokenType... valid_types) {
+		expectType(valid_types);
+		return tokens.value(position - 1);
+	}
+
+	/**
+	 * consume the next token, which must be one of the valid_types, and return
+	 * only its type
+	 */
+	protected TokenType expectType(TokenType... valid_types) {
+		TokenType t = peekType();
+		for (TokenType valid_type : valid_types) {
+			if (t == valid_type) {
+				position++;
+				return t;
+			}
+		}
+		throw ParseException.make(pop(), valid_types);
+	}
+
 	//indents are 'input' String 'indentLevel' times;
 	private static String tab(int indent_level, String input, boolean newline) {
 		StringBuilder sb = new StringBuilder();//TODO: dont create this more than once
@@ -140,8 +232,8 @@ public class Parser {
 		//You parse tokens into ParseNode by using its constructor
 		protected ParseNode(ParseNode parent, Parser p) {
 			this.parent = parent;
-			if (p.tokens.size() > 0)
-				this.line_number = p.tokens.peek().line_number;
+			if (p.remaining() > 0)
+				this.line_number = p.tokens.line(p.position);
 			else
 				this.line_number = -1;
 			tags = new ArrayList<String>();
@@ -204,7 +296,7 @@ public class Parser {
 			super(parent, p);
 			this.name = name;
 			//consume statements until we run out of input or hit a dedent
-			while (p.tokens.size() > 0 && !p.nextSymbolIs(TokenType.Dedent, TokenType.EndOfInput)) {
+			while (p.remaining() > 0 && !p.nextSymbolIs(TokenType.Dedent, TokenType.EndOfInput)) {
 				statements.add(new Statement(this, p));
 			}
 		}
@@ -298,17 +390,17 @@ public class Parser {
                 type = Type.CustomCommand;
                 custom_command = new CustomCommand(this, p);
             } else if (p.nextSymbolIs(TokenType.Text)) {
-                line = p.expectSymbol(TokenType.Text).value;
+                line = p.expectValue(TokenType.Text);
                 type = Type.Line;
             } else {
-				throw ParseException.make(p.tokens.peek(), "Expected a statement here but got " + p.tokens.peek().toString() +" instead (was there an unbalanced if statement earlier?)");
+				throw ParseException.make(p.peek(), "Expected a statement here but got " + p.peek().toString() +" instead (was there an unbalanced if statement earlier?)");
             }
 			//parse the optional tags that follow this statement
 			ArrayList<String> tags = new ArrayList<String>();
 
 			while(p.nextSymbolIs(TokenType.TagMarker)) {
-				p.expectSymbol(TokenType.TagMarker);
-				String tag = p.expectSymbol(TokenType.Identifier).value;
+				p.skipSymbol(TokenType.TagMarker);
+				String tag = p.expectValue(TokenType.Identifier);
 				tags.add(tag);
 			}
 
@@ -400,30 +492,31 @@ public class Parser {
 
 		protected CustomCommand(ParseNode parent, Parser p) {
 			super(parent, p);
-			p.expectSymbol(TokenType.BeginCommand);
+			p.skipSymbol(TokenType.BeginCommand);
 
 			//custom commands can have any token in them, Read them all until we hit the
 			//end of command token
-			ArrayList<Token> command_tokens = new ArrayList<Lexer.Token>();
+			int command_start = p.position;
 			do {
-				command_tokens.add(p.expectSymbol());
+				p.skipSymbol();
 			} while (!p.nextSymbolIs(TokenType.EndCommand));
-			p.expectSymbol(TokenType.EndCommand);
+			int command_end = p.position;
+			p.skipSymbol(TokenType.EndCommand);
 
 			//if the first token is an identifier and the second is
 			//a left paren, it may be a function call expression;
 			//evaluate it as such
-			if (command_tokens.size() > 1 && command_tokens.get(0).type == TokenType.Identifier
-					&& command_tokens.get(1).type == TokenType.LeftParen) {
+			if (command_end - command_start > 1 && p.tokens.type(command_start) == TokenType.Identifier
+					&& p.tokens.type(command_start + 1) == TokenType.LeftParen) {
 
-				Parser parser = new Parser(command_tokens, p.library);
+				Parser parser = new Parser(p.tokens, command_start, command_end, p.library);
 				Expression expression = Expression.parse(this, parser);
 				type = Type.Expression;
 				this.expression = expression;
 			} else {
 				//otherwise, evaluate it as a command
 				type = Type.ClientCommand;
-				this.client_command = command_tokens.get(0).value;
+				this.client_command = p.tokens.value(command_start);
 
 			}
 
@@ -505,22 +598,22 @@ public class Parser {
 
 		protected ShortcutOption(int option_index, ParseNode parent, Parser p) {
 			super(parent, p);
-			p.expectSymbol(TokenType.ShortcutOption);
-			label = p.expectSymbol(TokenType.Text).value;
+			p.skipSymbol(TokenType.ShortcutOption);
+			label = p.expectValue(TokenType.Text);
 			//parse the conditional ("<< if $foo >>) if its there
 
 			ArrayList<String> tags = new ArrayList<String>();
 			while (p.nextSymbolsAre(TokenType.BeginCommand, TokenType.If) || p.nextSymbolIs(TokenType.TagMarker)) {
 
 				if (p.nextSymbolsAre(TokenType.BeginCommand, TokenType.If)) {
-					p.expectSymbol(TokenType.BeginCommand);
-					p.expectSymbol(TokenType.If);
+					p.skipSymbol(TokenType.BeginCommand);
+					p.skipSymbol(TokenType.If);
 					condition = Expression.parse(this, p);
-					p.expectSymbol(TokenType.EndCommand);
+					p.skipSymbol(TokenType.EndCommand);
 				} else if (p.nextSymbolIs(TokenType.TagMarker)) {
 
-					p.expectSymbol(TokenType.TagMarker);
-					String tag = p.expectSymbol(TokenType.Identifier).value;
+					p.skipSymbol(TokenType.TagMarker);
+					String tag = p.expectValue(TokenType.Identifier);
 					tags.add(tag);
 				}
 			}
@@ -529,9 +622,9 @@ public class Parser {
 
 			//parse the statements belonging to this option if has any
 			if (p.nextSymbolIs(TokenType.Indent)) {
-				p.expectSymbol(TokenType.Indent);
+				p.skipSymbol(TokenType.Indent);
 				option_node = new Node(nodeParent().name + "." + option_index, this, p);
-				p.expectSymbol(TokenType.Dedent);
+				p.skipSymbol(TokenType.Dedent);
 			}
 
 		}
@@ -582,7 +675,7 @@ public class Parser {
 			super(parent, p);
 
 			//read the indent token
-			p.expectSymbol(TokenType.Indent);
+			p.skipSymbol(TokenType.Indent);
 
 			//keep readin satements until we hit a dedent
 			while (!p.nextSymbolIs(TokenType.Dedent)) {
@@ -592,7 +685,7 @@ public class Parser {
 			}
 
 			//tidy up by reading the dedent
-			p.expectSymbol(TokenType.Dedent);
+			p.skipSymbol(TokenType.Dedent);
 		}
 
 		public List<Statement> getStatements() {
@@ -636,14 +729,14 @@ public class Parser {
 			String second_string;
 
 			//Parse "[[LABEL"
-			p.expectSymbol(TokenType.OptionStart);
-			first_string = p.expectSymbol(TokenType.Text).value;
+			p.skipSymbol(TokenType.OptionStart);
+			first_string = p.expectValue(TokenType.Text);
 
 			//if there's a | in there, get the string that comes after it
 			if (p.nextSymbolIs(TokenType.OptionDelimit)) {
 
-				p.expectSymbol(TokenType.OptionDelimit);
-				second_string = p.expectSymbol(TokenType.Text, TokenType.Identifier).value;
+				p.skipSymbol(TokenType.OptionDelimit);
+				second_string = p.expectValue(TokenType.Text, TokenType.Identifier);
 
 				//two strings mean that the first is the label, and the second
 				//is the name of the node that we should head to if the option
@@ -658,7 +751,7 @@ public class Parser {
 			}
 
 			//parse the closing "]]"
-			p.expectSymbol(TokenType.OptionEnd);
+			p.skipSymbol(TokenType.OptionEnd);
 		}
 
 		public String getDestination() {
@@ -697,10 +790,10 @@ public class Parser {
 			//all if statements begin with "<<if EXPRESSION>>", so parse that
 			Clause primary_clause = new Clause();
 
-			p.expectSymbol(TokenType.BeginCommand);
-			p.expectSymbol(TokenType.If);
+			p.skipSymbol(TokenType.BeginCommand);
+			p.skipSymbol(TokenType.If);
 			primary_clause.setExpression(Expression.parse(this, p));
-			p.expectSymbol(TokenType.EndCommand);
+			p.skipSymbol(TokenType.EndCommand);
 
 			//read the statements for this clause until we hit an <<endif or <<else
 			//(which could be an "<<else>>" or an <<else if)
@@ -713,7 +806,7 @@ public class Parser {
 
 				//ignore any dedents
 				while (p.nextSymbolIs(TokenType.Dedent))
-					p.expectSymbol(TokenType.Dedent);
+					p.skipSymbol(TokenType.Dedent);
 
 			}
 
@@ -725,10 +818,10 @@ public class Parser {
 				Clause else_if_clause = new Clause();
 
 				//parse the syntax for this clauses condition
-				p.expectSymbol(TokenType.BeginCommand);
-				p.expectSymbol(TokenType.ElseIf);
+				p.skipSymbol(TokenType.BeginCommand);
+				p.skipSymbol(TokenType.ElseIf);
 				else_if_clause.setExpression(Expression.parse(this, p));
-				p.expectSymbol(TokenType.EndCommand);
+				p.skipSymbol(TokenType.EndCommand);
 
 				//read statements until we hit an <<endif, <<else or another <<elseif
 				ArrayList<Statement> clause_statements = new ArrayList<Parser.Statement>();
@@ -739,7 +832,7 @@ public class Parser {
 
 					//ignore any dedents
 					while (p.nextSymbolIs(TokenType.Dedent))
-						p.expectSymbol(TokenType.Dedent);
+						p.skipSymbol(TokenType.Dedent);
 
 				}
 
@@ -751,9 +844,9 @@ public class Parser {
 			if (p.nextSymbolsAre(TokenType.BeginCommand, TokenType.Else, TokenType.EndCommand)) {
 
 				//parse the syntax (no expression this time, just <<else>>
-				p.expectSymbol(TokenType.BeginCommand);
-				p.expectSymbol(TokenType.Else);
-				p.expectSymbol(TokenType.EndCommand);
+				p.skipSymbol(TokenType.BeginCommand);
+				p.skipSymbol(TokenType.Else);
+				p.skipSymbol(TokenType.EndCommand);
 
 				//and parse statements until we hit <<endif
 				Clause else_clause = new Clause();
@@ -768,13 +861,13 @@ public class Parser {
 
 				//ignore any dedents
 				while (p.nextSymbolIs(TokenType.Dedent))
-					p.expectSymbol(TokenType.Dedent);
+					p.skipSymbol(TokenType.Dedent);
 			}
 
 			//finish up by reading the endif
-			p.expectSymbol(TokenType.BeginCommand);
-			p.expectSymbol(TokenType.EndIf);
-			p.expectSymbol(TokenType.EndCommand);
+			p.skipSymbol(TokenType.BeginCommand);
+			p.skipSymbol(TokenType.EndIf);
+			p.skipSymbol(TokenType.EndCommand);
 
 		}
 
@@ -892,21 +985,19 @@ public class Parser {
 			// Store the value depending on token's type
 			switch (t.type) {
 			case Number:
-				value = new Value(Float.parseFloat(t.value));
+				value = Value.of(Float.parseFloat(t.value()));
 				break;
 			case Str:
-				value = new Value(t.value);
+				value = Value.of(t.value());
 				break;
 			case False:
-				value = new Value(false);
+				value = Value.FALSE;
 				break;
 			case True:
-				value = new Value(true);
+				value = Value.TRUE;
 				break;
 			case Variable:
-				value = new Value();
-				value.setType(Value.Type.VARNAME);
-				value.setVarName(t.value);
+				value = Value.varName(t.value());
 				break;
 			case Null:
 				value = Value.NULL;
@@ -1002,7 +1093,7 @@ public class Parser {
 
 			//read all the contents of the expression
 			TokenType[] valid_token_types_arr = valid_token_types.toArray(new TokenType[valid_token_types.size()]);
-			while (p.tokens.size() > 0 && p.nextSymbolIs(valid_token_types_arr)) {
+			while (p.remaining() > 0 && p.nextSymbolIs(valid_token_types_arr)) {
 				Token next_token = p.expectSymbol(valid_token_types_arr);
 
 				if (next_token.type == TokenType.Number
@@ -1048,7 +1139,7 @@ public class Parser {
 					//the next token is not allowed to be a right paren or comma
 					//(that is, you cant say "foo(2,,)")
 					if (p.nextSymbolIs(TokenType.RightParen, TokenType.Comma)) {
-						throw ParseException.make(p.tokens.peek(), "Expected expression");
+						throw ParseException.make(p.peek(), "Expected expression");
 					}
 
 					//find the closest function on the stack
@@ -1189,13 +1280,13 @@ public class Parser {
 					//if we are a lib, use it to check if the
 					//number of parameters proveded is correct
 					if (p.library != null) {
-						info = p.library.getFunction(next.value);
+						info = p.library.getFunction(next.value());
 
 						//ensure that this call has the right number of params;
 						if (!info.isParamCountCorrect(next.parameter_count)) {
 							String error = StringUtils.format("Error parsing expression: "
 									+ "Unsupported number of parameters for function %1$s (expected %2$s, got %3$s)",
-									next.value, info.getParamCount(), next.parameter_count);
+									next.value(), info.getParamCount(), next.parameter_count);
 							throw ParseException.make(next, error);
 						}
 
@@ -1204,7 +1295,7 @@ public class Parser {
 						//use a dummy FunctionInfo to represent info about
 						//the fact that a function is called; note that
 						//attempting to call this will fail
-						info = new FunctionInfo(next.value, next.parameter_count);
+						info = new FunctionInfo(next.value(), next.parameter_count);
 					}
 
 					ArrayList<Expression> param_list = new ArrayList<Parser.Expression>();
@@ -1280,12 +1371,12 @@ public class Parser {
 
 		protected AssignmentStatement(ParseNode parent, Parser p) {
 			super(parent, p);
-			p.expectSymbol(TokenType.BeginCommand);
-			p.expectSymbol(TokenType.Set);
-			destination_variable = p.expectSymbol(TokenType.Variable).value;
-			operation = p.expectSymbol(validOperators()).type;
+			p.skipSymbol(TokenType.BeginCommand);
+			p.skipSymbol(TokenType.Set);
+			destination_variable = p.expectValue(TokenType.Variable);
+			operation = p.expectType(validOperators());
 			value_expression = Expression.parse(this, p);
-			p.expectSymbol(TokenType.EndCommand);
+			p.skipSymbol(TokenType.EndCommand);
 		}
 
 		protected String getDestinationVariable() {
@@ -1339,7 +1430,7 @@ public class Parser {
 
 		protected Operator(ParseNode parent, Parser p) {
 			super(parent, p);
-			operator_type = p.expectSymbol(operatorTypes()).type;
+			operator_type = p.expectType(operatorTypes());
 		}
 
 		@Override
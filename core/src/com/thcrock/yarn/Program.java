@@ -5,29 +5,196 @@ import com.kyper.yarn.Lexer.Token;
 import com.kyper.yarn.Lexer.TokenType;
 import com.kyper.yarn.Library.FunctionInfo;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Program {
 
-	protected HashMap<String, String> strings = new HashMap<String, String>();
-	protected HashMap<String, LineInfo> line_info = new HashMap<String, Program.LineInfo>();
+	//insertion ordered, so programs built from the same nodes in the same order
+	//always iterate the same way no matter how they were put together
+	//once frozen these are FrozenMaps
+	protected Map<String, String> strings = new LinkedHashMap<String, String>();
+	protected Map<String, LineInfo> line_info = new LinkedHashMap<String, Program.LineInfo>();
 
-	protected HashMap<String, Node> nodes = new HashMap<String, Node>();
+	protected Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+
+	//nodes that are only decoded or compiled when something asks for them
+	//a frozen program never removes them, the nodes it decodes go in decoded_nodes
+	protected LinkedHashMap<String, NodeSource> pending_nodes = new LinkedHashMap<String, NodeSource>();
 
 	private int string_count = 0;
 
+	//only for frozen programs with pending nodes, see decodeNode()
+	private ConcurrentHashMap<String, Node> decoded_nodes;
+	private volatile Map<String, Node> all_nodes;
+
+	//every variable the program's nodes use, worked out once for frozen programs, see variableNames()
+	private volatile NameTable variable_names;
+
+	//numbers the variables of a frozen program's nodes as they are linked, see variableSite()
+	private HashMap<String, Integer> variable_sites;
+
+	//a frozen program is never changed again, see freeze()
+	private boolean frozen;
+
+	/**
+	 * every node in the program. any nodes still held by a {@link NodeSource} are
+	 * loaded first, use {@link #getNode(String)} to load them one at a time
+	 */
 	public Map<String, Node> getNodes() {
+		if (frozen && !pending_nodes.isEmpty())
+			return allNodes();
+		loadAllNodes();
 		return nodes;
 	}
 
+	/**
+	 * every node of a frozen program with pending nodes, in the order of
+	 * {@link #nodeNames()}
+	 */
+	private Map<String, Node> allNodes() {
+		Map<String, Node> all = all_nodes;
+		if (all == null) {
+			LinkedHashMap<String, Node> ordered = new LinkedHashMap<String, Node>();
+			for (String name : nodeNames())
+				ordered.put(name, getNode(name));
+			all_nodes = all = new FrozenMap<Node>(ordered);
+		}
+		return all;
+	}
+
+	/**
+	 * @return the node with the given name, loading it from its source if needed,
+	 *         or null if there is no such node
+	 */
+	public Node getNode(String name) {
+		Node node = nodes.get(name);
+		if (node != null)
+			return node;
+
+		NodeSource source = pending_nodes.get(name);
+		if (source == null)
+			return null;
+		if (frozen)
+			return decodeNode(name, source);
+
+		//if this throws the node stays pending so it can be asked for again
+		Program loaded = source.loadNode(name);
+		node = loaded.nodes.get(name);
+		if (node == null)
+			throw new IllegalStateException(StringUtils.format("Node source did not load %s", name));
+
+		strings.putAll(loaded.strings);
+		line_info.putAll(loaded.line_info);
+		nodes.put(name, node);
+		pending_nodes.remove(name);
+		return node;
+	}
+
+	/**
+	 * load a pending node of a frozen program, once no matter how many threads
+	 * ask for it. Its strings and line info are added before the node is, so
+	 * whoever finds the node finds its strings too.
+	 */
+	private Node decodeNode(String name, NodeSource source) {
+		Node node = decoded_nodes.get(name);
+		if (node != null)
+			return node;
+
+		synchronized (decoded_nodes) {
+			node = decoded_nodes.get(name);
+			if (node != null)
+				return node;
+
+			//if this throws the node is left to be asked for again
+			Program loaded = source.loadNode(name);
+			node = loaded.nodes.get(name);
+			if (node == null)
+				throw new IllegalStateException(StringUtils.format("Node source did not load %s", name));
+
+			((AppendOnlyMap<String>) strings).addAll(loaded.strings);
+			((AppendOnlyMap<LineInfo>) line_info).addAll(loaded.line_info);
+			decoded_nodes.put(name, node);
+			return node;
+		}
+	}
+
+	public boolean containsNode(String name) {
+		return nodes.containsKey(name) || pending_nodes.containsKey(name);
+	}
+
+	/**
+	 * the names of every node, without loading any of them
+	 */
+	public Set<String> nodeNames() {
+		if (pending_nodes.isEmpty())
+			return nodes.keySet();
+		LinkedHashSet<String> names = new LinkedHashSet<String>(nodes.keySet());
+		names.addAll(pending_nodes.keySet());
+		return names;
+	}
+
+	public int nodeCount() {
+		return nodes.size() + pending_nodes.size();
+	}
+
+	/**
+	 * the names of the nodes that have not been loaded from their source yet
+	 */
+	public Set<String> pendingNodeNames() {
+		if (frozen && !pending_nodes.isEmpty()) {
+			LinkedHashSet<String> names = new LinkedHashSet<String>();
+			for (String name : pending_nodes.keySet()) {
+				if (!decoded_nodes.containsKey(name))
+					names.add(name);
+			}
+			return names;
+		}
+		return pending_nodes.keySet();
+	}
+
+	/**
+	 * load every node still held by a node source into the program
+	 */
+	public void loadAllNodes() {
+		if (pending_nodes.isEmpty())
+			return;
+		for (String name : new ArrayList<String>(pending_nodes.keySet())) {
+			getNode(name);
+		}
+	}
+
+	protected void addNodeSource(NodeSource source) {
+		checkNotFrozen();
+		for (String name : source.nodeNames()) {
+			addPendingNode(name, source);
+		}
+	}
+
+	private void addPendingNode(String name, NodeSource source) {
+		if (containsNode(name)) {
+			throw new IllegalStateException(StringUtils.format("This program already contains a node named %s", name));
+		}
+		pending_nodes.put(name, source);
+	}
+
 	/// Loads a new string table into the program.
 	/**
 	 * The string table is merged with any existing strings, with the new table
 	 * taking precedence over the old.
 	 */
 	public void loadStrings(Map<String, String> new_strings) {
+		checkNotFrozen();
 		for (Map.Entry<String, String> line : new_strings.entrySet()) {
 			strings.put(line.getKey(), line.getValue());
 		}
@@ -35,6 +202,7 @@ public class Program {
 
 	public String registerString(String string, String node_name, String line_id, int line_number,
 			boolean localisable) {
+		checkNotFrozen();
 		String key;
 
 		if (line_id == null)
@@ -63,15 +231,35 @@ public class Program {
 	public String dumpCode(Library lib) {
 		StringBuilder sb = new StringBuilder();
 
-		for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+		for (Map.Entry<String, Node> entry : getNodes().entrySet()) {
 			sb.append("Node \n" + entry.getKey() + ":");
 			int instruction_count = 0;
 
+			//labels are gone once a node is linked, so show them where they pointed
+			HashMap<Integer, ArrayList<String>> labels = new HashMap<Integer, ArrayList<String>>();
+			Node node = entry.getValue();
+			for (int i = 0; i < node.labelCount(); i++) {
+				ArrayList<String> names = labels.get(node.labelTarget(i));
+				if (names == null) {
+					names = new ArrayList<String>();
+					labels.put(node.labelTarget(i), names);
+				}
+				names.add(node.labelName(i));
+			}
+
 			ArrayList<Instruction> instructions = entry.getValue().instructions;
 			for (int i = 0; i < instructions.size(); i++) {
 				Instruction instruction = instructions.get(i);
 				String instruction_text = null;
 
+				ArrayList<String> names = labels.get(i);
+				if (names != null) {
+					Collections.sort(names);
+					for (String name : names) {
+						sb.append(StringUtils.format("%1$6s    ", " ") + name + ":\n");
+					}
+				}
+
 				if (instruction.getOperation() == ByteCode.Label) {
 					instruction_text = instruction.toString(this, lib);
 				} else {
@@ -103,13 +291,14 @@ public class Program {
 	}
 
 	public String getTextForNode(String node_name) {
-		String key = nodes.get(node_name).source_string_id;
+		String key = getNode(node_name).source_string_id;
 		return this.getString(key == null ? "" : key);
 	}
 
 	public void include(Program other_program) {
+		checkNotFrozen();
 		for (Map.Entry<String, Node> other : other_program.nodes.entrySet()) {
-			if (nodes.containsKey(other.getKey())) {
+			if (containsNode(other.getKey())) {
 				throw new IllegalStateException(
 						StringUtils.format("This program already contains a node named %s", other.getKey()));
 			}
@@ -125,6 +314,87 @@ public class Program {
 			}
 			strings.put(other.getKey(), other.getValue());
 		}
+
+		line_info.putAll(other_program.line_info);
+
+		for (Map.Entry<String, NodeSource> pending : other_program.pending_nodes.entrySet()) {
+			addPendingNode(pending.getKey(), pending.getValue());
+		}
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * an immutable copy of this program. Its tables are {@link FrozenMap}s, which
+	 * hold nothing but arrays and can be read from any number of threads. Pending
+	 * nodes stay with their sources and are loaded the first time they are asked
+	 * for, from whichever thread asks. Anything that would change the copy throws
+	 * an IllegalStateException.
+	 */
+	public Program freeze() {
+		if (frozen)
+			return this;
+
+		Program program = new Program();
+		program.nodes = new FrozenMap<Node>(nodes);
+		program.pending_nodes = new LinkedHashMap<String, NodeSource>(pending_nodes);
+		if (pending_nodes.isEmpty()) {
+			program.strings = new FrozenMap<String>(strings);
+			program.line_info = new FrozenMap<LineInfo>(line_info);
+		} else {
+			//loading a node can add strings
+			program.strings = new AppendOnlyMap<String>(strings);
+			program.line_info = new AppendOnlyMap<LineInfo>(line_info);
+			program.decoded_nodes = new ConcurrentHashMap<String, Node>();
+		}
+		program.string_count = string_count;
+		program.variable_sites = new HashMap<String, Integer>();
+		program.frozen = true;
+		return program;
+	}
+
+	/**
+	 * every variable the program's nodes use, each with a dense slot in the order
+	 * the nodes are in. An {@link Dialogue.IndexedVariableStorage} can be laid out
+	 * with it before the program runs. Only worked out once for frozen programs.
+	 */
+	public NameTable variableNames() {
+		NameTable table = variable_names;
+		if (table != null)
+			return table;
+
+		LinkedHashSet<String> names = new LinkedHashSet<String>();
+		for (Node node : getNodes().values()) {
+			if (node.variables != null)
+				Collections.addAll(names, node.variables);
+		}
+		table = new NameTable(names);
+		if (frozen)
+			variable_names = table;
+		return table;
+	}
+
+	/**
+	 * the number a frozen program gives name, handed out as its nodes are linked
+	 * so pending nodes stay pending. A machine keeps its storage's slot for each
+	 * variable under this number, see {@link Node#linkVariables(Program)}
+	 */
+	protected int variableSite(String name) {
+		synchronized (variable_sites) {
+			Integer site = variable_sites.get(name);
+			if (site == null) {
+				site = variable_sites.size();
+				variable_sites.put(name, site);
+			}
+			return site;
+		}
+	}
+
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new IllegalStateException("This program is frozen and can not be changed");
 	}
 
 	// When saving programs, we want to save only lines that do NOT have a line: key.
@@ -145,6 +415,145 @@ public class Program {
 		return result;
 	}
 
+	/**
+	 * a read only map over a {@link NameTable} and an array of values, in the
+	 * order of the map it was copied from
+	 */
+	protected static class FrozenMap<V> extends AbstractMap<String, V> {
+		private final NameTable keys;
+		private final Object[] values;
+
+		public FrozenMap(Map<String, V> map) {
+			keys = new NameTable(map.keySet());
+			values = new Object[keys.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = map.get(keys.name(i));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public V get(Object key) {
+			int index = keys.indexOf(key);
+			return index == NameTable.NOT_FOUND ? null : (V) values[index];
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return keys.contains(key);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public Set<Map.Entry<String, V>> entrySet() {
+			return new AbstractSet<Map.Entry<String, V>>() {
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return new Iterator<Map.Entry<String, V>>() {
+						private int index;
+
+						@Override
+						public boolean hasNext() {
+							return index < values.length;
+						}
+
+						@SuppressWarnings("unchecked")
+						@Override
+						public Map.Entry<String, V> next() {
+							if (index == values.length)
+								throw new NoSuchElementException();
+							Map.Entry<String, V> entry = new SimpleImmutableEntry<String, V>(keys.name(index),
+									(V) values[index]);
+							index++;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return values.length;
+				}
+			};
+		}
+	}
+
+	/**
+	 * a {@link FrozenMap} that entries can be added to but never changed or
+	 * removed, for the tables of a frozen program whose nodes are still being
+	 * loaded. Reads never lock.
+	 */
+	protected static class AppendOnlyMap<V> extends AbstractMap<String, V> {
+		private final FrozenMap<V> frozen;
+		private final ConcurrentHashMap<String, V> added = new ConcurrentHashMap<String, V>();
+
+		public AppendOnlyMap(Map<String, V> map) {
+			frozen = new FrozenMap<V>(map);
+		}
+
+		/**
+		 * add the entries of map, keys that are already here keep their value
+		 */
+		protected void addAll(Map<String, V> map) {
+			for (Map.Entry<String, V> entry : map.entrySet()) {
+				if (!frozen.containsKey(entry.getKey()))
+					added.putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+
+		@Override
+		public V get(Object key) {
+			V value = frozen.get(key);
+			if (value == null && key != null && !added.isEmpty())
+				value = added.get(key);
+			return value;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return frozen.containsKey(key) || (key != null && added.containsKey(key));
+		}
+
+		@Override
+		public int size() {
+			return frozen.size() + added.size();
+		}
+
+		@Override
+		public Set<Map.Entry<String, V>> entrySet() {
+			return new AbstractSet<Map.Entry<String, V>>() {
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					final Iterator<Map.Entry<String, V>> first = frozen.entrySet().iterator();
+					final Iterator<Map.Entry<String, V>> then = added.entrySet().iterator();
+					return new Iterator<Map.Entry<String, V>>() {
+						@Override
+						public boolean hasNext() {
+							return first.hasNext() || then.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, V> next() {
+							if (first.hasNext())
+								return first.next();
+							Map.Entry<String, V> entry = then.next();
+							return new SimpleImmutableEntry<String, V>(entry.getKey(), entry.getValue());
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return AppendOnlyMap.this.size();
+				}
+			};
+		}
+	}
+
 	protected static class ParseException extends RuntimeException {
 		private static final long serialVersionUID = -6422941521497633431L;
 
@@ -182,9 +591,24 @@ public class Program {
 		}
 	}
 
+	/**
+	 * supplies nodes that have not been loaded into the program yet. sources may
+	 * be shared by programs on different threads, so they must be thread safe.
+	 */
+	public static interface NodeSource {
+		/** the names of every node in this source */
+		public Set<String> nodeNames();
+
+		/**
+		 * @return a program holding the named node along with any strings and line
+		 *         info that belong to it
+		 */
+		public Program loadNode(String name);
+	}
+
 	protected static class LineInfo {
-		private int line_number;
-		private String node_name;
+		protected int line_number;
+		protected String node_name;
 
 		public LineInfo(String node_name, int line_number) {
 			this.node_name = node_name;
@@ -209,16 +633,241 @@ public class Program {
 		//the original text of this node. null if not available
 		public String source_string_id = null;
 
+		//label name to the instruction that follows it while the node is being
+		//built, null once compactLabels has moved them into label_names
 		public HashMap<String, Integer> labels = new HashMap<String, Integer>();
 
+		private NameTable label_names;
+		private int[] label_targets;
+
 		public ArrayList<String> tags;
 
+		//prebuilt values for PushNumber and PushBool, see buildConstants
+		public Value[] constants;
+
+		//the names of the functions CallFunc calls, see buildCallSites
+		public String[] functions;
+
+		//the variables PushVariable and StoreVariable use, see buildVariableSites
+		public String[] variables;
+
+		//functions resolved against the first library that ran this node, see linkFunctions
+		private volatile CallSites call_sites;
+
+		//the program's number for each of variables, see linkVariables
+		private volatile VariableSites variable_sites;
+
+		/**
+		 * move the labels into a name table, so finding one at runtime does not box
+		 */
+		protected void compactLabels() {
+			if (labels == null)
+				return;
+			label_names = new NameTable(labels.keySet());
+			label_targets = new int[label_names.size()];
+			for (int i = 0; i < label_targets.length; i++) {
+				label_targets[i] = labels.get(label_names.name(i));
+			}
+			labels = null;
+		}
+
+		public int labelCount() {
+			return labels != null ? labels.size() : label_names.size();
+		}
+
+		public String labelName(int index) {
+			if (labels != null)
+				throw new IllegalStateException("labels of " + name + " have not been compacted");
+			return label_names.name(index);
+		}
+
+		public int labelTarget(int index) {
+			if (labels != null)
+				throw new IllegalStateException("labels of " + name + " have not been compacted");
+			return label_targets[index];
+		}
+
+		/**
+		 * @return the instruction the label points at, or {@link NameTable#NOT_FOUND}
+		 */
+		public int labelTarget(String label) {
+			if (labels != null) {
+				Integer target = labels.get(label);
+				return target == null ? NameTable.NOT_FOUND : target;
+			}
+			int index = label_names.indexOf(label);
+			return index == NameTable.NOT_FOUND ? NameTable.NOT_FOUND : label_targets[index];
+		}
+
+		/**
+		 * build the values pushed by PushNumber and PushBool up front and point
+		 * their operand b at them, so pushing a constant needs no parsing. string
+		 * constants are not built here, they are looked up in the string table
+		 * when pushed so a string table loaded later still changes them.
+		 */
+		protected void buildConstants() {
+			ArrayList<Value> values = new ArrayList<Value>();
+			HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+			for (Instruction instruction : instructions) {
+				String key;
+				switch (instruction.getOperation()) {
+				case PushNumber:
+					key = "n" + Float.parseFloat(String.valueOf(instruction.operandA()));
+					break;
+				case PushBool:
+					key = "b" + Boolean.parseBoolean(String.valueOf(instruction.operandA()));
+					break;
+				default:
+					continue;
+				}
+
+				Integer index = indices.get(key);
+				if (index == null) {
+					index = values.size();
+					indices.put(key, index);
+					values.add(constantValue(instruction));
+				}
+				instruction.setOperandB(index);
+			}
+
+			constants = values.toArray(new Value[values.size()]);
+		}
+
+		/**
+		 * give every function this node calls an index in functions and point the
+		 * CallFunc operand b at it, see linkFunctions
+		 */
+		protected void buildCallSites() {
+			ArrayList<String> names = new ArrayList<String>();
+			HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+			for (Instruction instruction : instructions) {
+				if (instruction.getOperation() != ByteCode.CallFunc)
+					continue;
+
+				String name = (String) instruction.operandA();
+				Integer index = indices.get(name);
+				if (index == null) {
+					index = names.size();
+					indices.put(name, index);
+					names.add(name);
+				}
+				instruction.setOperandB(index);
+			}
+
+			functions = names.toArray(new String[names.size()]);
+		}
+
+		/**
+		 * give every variable this node reads or writes an index in variables and
+		 * point the PushVariable and StoreVariable operand b at it, see
+		 * linkVariables
+		 */
+		protected void buildVariableSites() {
+			ArrayList<String> names = new ArrayList<String>();
+			HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+			for (Instruction instruction : instructions) {
+				ByteCode operation = instruction.getOperation();
+				if (operation != ByteCode.PushVariable && operation != ByteCode.StoreVariable)
+					continue;
+
+				String name = String.valueOf(instruction.operandA());
+				Integer index = indices.get(name);
+				if (index == null) {
+					index = names.size();
+					indices.put(name, index);
+					names.add(name);
+				}
+				instruction.setOperandB(index);
+			}
+
+			variables = names.toArray(new String[names.size()]);
+		}
+
+		/**
+		 * the functions this node calls, indexed like functions, looked up in
+		 * library the first time and kept on the node so every machine running it
+		 * shares them. Only for nodes of a frozen program, whose library must not
+		 * change either.
+		 *
+		 * @return null if the node calls nothing, or was linked against another
+		 *         library, in which case functions are looked up by name
+		 */
+		protected Library.FunctionInfo[] linkFunctions(Library library) {
+			CallSites sites = call_sites;
+			if (sites == null) {
+				if (functions == null || functions.length == 0)
+					return null;
+				//unknown functions stay null, so calling them fails like before
+				Library.FunctionInfo[] linked = new Library.FunctionInfo[functions.length];
+				for (int i = 0; i < functions.length; i++) {
+					if (library.functionExists(functions[i]))
+						linked[i] = library.getFunction(functions[i]);
+				}
+				//two threads may both link, either result is the same
+				sites = new CallSites(library, linked);
+				call_sites = sites;
+			}
+			return sites.library == library ? sites.functions : null;
+		}
+
+		/**
+		 * the frozen program's number for each of variables, indexed like
+		 * variables and kept on the node so every machine running it shares them.
+		 * A machine maps these numbers to its own storage's slots.
+		 *
+		 * @return null if the node uses no variables, or was linked as part of
+		 *         another program, in which case variables are used by name
+		 */
+		protected int[] linkVariables(Program program) {
+			VariableSites sites = variable_sites;
+			if (sites == null) {
+				if (variables == null || variables.length == 0)
+					return null;
+				int[] linked = new int[variables.length];
+				for (int i = 0; i < variables.length; i++)
+					linked[i] = program.variableSite(variables[i]);
+				//two threads may both link, the program hands both the same numbers
+				sites = new VariableSites(program, linked);
+				variable_sites = sites;
+			}
+			return sites.program == program ? sites.sites : null;
+		}
+
+		private static final class VariableSites {
+			final Program program;
+			final int[] sites;
+
+			VariableSites(Program program, int[] sites) {
+				this.program = program;
+				this.sites = sites;
+			}
+		}
+
+		private static final class CallSites {
+			final Library library;
+			final Library.FunctionInfo[] functions;
+
+			CallSites(Library library, Library.FunctionInfo[] functions) {
+				this.library = library;
+				this.functions = functions;
+			}
+		}
+
+		private static Value constantValue(Instruction instruction) {
+			if (instruction.getOperation() == ByteCode.PushNumber)
+				return Value.of(Float.parseFloat(String.valueOf(instruction.operandA())));
+			return Value.of(Boolean.parseBoolean(String.valueOf(instruction.operandA())));
+		}
+
 	}
 
 	protected static enum ByteCode {
-		/// opA = string: label name
+		/// opA = string: label name. only seen before linking, see Compiler.link
 		Label,
-		/// opA = string: label name
+		/// opA = int: instruction to jump to, opB = string: label name
 		JumpTo,
 		/// peek string from stack and jump to that label
 		Jump,
@@ -232,13 +881,13 @@ public class Program {
 		ShowOptions,
 		/// opA = int: string number in table; push string to stack
 		PushString,
-		/// opA = float: number to push to stack
+		/// opA = float: number to push to stack. opB = int: index in the node's constants
 		PushNumber,
-		/// opA = int (0 or 1): bool to push to stack
+		/// opA = int (0 or 1): bool to push to stack. opB = int: index in the node's constants
 		PushBool,
 		/// pushes a null value onto the stack
 		PushNull,
-		/// opA = string: label name if top of stack is not null, zero or false, jumps to that label
+		/// opA = int: instruction to jump to, opB = string: label name. if top of stack is null, zero or false, jumps there
 		JumpIfFalse,
 		/// discard top of stack
 		Pop,
@@ -251,7 +900,43 @@ public class Program {
 		/// stops execution
 		Stop,
 		/// run the node whose name is at the top of the stack
-		RunNode
+		RunNode,
+
+		// operators from the standard library, each pops its operands and pushes
+		// the result the same as calling the library function would
+
+		/// pop two values, push their sum
+		Add,
+		/// pop two values, push their difference
+		Subtract,
+		/// pop two values, push their product
+		Multiply,
+		/// pop two values, push their quotient
+		Divide,
+		/// pop two values, push the remainder
+		Modulo,
+		/// pop a value, push its negative
+		Negate,
+		/// pop two values, push whether they are equal
+		EqualTo,
+		/// pop two values, push whether they are not equal
+		NotEqualTo,
+		/// pop two values, push whether the first is greater
+		GreaterThan,
+		/// pop two values, push whether the first is greater or equal
+		GreaterThanOrEqualTo,
+		/// pop two values, push whether the first is less
+		LessThan,
+		/// pop two values, push whether the first is less or equal
+		LessThanOrEqualTo,
+		/// pop two values, push whether both are true
+		And,
+		/// pop two values, push whether either is true
+		Or,
+		/// pop two values, push whether exactly one is true
+		Xor,
+		/// pop a value, push whether it is false
+		Not
 	}
 
 	protected static class Instruction {
@@ -332,6 +1017,32 @@ public class Program {
 
 				break;
 
+			// binary operators pop two values and push the result
+			case Add:
+			case Subtract:
+			case Multiply:
+			case Divide:
+			case Modulo:
+			case EqualTo:
+			case NotEqualTo:
+			case GreaterThan:
+			case GreaterThanOrEqualTo:
+			case LessThan:
+			case LessThanOrEqualTo:
+			case And:
+			case Or:
+			case Xor:
+				pops = 2;
+				pushes = 1;
+				break;
+
+			// unary operators replace the top of the stack
+			case Negate:
+			case Not:
+				pops = 1;
+				pushes = 1;
+				break;
+
 			// Pop always pops a single value
 			case Pop:
 				pops = 1;
@@ -0,0 +1,66 @@
+package com.kyper.yarn;
+
+/**
+ * collects the nodes and strings of any number of loads into one growing
+ * program. Each load only copies what it added, so loading many files costs no
+ * more than loading them as one. Once everything is loaded {@link #freeze()}
+ * turns the program into the immutable one used at runtime.
+ */
+public class ProgramBuilder {
+
+	private Program program = new Program();
+	private boolean frozen;
+
+	/**
+	 * the program built so far. It keeps growing until the builder is frozen.
+	 */
+	public Program getProgram() {
+		return program;
+	}
+
+	/**
+	 * append every node and string in fragment
+	 *
+	 * @throws IllegalStateException
+	 *             if a node in fragment is already in the program or the builder
+	 *             is frozen
+	 */
+	public ProgramBuilder add(Program fragment) {
+		if (frozen)
+			throw new IllegalStateException("This program is frozen, no more nodes can be added");
+		program.include(fragment);
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return program.nodeCount() == 0 && program.strings.isEmpty();
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	/**
+	 * swap the program for its frozen copy, which loads pending nodes when they
+	 * are first asked for. Nothing can be added afterwards until the builder is
+	 * cleared.
+	 *
+	 * @return the frozen program
+	 */
+	public Program freeze() {
+		if (!frozen) {
+			program = program.freeze();
+			frozen = true;
+		}
+		return program;
+	}
+
+	/**
+	 * start again with an empty program
+	 */
+	public void clear() {
+		program = new Program();
+		frozen = false;
+	}
+
+}
@@ -0,0 +1,324 @@
+package com.kyper.yarn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.kyper.yarn.Dialogue.YarnRuntimeException;
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+import com.kyper.yarn.Program.LineInfo;
+
+/**
+ * reads programs written by {@link ProgramWriter}. The checksum and version are
+ * checked before anything is decoded. {@link #map(File)} maps a file into
+ * memory and leaves each node to be decoded the first time it is entered.
+ */
+public class ProgramReader {
+
+	private static final ByteCode[] OPERATIONS = ByteCode.values();
+
+	private String[] pool;
+
+	/**
+	 * read a program from in. in is read to the end but not closed
+	 */
+	public Program read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			bytes.write(buffer, 0, read);
+		}
+		return read(bytes.toByteArray());
+	}
+
+	public Program read(byte[] bytes) throws IOException {
+		return read(ByteBuffer.wrap(bytes));
+	}
+
+	/**
+	 * read a program from the remaining bytes of buffer
+	 */
+	public Program read(ByteBuffer buffer) throws IOException {
+		return decode(buffer.slice(), true, false);
+	}
+
+	/**
+	 * map a compiled program file into memory. the string table is read straight
+	 * away but each node is only decoded the first time it is asked for, so large
+	 * bundles can be opened without decoding nodes that are never visited.
+	 */
+	public Program map(File file) throws IOException {
+		return map(file, true);
+	}
+
+	/**
+	 * @param verify_checksum
+	 *            whether to check the checksum first, which reads the whole file
+	 */
+	public Program map(File file, boolean verify_checksum) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(buffer, verify_checksum, true);
+		} finally {
+			in.close();
+		}
+	}
+
+	private Program decode(ByteBuffer data, boolean verify_checksum, boolean lazy) throws IOException {
+		try {
+			readHeader(data, verify_checksum);
+
+			int node_count = readVarInt(data);
+			LinkedHashMap<String, Integer> index = new LinkedHashMap<String, Integer>(node_count * 2);
+			for (int i = 0; i < node_count; i++) {
+				String name = readUtf(data, readVarInt(data));
+				index.put(name, data.getInt());
+			}
+
+			pool = new String[readVarInt(data)];
+			for (int i = 0; i < pool.length; i++) {
+				pool[i] = readUtf(data, readVarInt(data));
+			}
+
+			Program program = new Program();
+
+			int string_count = readVarInt(data);
+			for (int i = 0; i < string_count; i++) {
+				program.strings.put(readReference(data), readReference(data));
+			}
+
+			int line_count = readVarInt(data);
+			for (int i = 0; i < line_count; i++) {
+				String key = readReference(data);
+				String node_name = readReference(data);
+				program.line_info.put(key, new LineInfo(node_name, readVarInt(data)));
+			}
+
+			if (lazy) {
+				ByteBuffer records = data.slice();
+				records.limit(records.limit() - 4);
+				program.addNodeSource(new MappedNodes(pool, records, index));
+				return program;
+			}
+
+			for (int i = 0; i < node_count; i++) {
+				Program.Node node = readNode(data);
+				node.buildConstants();
+				node.buildCallSites();
+				node.buildVariableSites();
+				program.nodes.put(node.name, node);
+			}
+
+			if (data.remaining() != 4)
+				throw new IOException("Unexpected data at the end of compiled yarn program");
+
+			return program;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Compiled yarn program is truncated", e);
+		} finally {
+			pool = null;
+		}
+	}
+
+	/**
+	 * check the magic, version and checksum of the program in data and leave data
+	 * positioned after the version
+	 */
+	protected static void readHeader(ByteBuffer data, boolean verify_checksum) throws IOException {
+		int length = data.remaining();
+		if (length < ProgramWriter.MAGIC.length + 8)
+			throw new IOException("Not a compiled yarn program");
+
+		for (byte b : ProgramWriter.MAGIC) {
+			if (data.get() != b)
+				throw new IOException("Not a compiled yarn program");
+		}
+
+		int version = data.getInt();
+		if (version != ProgramWriter.VERSION)
+			throw new IOException(StringUtils.format("Unsupported compiled yarn version %1$s (expected %2$s)", version,
+					ProgramWriter.VERSION));
+
+		if (!verify_checksum)
+			return;
+
+		CRC32 crc = new CRC32();
+		ByteBuffer checked = data.duplicate();
+		checked.position(0);
+		checked.limit(length - 4);
+		if (checked.hasArray()) {
+			crc.update(checked.array(), checked.arrayOffset(), checked.remaining());
+		} else {
+			byte[] chunk = new byte[8192];
+			while (checked.hasRemaining()) {
+				int n = Math.min(chunk.length, checked.remaining());
+				checked.get(chunk, 0, n);
+				crc.update(chunk, 0, n);
+			}
+		}
+
+		if ((int) crc.getValue() != data.getInt(length - 4))
+			throw new IOException("Compiled yarn program failed its checksum");
+	}
+
+	protected Program.Node readNode(ByteBuffer data) throws IOException {
+		Program.Node node = new Program.Node();
+		node.name = readReference(data);
+		node.source_string_id = readReference(data);
+
+		int tag_count = readVarInt(data);
+		node.tags = new ArrayList<String>(tag_count);
+		for (int i = 0; i < tag_count; i++) {
+			node.tags.add(readReference(data));
+		}
+
+		int label_count = readVarInt(data);
+		for (int i = 0; i < label_count; i++) {
+			String label = readReference(data);
+			node.labels.put(label, readVarInt(data));
+		}
+		node.compactLabels();
+
+		int instruction_count = readVarInt(data);
+		node.instructions.ensureCapacity(instruction_count);
+		for (int i = 0; i < instruction_count; i++) {
+			int operation = data.get() & 0xFF;
+			if (operation >= OPERATIONS.length)
+				throw new IOException("Unknown instruction " + operation + " in node " + node.name);
+			Object operand_a = readOperand(data);
+			Object operand_b = readOperand(data);
+			node.instructions.add(new Instruction(OPERATIONS[operation], operand_a, operand_b));
+		}
+
+		return node;
+	}
+
+	protected Object readOperand(ByteBuffer data) throws IOException {
+		byte type = data.get();
+		switch (type) {
+		case ProgramWriter.OPERAND_NULL:
+			return null;
+		case ProgramWriter.OPERAND_STRING:
+			return readReference(data);
+		case ProgramWriter.OPERAND_FLOAT:
+			return data.getFloat();
+		case ProgramWriter.OPERAND_INT:
+			return data.getInt();
+		case ProgramWriter.OPERAND_BOOL:
+			return data.get() != 0;
+		default:
+			throw new IOException("Unknown operand type " + type);
+		}
+	}
+
+	private String readReference(ByteBuffer data) throws IOException {
+		int reference = readVarInt(data);
+		if (reference == 0)
+			return null;
+		if (reference > pool.length)
+			throw new IOException("String reference out of range " + reference);
+		return pool[reference - 1];
+	}
+
+	protected static String readUtf(ByteBuffer data, int length) {
+		if (length > data.remaining())
+			throw new BufferUnderflowException();
+		if (data.hasArray()) {
+			String string = new String(data.array(), data.arrayOffset() + data.position(), length,
+					StandardCharsets.UTF_8);
+			data.position(data.position() + length);
+			return string;
+		}
+		byte[] utf = new byte[length];
+		data.get(utf);
+		return new String(utf, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * read a non negative int written 7 bits per byte
+	 */
+	protected static int readVarInt(ByteBuffer data) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = data.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint in compiled yarn program");
+	}
+
+	/**
+	 * node records left in a mapped buffer, decoded the first time each is asked
+	 * for
+	 */
+	private static class MappedNodes implements Program.NodeSource {
+		private final ProgramReader reader = new ProgramReader();
+		private final ByteBuffer records;
+		private final Map<String, Integer> index;
+		private final HashMap<String, Program> decoded = new HashMap<String, Program>();
+
+		MappedNodes(String[] pool, ByteBuffer records, Map<String, Integer> index) {
+			reader.pool = pool;
+			this.records = records;
+			this.index = Collections.unmodifiableMap(index);
+		}
+
+		@Override
+		public Set<String> nodeNames() {
+			return index.keySet();
+		}
+
+		@Override
+		public synchronized Program loadNode(String name) {
+			Program loaded = decoded.get(name);
+			if (loaded != null)
+				return loaded;
+			Integer offset = index.get(name);
+			if (offset == null)
+				throw new YarnRuntimeException("No node named " + name);
+
+			Program.Node node;
+			ByteBuffer data = records.duplicate();
+			try {
+				data.position(offset);
+				node = reader.readNode(data);
+			} catch (IOException e) {
+				throw new YarnRuntimeException(StringUtils.format("Could not decode node %s: %s", name, e.getMessage()));
+			} catch (RuntimeException e) {
+				throw new YarnRuntimeException(StringUtils.format("Could not decode node %s: %s", name, e.toString()));
+			}
+			if (!name.equals(node.name))
+				throw new YarnRuntimeException(StringUtils.format("Node index points %s at %s", name, node.name));
+			node.buildConstants();
+			node.buildCallSites();
+			node.buildVariableSites();
+
+			//the string table was read with the rest of the program
+			loaded = new Program();
+			loaded.nodes.put(name, node);
+			decoded.put(name, loaded);
+			return loaded;
+		}
+	}
+
+}
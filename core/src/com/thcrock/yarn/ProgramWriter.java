@@ -0,0 +1,227 @@
+package com.kyper.yarn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.kyper.yarn.Program.Instruction;
+import com.kyper.yarn.Program.LineInfo;
+
+/**
+ * writes a compiled {@link Program} in the binary format read by
+ * {@link ProgramReader}, so dialogue can be shipped precompiled and loaded
+ * without lexing, parsing or compiling it again.
+ *
+ * <pre>
+ * magic            "YARN"
+ * version          int
+ * node index       varint count, then for each node
+ *                      name                        varint length + utf-8 bytes
+ *                      offset                      int, from the start of the node records
+ * string pool      varint count, then varint length + utf-8 bytes for each string
+ * string table     varint count, then (key, value) pool references
+ * line info        varint count, then (key, node name) pool references and a varint line number
+ * node records     one for each entry in the node index
+ *                      name, source string id      pool references
+ *                      tags                        varint count, pool references
+ *                      labels                      varint count, (name reference, varint index)
+ *                      instructions                varint count, (opcode byte, operand a, operand b)
+ * checksum         int, crc32 of everything before it
+ * </pre>
+ *
+ * the node index sits in the header so {@link ProgramReader#map(java.io.File)}
+ * can find a node without decoding the ones before it.
+ * pool references are written as the index + 1 so that 0 can stand for null.
+ * operands start with one of the OPERAND_ type bytes followed by their value.
+ */
+public class ProgramWriter {
+
+	public static final byte[] MAGIC = { 'Y', 'A', 'R', 'N' };
+
+	// bump this whenever the layout, Program.ByteCode or the code the compiler
+	// emits changes, compile caches are keyed on it
+	public static final int VERSION = 5;
+
+	public static final byte OPERAND_NULL = 0;
+	public static final byte OPERAND_STRING = 1;
+	public static final byte OPERAND_FLOAT = 2;
+	public static final byte OPERAND_INT = 3;
+	public static final byte OPERAND_BOOL = 4;
+
+	private LinkedHashMap<String, Integer> pool = new LinkedHashMap<String, Integer>();
+
+	/**
+	 * write program to out. out is not closed
+	 */
+	public void write(Program program, OutputStream out) throws IOException {
+		out.write(write(program));
+	}
+
+	/**
+	 * @return the program in the binary format
+	 */
+	public byte[] write(Program program) throws IOException {
+		Map<String, Program.Node> nodes = program.getNodes();
+
+		pool.clear();
+		collectStrings(program);
+
+		// node records go first into their own buffer so the index knows their offsets
+		ByteArrayOutputStream node_bytes = new ByteArrayOutputStream();
+		DataOutputStream node_data = new DataOutputStream(node_bytes);
+		int[] offsets = new int[nodes.size()];
+		int n = 0;
+		for (Program.Node node : nodes.values()) {
+			offsets[n++] = node_data.size();
+			writeNode(node_data, node);
+		}
+		node_data.flush();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+
+		data.write(MAGIC);
+		data.writeInt(VERSION);
+
+		writeVarInt(data, nodes.size());
+		n = 0;
+		for (String name : nodes.keySet()) {
+			byte[] utf = name.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(data, utf.length);
+			data.write(utf);
+			data.writeInt(offsets[n++]);
+		}
+
+		writeVarInt(data, pool.size());
+		for (String string : pool.keySet()) {
+			byte[] utf = string.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(data, utf.length);
+			data.write(utf);
+		}
+
+		writeVarInt(data, program.strings.size());
+		for (Map.Entry<String, String> entry : program.strings.entrySet()) {
+			writeReference(data, entry.getKey());
+			writeReference(data, entry.getValue());
+		}
+
+		writeVarInt(data, program.line_info.size());
+		for (Map.Entry<String, LineInfo> entry : program.line_info.entrySet()) {
+			writeReference(data, entry.getKey());
+			writeReference(data, entry.getValue().node_name);
+			writeVarInt(data, entry.getValue().line_number);
+		}
+
+		node_bytes.writeTo(data);
+		data.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		data.writeInt((int) crc.getValue());
+		data.flush();
+
+		return bytes.toByteArray();
+	}
+
+	protected void writeNode(DataOutputStream data, Program.Node node) throws IOException {
+		writeReference(data, node.name);
+		writeReference(data, node.source_string_id);
+
+		ArrayList<String> tags = node.tags;
+		writeVarInt(data, tags == null ? 0 : tags.size());
+		if (tags != null) {
+			for (String tag : tags) {
+				writeReference(data, tag);
+			}
+		}
+
+		writeVarInt(data, node.labelCount());
+		for (int i = 0; i < node.labelCount(); i++) {
+			writeReference(data, node.labelName(i));
+			writeVarInt(data, node.labelTarget(i));
+		}
+
+		writeVarInt(data, node.instructions.size());
+		for (Instruction instruction : node.instructions) {
+			data.writeByte(instruction.getOperation().ordinal());
+			writeOperand(data, instruction.operandA());
+			writeOperand(data, instruction.operandB());
+		}
+	}
+
+	protected void writeOperand(DataOutputStream data, Object operand) throws IOException {
+		if (operand == null) {
+			data.writeByte(OPERAND_NULL);
+		} else if (operand instanceof String) {
+			data.writeByte(OPERAND_STRING);
+			writeReference(data, (String) operand);
+		} else if (operand instanceof Float) {
+			data.writeByte(OPERAND_FLOAT);
+			data.writeFloat((Float) operand);
+		} else if (operand instanceof Integer) {
+			data.writeByte(OPERAND_INT);
+			data.writeInt((Integer) operand);
+		} else if (operand instanceof Boolean) {
+			data.writeByte(OPERAND_BOOL);
+			data.writeBoolean((Boolean) operand);
+		} else {
+			throw new IOException("Cannot write operand of type " + operand.getClass().getSimpleName());
+		}
+	}
+
+	private void collectStrings(Program program) {
+		for (Map.Entry<String, String> entry : program.strings.entrySet()) {
+			poolString(entry.getKey());
+			poolString(entry.getValue());
+		}
+		for (Map.Entry<String, LineInfo> entry : program.line_info.entrySet()) {
+			poolString(entry.getKey());
+			poolString(entry.getValue().node_name);
+		}
+		for (Program.Node node : program.getNodes().values()) {
+			poolString(node.name);
+			poolString(node.source_string_id);
+			if (node.tags != null) {
+				for (String tag : node.tags) {
+					poolString(tag);
+				}
+			}
+			for (int i = 0; i < node.labelCount(); i++) {
+				poolString(node.labelName(i));
+			}
+			for (Instruction instruction : node.instructions) {
+				if (instruction.operandA() instanceof String)
+					poolString((String) instruction.operandA());
+				if (instruction.operandB() instanceof String)
+					poolString((String) instruction.operandB());
+			}
+		}
+	}
+
+	private void poolString(String string) {
+		if (string != null && !pool.containsKey(string))
+			pool.put(string, pool.size());
+	}
+
+	private void writeReference(DataOutputStream data, String string) throws IOException {
+		writeVarInt(data, string == null ? 0 : pool.get(string) + 1);
+	}
+
+	/**
+	 * write a non negative int using 7 bits per byte
+	 */
+	protected static void writeVarInt(DataOutputStream data, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			data.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data.writeByte(value);
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.kyper.yarn;
+
+/**
+ * a view of a range of some other text. Nothing is copied until something asks
+ * for the slice as a string, so a loader can hand out node bodies as ranges of
+ * the file it read.
+ */
+public class TextSlice implements CharSequence {
+
+	private CharSequence source;
+	private int start;
+	private int end;
+
+	public TextSlice(CharSequence source, int start, int end) {
+		set(source, start, end);
+	}
+
+	/**
+	 * point this slice at source[start, end). Only used by code that reuses one
+	 * slice for many ranges, slices that have been handed out are never moved.
+	 */
+	protected void set(CharSequence source, int start, int end) {
+		if (start < 0 || end < start || end > source.length())
+			throw new IndexOutOfBoundsException(
+					StringUtils.format("slice [%1$s, %2$s) of text with length %3$s", start, end, source.length()));
+		this.source = source;
+		this.start = start;
+		this.end = end;
+	}
+
+	public CharSequence getSource() {
+		return source;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= end - start)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		return source.charAt(start + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new TextSlice(source, this.start + start, this.start + end);
+	}
+
+	@Override
+	public String toString() {
+		return source.subSequence(start, end).toString();
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.kyper.yarn;
+
+import java.util.Arrays;
+
+import com.kyper.yarn.Lexer.Token;
+import com.kyper.yarn.Lexer.TokenType;
+
+/**
+ * the tokens of a node, stored as parallel arrays instead of one object per
+ * token. Token text is kept as a range of the text the {@link Lexer} read and
+ * is only turned into a string when something asks for a token's value.
+ * <p>
+ * offsets below the length of the source point into the source itself,
+ * offsets past it point into {@link #text}, which only holds the lines that had
+ * to be rewritten because they contained tabs or \r's.
+ */
+public class TokenBuffer {
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	//no text, used by dedents and the end of input
+	private static final int NO_TEXT = -1;
+
+	private final LexerGrammar grammar;
+
+	//the text that was tokenised
+	private CharSequence source = "";
+
+	//lines of the source with their tabs expanded and \r's stripped
+	protected final StringBuilder text = new StringBuilder();
+
+	private int size;
+	private int[] types;
+	private int[] starts;
+	private int[] ends;
+	private int[] lines;
+	private int[] columns;
+	private int[] states;
+	private boolean[] delimits_text;
+
+	//values that have been sliced out of text so far
+	private String[] values;
+
+	public TokenBuffer(LexerGrammar grammar) {
+		this(grammar, 64);
+	}
+
+	public TokenBuffer(LexerGrammar grammar, int capacity) {
+		this.grammar = grammar;
+		capacity = Math.max(capacity, 1);
+		types = new int[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		lines = new int[capacity];
+		columns = new int[capacity];
+		states = new int[capacity];
+		delimits_text = new boolean[capacity];
+		values = new String[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public TokenType type(int index) {
+		return TYPES[types[index]];
+	}
+
+	public int line(int index) {
+		return lines[index];
+	}
+
+	public int column(int index) {
+		return columns[index];
+	}
+
+	public String lexerState(int index) {
+		return grammar.getState(states[index]).name;
+	}
+
+	public boolean delimitsText(int index) {
+		return delimits_text[index];
+	}
+
+	/**
+	 * the length of the token's text, or 0 if it has none
+	 */
+	public int length(int index) {
+		return starts[index] == NO_TEXT ? 0 : ends[index] - starts[index];
+	}
+
+	/**
+	 * the token's value, sliced from the text the first time it is asked for
+	 */
+	public String value(int index) {
+		String value = values[index];
+		if (value != null || starts[index] == NO_TEXT)
+			return value;
+
+		switch (type(index)) {
+		case Indent:
+			value = Lexer.indentString(ends[index] - starts[index]);
+			break;
+		case Str:
+			//lop off the quotes at the start and end
+			//and un-escape the quotes and slashes
+			value = slice(starts[index] + 1, ends[index] - 1);
+			value = value.replaceAll("\\\\", "\\");
+			value = value.replaceAll("\\\"", "\"");
+			break;
+		default:
+			value = slice(starts[index], ends[index]);
+			break;
+		}
+
+		values[index] = value;
+		return value;
+	}
+
+	private String slice(int start, int end) {
+		int source_length = source.length();
+		if (start >= source_length)
+			return text.substring(start - source_length, end - source_length);
+		return source.subSequence(start, end).toString();
+	}
+
+	/**
+	 * the text the token offsets point into
+	 */
+	public CharSequence getSource() {
+		return source;
+	}
+
+	protected void setSource(CharSequence source) {
+		this.source = source;
+	}
+
+	/**
+	 * where text[index] sits in the offsets tokens are added with
+	 */
+	protected int textOffset(int index) {
+		return source.length() + index;
+	}
+
+	/**
+	 * a token object for the token at index, for code that wants to hold on to
+	 * one
+	 */
+	public Token token(int index) {
+		return new Token(this, index);
+	}
+
+	/**
+	 * add a token whose text is the range [start, end)
+	 */
+	protected void add(TokenType type, int start, int end, int line, int column, int state,
+			boolean delimits_text) {
+		if (size == types.length)
+			grow();
+		types[size] = type.ordinal();
+		starts[size] = start;
+		ends[size] = end;
+		lines[size] = line;
+		columns[size] = column;
+		states[size] = state;
+		this.delimits_text[size] = delimits_text;
+		values[size] = null;
+		size++;
+	}
+
+	/**
+	 * add a token with no text
+	 */
+	protected void add(TokenType type, int line, int column, int state) {
+		add(type, NO_TEXT, NO_TEXT, line, column, state, false);
+	}
+
+	protected void removeLast() {
+		size--;
+	}
+
+	/**
+	 * forget every token and all of the text
+	 */
+	public void clear() {
+		size = 0;
+		source = "";
+		text.setLength(0);
+		Arrays.fill(values, null);
+	}
+
+	private void grow() {
+		int capacity = types.length * 2;
+		types = Arrays.copyOf(types, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		ends = Arrays.copyOf(ends, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		columns = Arrays.copyOf(columns, capacity);
+		states = Arrays.copyOf(states, capacity);
+		delimits_text = Arrays.copyOf(delimits_text, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+}
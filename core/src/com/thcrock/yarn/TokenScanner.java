@@ -0,0 +1,278 @@
+package com.kyper.yarn;
+
+import com.kyper.yarn.Lexer.TokenType;
+
+/**
+ * hand written matchers for every pattern the {@link Lexer} knows about.
+ * each matcher works in place on the line and mirrors the regex that
+ * Lexer.createStates() registers for the same {@link TokenType}, so both
+ * lexer modes produce the same tokens.
+ */
+public class TokenScanner {
+
+	/** returned when a pattern does not match at the given offset */
+	public static final int NO_MATCH = -1;
+
+	private TokenScanner() {
+	}
+
+	/**
+	 * match the pattern for type at offset
+	 *
+	 * @return the length of the match or {@link #NO_MATCH}
+	 */
+	public static int match(TokenType type, CharSequence line, int offset) {
+		switch (type) {
+		case Number:
+			return matchNumber(line, offset);
+		case Str:
+			return matchString(line, offset);
+		case TagMarker:
+			return matchLiteral(line, offset, "#");
+		case LeftParen:
+			return matchLiteral(line, offset, "(");
+		case RightParen:
+			return matchLiteral(line, offset, ")");
+		case EqualTo:
+			return matchFirst(line, offset, "==", null, "is", "eq");
+		case EqualToOrAssign:
+			return matchFirst(line, offset, "=", null, "to");
+		case NotEqualTo:
+			return matchFirst(line, offset, "!=", null, "neq");
+		case GreaterThanOrEqualTo:
+			return matchFirst(line, offset, ">=", null, "gte");
+		case GreaterThan:
+			return matchFirst(line, offset, ">", null, "gt");
+		case LessThanOrEqualTo:
+			return matchFirst(line, offset, "<=", null, "lte");
+		case LessThan:
+			return matchFirst(line, offset, "<", null, "lt");
+		case AddAssign:
+			return matchLiteral(line, offset, "+=");
+		case MinusAssign:
+			return matchLiteral(line, offset, "-=");
+		case MultiplyAssign:
+			return matchLiteral(line, offset, "*=");
+		case DivideAssign:
+			return matchLiteral(line, offset, "/=");
+		case Add:
+			return matchLiteral(line, offset, "+");
+		case Minus:
+			return matchLiteral(line, offset, "-");
+		case Multiply:
+			return matchLiteral(line, offset, "*");
+		case Divide:
+			return matchLiteral(line, offset, "/");
+		case Modulo:
+			return matchLiteral(line, offset, "%");
+		case And:
+			return matchFirst(line, offset, "&&", null, "and");
+		case Or:
+			return matchFirst(line, offset, "||", null, "or");
+		case Xor:
+			return matchFirst(line, offset, "^", null, "xor");
+		case Not:
+			return matchFirst(line, offset, "!", null, "not");
+		case Variable:
+			return matchVariable(line, offset);
+		case Comma:
+			return matchLiteral(line, offset, ",");
+		case True:
+			return matchKeyword(line, offset, "true");
+		case False:
+			return matchKeyword(line, offset, "false");
+		case Null:
+			return matchKeyword(line, offset, "null");
+		case BeginCommand:
+			return matchLiteral(line, offset, "<<");
+		case EndCommand:
+			return matchLiteral(line, offset, ">>");
+		case OptionStart:
+			return matchLiteral(line, offset, "[[");
+		case OptionEnd:
+			return matchLiteral(line, offset, "]]");
+		case OptionDelimit:
+			return matchLiteral(line, offset, "|");
+		case Identifier:
+			return matchIdentifier(line, offset);
+		case If:
+			return matchKeyword(line, offset, "if");
+		case Else:
+			return matchKeyword(line, offset, "else");
+		case ElseIf:
+			return matchKeyword(line, offset, "elseif");
+		case EndIf:
+			return matchKeyword(line, offset, "endif");
+		case Set:
+			return matchKeyword(line, offset, "set");
+		case ShortcutOption:
+			return matchShortcutOption(line, offset);
+		case Text:
+			return matchText(line, offset, null);
+		default:
+			throw new IllegalArgumentException("No scanner for token type " + type.name());
+		}
+	}
+
+	/**
+	 * matches a run of text up to but not including the first place any of the
+	 * delimiters match; the equivalent of \G((?!d1|d2|...).)*
+	 *
+	 * @return the length of the match, this is never {@link #NO_MATCH}
+	 */
+	public static int matchText(CharSequence line, int offset, TokenType[] delimiters) {
+		int i = offset;
+		int length = line.length();
+		scan: while (i < length && !isLineTerminator(line.charAt(i))) {
+			if (delimiters != null) {
+				for (TokenType delimiter : delimiters) {
+					if (match(delimiter, line, i) != NO_MATCH)
+						break scan;
+				}
+			}
+			i++;
+		}
+		return i - offset;
+	}
+
+	/** the number of whitespace characters starting at offset; the equivalent of \G\s* */
+	public static int matchWhitespace(CharSequence line, int offset) {
+		int i = offset;
+		int length = line.length();
+		while (i < length && isWhitespace(line.charAt(i)))
+			i++;
+		return i - offset;
+	}
+
+	// -?[0-9]+(\.[0-9+])?
+	private static int matchNumber(CharSequence line, int offset) {
+		int i = offset;
+		int length = line.length();
+		if (i < length && line.charAt(i) == '-')
+			i++;
+		int digits_start = i;
+		while (i < length && isDigit(line.charAt(i)))
+			i++;
+		if (i == digits_start)
+			return NO_MATCH;
+		if (i + 1 < length && line.charAt(i) == '.') {
+			char c = line.charAt(i + 1);
+			if (isDigit(c) || c == '+')
+				i += 2;
+		}
+		return i - offset;
+	}
+
+	// "([^""\\]*(?:\.[^""\\]*)*)" - the dot is a literal dot so this collapses
+	// to a quote, anything but quotes and back slashes, and a closing quote
+	private static int matchString(CharSequence line, int offset) {
+		int length = line.length();
+		if (offset >= length || line.charAt(offset) != '"')
+			return NO_MATCH;
+		for (int i = offset + 1; i < length; i++) {
+			char c = line.charAt(i);
+			if (c == '"')
+				return i + 1 - offset;
+			if (c == '\\')
+				return NO_MATCH;
+		}
+		return NO_MATCH;
+	}
+
+	// \$([A-Za-z0-9_.])+
+	private static int matchVariable(CharSequence line, int offset) {
+		int length = line.length();
+		if (offset >= length || line.charAt(offset) != '$')
+			return NO_MATCH;
+		int i = offset + 1;
+		while (i < length && isVariableChar(line.charAt(i)))
+			i++;
+		return i == offset + 1 ? NO_MATCH : i - offset;
+	}
+
+	// [a-zA-Z0-9_:.]+
+	private static int matchIdentifier(CharSequence line, int offset) {
+		int i = offset;
+		int length = line.length();
+		while (i < length && isIdentifierChar(line.charAt(i)))
+			i++;
+		return i == offset ? NO_MATCH : i - offset;
+	}
+
+	// ->\s*
+	private static int matchShortcutOption(CharSequence line, int offset) {
+		if (matchLiteral(line, offset, "->") == NO_MATCH)
+			return NO_MATCH;
+		return 2 + matchWhitespace(line, offset + 2);
+	}
+
+	/**
+	 * tries each symbol as a plain literal and each word as a keyword, in the
+	 * order the alternation lists them. symbols and words are separated by a
+	 * null entry.
+	 */
+	private static int matchFirst(CharSequence line, int offset, String... alternatives) {
+		boolean words = false;
+		for (String alternative : alternatives) {
+			if (alternative == null) {
+				words = true;
+				continue;
+			}
+			int length = words ? matchKeyword(line, offset, alternative) : matchLiteral(line, offset, alternative);
+			if (length != NO_MATCH)
+				return length;
+		}
+		return NO_MATCH;
+	}
+
+	// word(?!\w)
+	private static int matchKeyword(CharSequence line, int offset, String word) {
+		if (matchLiteral(line, offset, word) == NO_MATCH)
+			return NO_MATCH;
+		int end = offset + word.length();
+		if (end < line.length() && isWordChar(line.charAt(end)))
+			return NO_MATCH;
+		return word.length();
+	}
+
+	private static int matchLiteral(CharSequence line, int offset, String literal) {
+		int length = literal.length();
+		if (offset + length > line.length())
+			return NO_MATCH;
+		for (int i = 0; i < length; i++) {
+			if (line.charAt(offset + i) != literal.charAt(i))
+				return NO_MATCH;
+		}
+		return length;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAsciiLetterOrDigit(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c);
+	}
+
+	private static boolean isVariableChar(char c) {
+		return isAsciiLetterOrDigit(c) || c == '_' || c == '.';
+	}
+
+	private static boolean isIdentifierChar(char c) {
+		return isAsciiLetterOrDigit(c) || c == '_' || c == ':' || c == '.';
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+
+	public static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// characters that '.' refuses to match
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+}
@@ -2,16 +2,33 @@ package com.kyper.yarn;
 
 import com.kyper.yarn.Dialogue.YarnRuntimeException;
 
-/** values to be used by yarn */
-public class Value implements Comparable<Value> {
-
-	public static final Value NULL = new Value();
-
-	private Type type;
-	private float number_value;
-	private String variable_name;
-	private String string_value;
-	private boolean bool_value;
+/**
+ * values to be used by yarn. Values never change once made, so the factories
+ * hand out shared instances for true, false, null and small whole numbers
+ * instead of making new ones.
+ */
+public final class Value implements Comparable<Value> {
+
+	public static final Value NULL = new Value(Type.NULL, 0f, null, false, null);
+	public static final Value TRUE = new Value(Type.BOOL, 0f, null, true, null);
+	public static final Value FALSE = new Value(Type.BOOL, 0f, null, false, null);
+
+	// whole numbers in this range are shared
+	private static final int SMALL_MIN = -128;
+	private static final int SMALL_MAX = 1024;
+	private static final Value[] SMALL_NUMBERS = new Value[SMALL_MAX - SMALL_MIN + 1];
+	static {
+		for (int i = 0; i < SMALL_NUMBERS.length; i++)
+			SMALL_NUMBERS[i] = new Value(Type.NUMBER, i + SMALL_MIN, null, false, null);
+	}
+
+	private static final int NEGATIVE_ZERO = Float.floatToRawIntBits(-0f);
+
+	private final Type type;
+	private final float number_value;
+	private final String variable_name;
+	private final String string_value;
+	private final boolean bool_value;
 
 	private static final String NULL_STRING = "null";
 	private static final String FALSE_STRING = "false";
@@ -21,121 +38,120 @@ public class Value implements Comparable<Value> {
 	public static Value defaultValue(Type type) {
 	   switch(type) {
 		   case BOOL:
-			   return new Value(false);
+			   return FALSE;
 		   case NULL:
-			   return new Value();
+			   return NULL;
 		   case NUMBER:
-			   return new Value(0);
+			   return of(0f);
 		   case STRING:
-			   return new Value("");
-		   case VARNAME: {
-			   Value value = new Value();
-			   value.setType(Type.VARNAME);
-			   value.setVarName(null);
-			   return value;
-		   }
+			   return of("");
+		   case VARNAME:
+			   return varName(null);
 		   default:
 		   	System.err.println("Value.defaultValue: Unrecognized type: " + type);
 		   	return null;
 	   }
 	}
 
-	public Value() {
-		this(null);
+	public static Value of(float number) {
+		int whole = (int) number;
+		if (whole == number && whole >= SMALL_MIN && whole <= SMALL_MAX
+				&& Float.floatToRawIntBits(number) != NEGATIVE_ZERO)
+			return SMALL_NUMBERS[whole - SMALL_MIN];
+		return new Value(Type.NUMBER, number, null, false, null);
 	}
 
-	public Value(Object value) {
-		//coppy existing value
-		if (value instanceof Value) {
-			Value other_value = (Value) value;
-			this.type = other_value.type;
-			switch (type) {
-			case NUMBER:
-				setNumberValue(other_value.getNumberValue());
-				break;
-			case STRING:
-				setStringValue(other_value.getStringValue());
-				break;
-			case BOOL:
-				setBoolValue(other_value.getBoolValue());
-				break;
-			case VARNAME:
-				setVarName(other_value.getVarName());
-				break;
-			case NULL:
-				break;
-			default:
-				throw new IllegalStateException("ArgumentOutOfBounds");
-			}
-			return;
-		}
-		if (value == null) {
-			type = Type.NULL;
-			return;
-		}
+	public static Value of(boolean bool) {
+		return bool ? TRUE : FALSE;
+	}
 
-		if (value instanceof String) {
-			type = Type.STRING;
-			setStringValue(value.toString());
-			return;
-		}
+	/**
+	 * @return a string value, or {@link #NULL} for a null string
+	 */
+	public static Value of(String string) {
+		if (string == null)
+			return NULL;
+		return new Value(Type.STRING, 0f, string, false, null);
+	}
 
-		if (value instanceof Integer || value instanceof Float || value instanceof Double) {
-			type = Type.NUMBER;
-			setNumberValue(Float.parseFloat(value.toString()));
-			return;
-		}
-		if (value instanceof Boolean) {
-			type = Type.BOOL;
-			setBoolValue((Boolean) value);
-			return;
-		}
+	/**
+	 * the value of a number, string, bool or null. A value is returned as it is.
+	 *
+	 * @throws YarnRuntimeException
+	 *             for any other type
+	 */
+	public static Value of(Object value) {
+		if (value instanceof Value)
+			return (Value) value;
+		if (value == null)
+			return NULL;
+		if (value instanceof String)
+			return of((String) value);
+		if (value instanceof Integer || value instanceof Float || value instanceof Double)
+			return of(((Number) value).floatValue());
+		if (value instanceof Boolean)
+			return of(((Boolean) value).booleanValue());
 
 		String error = StringUtils.format("Attempted to create a Value using a %s; currently, "
 				+ "Values can only be numbers, strings, bools or null.", value.getClass().getSimpleName());
 		throw new YarnRuntimeException(error);
 	}
 
-	public Type getType() {
-		return type;
+	/**
+	 * the name of a variable, expanded when the program runs
+	 */
+	public static Value varName(String variable_name) {
+		return new Value(Type.VARNAME, 0f, null, false, variable_name);
 	}
 
-	protected void setType(Type type) {
-		this.type = type;
+	/**
+	 * @deprecated use {@link #NULL}
+	 */
+	@Deprecated
+	public Value() {
+		this(Type.NULL, 0f, null, false, null);
 	}
 
-	public float getNumberValue() {
-		return number_value;
+	/**
+	 * @deprecated use {@link #of(Object)}, which shares common values
+	 */
+	@Deprecated
+	public Value(Object value) {
+		this(of(value));
+	}
+
+	private Value(Value other) {
+		this(other.type, other.number_value, other.string_value, other.bool_value, other.variable_name);
 	}
 
-	private void setNumberValue(float number_value) {
+	private Value(Type type, float number_value, String string_value, boolean bool_value, String variable_name) {
+		this.type = type;
 		this.number_value = number_value;
+		this.string_value = string_value;
+		this.bool_value = bool_value;
+		this.variable_name = variable_name;
 	}
 
-	public String getVarName() {
-		return variable_name;
+	public Type getType() {
+		return type;
 	}
 
-	public void setVarName(String variable_name) {
-		this.variable_name = variable_name;
+	public float getNumberValue() {
+		return number_value;
 	}
 
-	public String getStringValue() {
-		return string_value;
+	public String getVarName() {
+		return variable_name;
 	}
 
-	private void setStringValue(String string_value) {
-		this.string_value = string_value;
+	public String getStringValue() {
+		return string_value;
 	}
 
 	public boolean getBoolValue() {
 		return bool_value;
 	}
 
-	private void setBoolValue(boolean bool_value) {
-		this.bool_value = bool_value;
-	}
-
 	public boolean asBool() {
 		switch (type) {
 		case NUMBER:
@@ -288,7 +304,7 @@ public class Value implements Comparable<Value> {
 		// null + string
 		if (a.type == Type.STRING || b.type == Type.STRING) {
 			// we're headed for string town!
-			return new Value(a.asString() + b.asString());
+			return of(a.asString() + b.asString());
 		}
 
 		// catches:
@@ -299,7 +315,7 @@ public class Value implements Comparable<Value> {
 		// null (=> 0) + null (=> 0)
 		if ((a.type == Type.NUMBER || b.type == Type.NUMBER) || (a.type == Type.BOOL && b.type == Type.BOOL)
 				|| (a.type == Type.NULL && b.type == Type.NULL)) {
-			return new Value(a.asNumber() + b.asNumber());
+			return of(a.asNumber() + b.asNumber());
 		}
 
 		throw new IllegalArgumentException(StringUtils.format("Cannot add types %s and %s.", a.type, b.type));
@@ -315,7 +331,7 @@ public class Value implements Comparable<Value> {
 		Value a = this, b = o;
 		if (a.type == Type.NUMBER && (b.type == Type.NUMBER || b.type == Type.NULL)
 				|| b.type == Type.NUMBER && (a.type == Type.NUMBER || a.type == Type.NULL)) {
-			return new Value(a.asNumber() - b.asNumber());
+			return of(a.asNumber() - b.asNumber());
 		}
 
 		throw new IllegalArgumentException(StringUtils.format("Cannot subtract types %s and %s.", a.type, b.type));
@@ -331,7 +347,7 @@ public class Value implements Comparable<Value> {
 		Value a = this, b = o;
 		if (a.type == Type.NUMBER && (b.type == Type.NUMBER || b.type == Type.NULL)
 				|| b.type == Type.NUMBER && (a.type == Type.NUMBER || a.type == Type.NULL)) {
-			return new Value(a.asNumber() * b.asNumber());
+			return of(a.asNumber() * b.asNumber());
 		}
 
 		throw new IllegalArgumentException(StringUtils.format("Cannot multiply types %s and %s.", a.type, b.type));
@@ -347,7 +363,7 @@ public class Value implements Comparable<Value> {
 		Value a = this, b = o;
 		if (a.type == Type.NUMBER && (b.type == Type.NUMBER || b.type == Type.NULL)
 				|| b.type == Type.NUMBER && (a.type == Type.NUMBER || a.type == Type.NULL)) {
-			return new Value(a.asNumber() / b.asNumber());
+			return of(a.asNumber() / b.asNumber());
 		}
 
 		throw new IllegalArgumentException(StringUtils.format("Cannot divide types %s and %s.", a.type, b.type));
@@ -363,7 +379,7 @@ public class Value implements Comparable<Value> {
 		Value a = this, b = o;
 		if (a.type == Type.NUMBER && (b.type == Type.NUMBER || b.type == Type.NULL)
 				|| b.type == Type.NUMBER && (a.type == Type.NUMBER || a.type == Type.NULL)) {
-			return new Value(a.asNumber() % b.asNumber());
+			return of(a.asNumber() % b.asNumber());
 		}
 		throw new IllegalArgumentException(StringUtils.format("Cannot modulo types %s and %s.", a.type, b.type));
 	}
@@ -376,15 +392,15 @@ public class Value implements Comparable<Value> {
 	public Value negative() {
 		Value a = this;
 		if( a.type == Type.NUMBER ) {
-            return new Value( -a.getNumberValue() );
+            return of(-a.getNumberValue());
         }
         if (a.type == Type.NULL &&
             a.type == Type.STRING &&
            (a.asString() == null || a.asString().trim() == "")
         ) {
-            return new Value( -0 );
+            return of(-0);
         }
-        return new Value( Float.NaN );
+        return of(Float.NaN);
 	}
 
 	/**
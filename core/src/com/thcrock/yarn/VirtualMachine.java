@@ -1,20 +1,26 @@
 package com.kyper.yarn;
 
 import com.kyper.yarn.Dialogue.CommandResult;
+import com.kyper.yarn.Dialogue.IndexedVariableStorage;
 import com.kyper.yarn.Dialogue.LineResult;
 import com.kyper.yarn.Dialogue.NodeCompleteResult;
 import com.kyper.yarn.Dialogue.OptionChooser;
 import com.kyper.yarn.Dialogue.OptionResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Dialogue.VariableStorage;
+import com.kyper.yarn.Dialogue.YarnLogger;
+import com.kyper.yarn.Library.CallContext;
 import com.kyper.yarn.Library.FunctionInfo;
 import com.kyper.yarn.Program.Instruction;
 import com.kyper.yarn.Program.Node;
 
 import com.badlogic.gdx.Gdx;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 public class VirtualMachine {
 
@@ -44,17 +50,61 @@ public class VirtualMachine {
 	private CommandHandler command_handler;
 	private NodeCompleteHandler node_complte_handler;
 
-	private Dialogue dialogue;
-	private Program program;
+	private final Program program;
+	private final Library library;
+	private final VariableStorage continuity;
+	// continuity if it gives out slots, otherwise null and variables are used by name
+	private final IndexedVariableStorage variables;
+	private final int shuffle_options_slot;
+	private final YarnLogger debug_logger;
+	private final YarnLogger error_logger;
+	//the dialogue or session this machine runs for, passed to context functions
+	private final CallContext context;
 	private State state = new State();
 
 	private ExecutionState execution_state;
 
 	private Node current_node;
 
+	// the functions the current node calls, shared with every machine running
+	// it, null to look them up by name, see Node.linkFunctions
+	private FunctionInfo[] current_functions;
+	// the program's numbers for the current node's variables, null to use them
+	// by name, see Node.linkVariables
+	private int[] current_variables;
+	// this machine's storage slot + 1 for each of the program's variable
+	// numbers, 0 until the variable is first used
+	private int[] variable_slots;
+
+	//the result the last instruction reported, see runUntilSuspend
+	private RunnerResult suspend_result;
+
 	protected VirtualMachine(Dialogue d, Program p) {
-		this.dialogue = d;
-		this.program = p;
+		this(p, d.library, d.continuity, d.debug_logger, d.error_logger, d);
+	}
+
+	/**
+	 * a machine that only needs the parts of a dialogue it runs with, so many can
+	 * share one program and library, see {@link DialogueRuntime}
+	 *
+	 * @param context
+	 *            - what functions like visited answer for
+	 */
+	protected VirtualMachine(Program program, Library library, VariableStorage continuity, YarnLogger debug_logger,
+			YarnLogger error_logger, CallContext context) {
+		this.program = program;
+		this.library = library;
+		this.continuity = continuity;
+		if (continuity instanceof IndexedVariableStorage) {
+			variables = (IndexedVariableStorage) continuity;
+			shuffle_options_slot = variables.slotOf(SpecialVariables.ShuffleOptions);
+		} else {
+			variables = null;
+			shuffle_options_slot = -1;
+		}
+		this.debug_logger = debug_logger;
+		this.error_logger = error_logger;
+		this.context = context;
 		execution_state = ExecutionState.Running;
 	}
 
@@ -63,24 +113,41 @@ public class VirtualMachine {
 	 * node does not exist
 	 */
 	public boolean setNode(String name) {
-		if (!program.nodes.containsKey(name)) {
+		Node node = program.getNode(name);
+		if (node == null) {
 			String error = "no node named " + name;
-			dialogue.error_logger.log(error);
+			error_logger.log(error);
 			setExecutionState(ExecutionState.Stopped);
 			return false;
 		}
 
-		dialogue.debug_logger.log("Running node " + name);
+		debug_logger.log("Running node " + name);
 
 		// clear the special variables
-		dialogue.continuity.setValue(SpecialVariables.ShuffleOptions, new Value(false));
-
-		current_node = program.nodes.get(name);
+		if (variables != null)
+			variables.setValue(shuffle_options_slot, Value.FALSE);
+		else
+			continuity.setValue(SpecialVariables.ShuffleOptions, Value.FALSE);
+
+		current_node = node;
+		//a frozen program's library must not change, so its nodes keep their functions
+		current_functions = program.isFrozen() ? node.linkFunctions(library) : null;
+		current_variables = program.isFrozen() && variables != null ? node.linkVariables(program) : null;
 		resetState();
 		state.current_node_name = name;
 		return true;
 	}
 
+	/**
+	 * run from the named node again, even if the machine has stopped
+	 */
+	public boolean restart(String name) {
+		if (!setNode(name))
+			return false;
+		execution_state = ExecutionState.Running;
+		return true;
+	}
+
 	public Node getCurrentNode() {
 		return current_node;
 	}
@@ -104,7 +171,7 @@ public class VirtualMachine {
 	protected void runNext() {
 
 		if (execution_state == ExecutionState.WaitingOnOptionSelection) {
-			dialogue.error_logger.log("Cannot continue running dialogue. Still waiting on option selection.");
+			error_logger.log("Cannot continue running dialogue. Still waiting on option selection.");
 			//execution_state = ExecutionState.Stopped;
 			setExecutionState(ExecutionState.Stopped);
 
@@ -114,63 +181,107 @@ public class VirtualMachine {
 		if (execution_state == ExecutionState.Stopped)
 			setExecutionState(ExecutionState.Running);
 
+		step();
+	}
 
+	/**
+	 * run instructions until one of them reports a line, options, a command or
+	 * the end of a node, or the machine stops. The handlers are still called for
+	 * every result.
+	 *
+	 * @return the result that suspended the machine, or null if it stopped
+	 *         without one or was not running
+	 */
+	public RunnerResult runUntilSuspend() {
+		if (execution_state == ExecutionState.WaitingOnOptionSelection) {
+			error_logger.log("Cannot continue running dialogue. Still waiting on option selection.");
+			setExecutionState(ExecutionState.Stopped);
+			return null;
+		}
 
+		suspend_result = null;
+		while (execution_state == ExecutionState.Running && suspend_result == null) {
+			step();
+		}
 
+		RunnerResult result = suspend_result;
+		suspend_result = null;
+		return result;
+	}
+
+	private void step() {
 		Instruction current_instruction = current_node.instructions.get(state.program_counter);
 
+		//move on first so jumps and node changes can set the counter directly
+		state.program_counter++;
+
 		runInstruction(current_instruction);
 
 		//DEBUG instruction sets ---
-		//System.out.println(current_instruction.toString(program, dialogue.library));
+		//System.out.println(current_instruction.toString(program, library));
 
-		state.program_counter++;
-
-		if (state.program_counter >= current_node.instructions.size()) {
-			node_complte_handler.handle(new NodeCompleteResult(null));
+		//a stop command from a handler clears the node
+		if (current_node != null && state.program_counter >= current_node.instructions.size()) {
+			report(new NodeCompleteResult(null));
 			//execution_state = ExecutionState.Stopped;
 		    setExecutionState(ExecutionState.Stopped);
-			dialogue.debug_logger.log("Run complete");
-			return;
+			debug_logger.log("Run complete");
 		}
+	}
 
+	private void report(LineResult line) {
+		suspend_result = line;
+		line_handler.handle(line);
+	}
 
+	private void report(CommandResult command) {
+		suspend_result = command;
+		command_handler.handle(command);
+	}
 
+	private void report(OptionResult options) {
+		suspend_result = options;
+		option_handler.handle(options);
+	}
 
-
+	private void report(NodeCompleteResult complete) {
+		suspend_result = complete;
+		node_complte_handler.handle(complete);
 	}
 
 	/**
-	 * looks up the instruction number for a named label in the current node.
+	 * looks up the instruction number for a named label in the current node. only
+	 * the dynamic Jump needs this, the others are linked by the compiler.
 	 */
 	protected int findInstructionForLabel(String label) {
-		if (!current_node.labels.containsKey(label))
+		int target = current_node.labelTarget(label);
+		if (target == NameTable.NOT_FOUND)
 			throw new IndexOutOfBoundsException("Unknown label " + label + " in node " + state.current_node_name);
-		return current_node.labels.get(label);
+		return target;
 	}
 
 	protected void runInstruction(Instruction instruction) {
 		switch (instruction.getOperation()) {
 		case Label:
-			// label no-op, used as a destination for jumpto and jump
+			// label no-op, linked nodes do not have any
 			break;
 		case JumpTo:
-			// jumps to named label
-			state.program_counter = findInstructionForLabel((String) instruction.operandA());
+			// jumps to the instruction the label was linked to
+			state.program_counter = (Integer) instruction.operandA();
 			break;
 		case RunLine:
 			// looks up a string from the string table
 			// and passes it to the client as a line
 			String line_text = program.getString((String) instruction.operandA());
 			if (line_text == null) {
-				dialogue.error_logger.log("no loaded string table includes line " + instruction.operandA());
+				error_logger.log("no loaded string table includes line " + instruction.operandA());
 				break;
 			}
-			line_handler.handle(new LineResult(line_text));
+			report(new LineResult(line_text));
 			break;
 		case RunCommand:
 			// passes a string to the client as a custom command
-			command_handler.handle(new CommandResult((String) instruction.operandA()));
+			report(new CommandResult((String) instruction.operandA()));
 			break;
 		case PushString:
 			// pushes a string value onto the stack. the operand is an index into
@@ -178,27 +289,24 @@ public class VirtualMachine {
 			state.pushValue(program.getString((String) instruction.operandA()));
 			break;
 		case PushNumber:
-			// pushes a number onto the stack
-			state.pushValue(Float.parseFloat(String.valueOf(instruction.operandA())));
-			break;
 		case PushBool:
-			// pushes a boolean value onto the stack.
-			state.pushValue(Boolean.parseBoolean(String.valueOf(instruction.operandA())));
+			// pushes a constant that was built when the node was linked
+			state.pushValue(current_node.constants[(Integer) instruction.operandB()]);
 			break;
 		case PushNull:
 			// pushes a null value onto the stack
-			state.pushValue(Value.NULL);
+			state.pushNull();
 			break;
 		case JumpIfFalse:
-			// jumps to a named label if the value of the top of the stack
+			// jumps to a linked instruction if the value of the top of the stack
 			// evaluates to the boolean value 'false'
-			if (!state.peekValue().asBool()) {
-				state.program_counter = findInstructionForLabel((String) instruction.operandA());
+			if (!state.peekBool()) {
+				state.program_counter = (Integer) instruction.operandA();
 			}
 			break;
 		case Jump:
 			// jumps to a label whose name is on the stack
-			String jump_dest = state.peekValue().asString();
+			String jump_dest = state.peekString();
 			state.program_counter = findInstructionForLabel(jump_dest);
 
 			break;
@@ -210,9 +318,7 @@ public class VirtualMachine {
 			// call a function, whose parameters are expected to
 			// be on the stack. pushes the functions return value,
 			// if it returns one
-			String function_name = (String) instruction.operandA();
-
-			FunctionInfo function = dialogue.library.getFunction(function_name);
+			FunctionInfo function = linkedFunction(instruction);
 
 			{
 				int param_count = function.getParamCount();
@@ -221,13 +327,19 @@ public class VirtualMachine {
 				// expect the compiler to have palced the number of params
 				// actually passed at the top of the stack.
 				if (param_count == -1) {
-					param_count = (int) state.popValue().asNumber();
+					param_count = (int) state.popNumber();
 				}
 
 				Value result;
 
 				if (param_count == 0) {
-					result = function.invoke();
+					result = function.invoke0(context);
+				} else if (param_count == 1) {
+					result = function.invoke1(context, state.popValue());
+				} else if (param_count == 2) {
+					Value b = state.popValue();
+					Value a = state.popValue();
+					result = function.invoke2(context, a, b);
 				} else {
 					// get the parameters, which are pushed in reverse
 					Value[] params = new Value[param_count];
@@ -236,7 +348,7 @@ public class VirtualMachine {
 					}
 
 					// invoke the function
-					result = function.invokeWithArray(params);
+					result = function.invokeWithArray(context, params);
 				}
 
 				// if the function returns a value push it
@@ -246,22 +358,55 @@ public class VirtualMachine {
 
 			}
 			break;
+		case Add:
+		case Subtract:
+		case Multiply:
+		case Divide:
+		case Modulo:
+		case EqualTo:
+		case NotEqualTo:
+		case GreaterThan:
+		case GreaterThanOrEqualTo:
+		case LessThan:
+		case LessThanOrEqualTo:
+		case And:
+		case Or:
+		case Xor: {
+			// operands are popped in the same order CallFunc pops parameters
+			if (runPrimitiveOperator(instruction.getOperation()))
+				break;
+			Value b = state.popValue();
+			Value a = state.popValue();
+			state.pushValue(runOperator(instruction.getOperation(), a, b));
+			break;
+		}
+		case Negate:
+			if (state.peekType(0) == State.NUMBER)
+				state.pushNumber(-state.popNumber());
+			else
+				state.pushValue(state.popValue().negative());
+			break;
+		case Not:
+			state.pushBool(!state.popBool());
+			break;
 		case PushVariable:
 			// get contents of a variable and push it to the stack
-			String var_name = (String)instruction.operandA();
-			Value loaded = dialogue.continuity.getValue(var_name);
-			state.pushValue(loaded);
+			if (variables != null)
+				state.pushValue(variables.getValue(variableSlot(instruction)));
+			else
+				state.pushValue(continuity.getValue((String) instruction.operandA()));
 			break;
 		case StoreVariable:
 			// store the top value on the stack in a variable
-			Value topval = state.peekValue();
-			String destinationVarName = String.valueOf(instruction.operandA());
-			dialogue.continuity.setValue(destinationVarName, topval);
+			if (variables != null)
+				variables.setValue(variableSlot(instruction), state.peekValue());
+			else
+				continuity.setValue(String.valueOf(instruction.operandA()), state.peekValue());
 			break;
 		case Stop:
 			// stop execution immidiately and report it
 			//command_handler.handle(new CommandResult(EXEC_COMPLETE));
-			node_complte_handler.handle(new NodeCompleteResult(null));
+			report(new NodeCompleteResult(null));
 			
 
 			//execution_state = ExecutionState.Stopped;
@@ -273,13 +418,13 @@ public class VirtualMachine {
 
 			if (instruction.operandA() == null || ((String)instruction.operandA()).isEmpty()) {
 				// get a string from the stack, and jump to a node with that name
-				node_name = state.peekValue().asString();
+				node_name = state.peekString();
 			} else {
 				// jump straight to the node
 				node_name = (String) instruction.operandA();
 			}
 
-			node_complte_handler.handle(new NodeCompleteResult(node_name));
+			report(new NodeCompleteResult(node_name));
 			setNode(node_name);
 
 			break;
@@ -290,7 +435,7 @@ public class VirtualMachine {
 		case ShowOptions:
 			// if we have no options to show, immidiately stop
 			if (state.current_options.size() == 0) {
-				node_complte_handler.handle(new NodeCompleteResult(null));
+				report(new NodeCompleteResult(null));
 				//execution_state = ExecutionState.Stopped;
 				setExecutionState(ExecutionState.Stopped);
 				break;
@@ -300,12 +445,14 @@ public class VirtualMachine {
 			// execution
 			if (state.current_options.size() == 1 && state.current_options.get(0).key == null) {
 				String dest = state.current_options.get(0).value;
-				state.pushValue(dest);
+				state.pushString(dest);
 				state.current_options.clear();
 				break;
 			}
 
-			if (dialogue.continuity.getValue(SpecialVariables.ShuffleOptions).asBool()) {
+			Value shuffle = variables != null ? variables.getValue(shuffle_options_slot)
+					: continuity.getValue(SpecialVariables.ShuffleOptions);
+			if (shuffle.asBool()) {
 				// shuffle the dialogue options if needed
 				Collections.shuffle(state.current_options);
 //				int n = state.current_options.size();
@@ -324,14 +471,14 @@ public class VirtualMachine {
 			// cant continue until client chooses option
 			setExecutionState(ExecutionState.WaitingOnOptionSelection);
 
-			option_handler.handle(new OptionResult(option_strings, new OptionChooser() {
+			report(new OptionResult(option_strings, new OptionChooser() {
 
 				@Override
 				public void choose(int selected_option_index) {
 					// we now know what number option was selected; push the corresponding node name
 					// to the stack
 					String dest_node = state.current_options.get(selected_option_index).value;
-					state.pushValue(dest_node);
+					state.pushString(dest_node);
 
 					// we no longer need the accum list of optionsl clear it so that ist
 					// ready for the next one
@@ -356,6 +503,204 @@ public class VirtualMachine {
 		}
 	}
 
+	/**
+	 * the function a CallFunc calls, from the node's linked call sites when it
+	 * has them
+	 */
+	private FunctionInfo linkedFunction(Instruction instruction) {
+		if (current_functions != null && instruction.operandB() instanceof Integer) {
+			FunctionInfo function = current_functions[(Integer) instruction.operandB()];
+			if (function != null)
+				return function;
+		}
+		return library.getFunction((String) instruction.operandA());
+	}
+
+	/**
+	 * the storage slot of the variable a PushVariable or StoreVariable uses, only
+	 * asked for once per machine when the node has been linked
+	 */
+	private int variableSlot(Instruction instruction) {
+		if (current_variables == null || !(instruction.operandB() instanceof Integer))
+			return variables.slotOf(String.valueOf(instruction.operandA()));
+
+		int site = current_variables[(Integer) instruction.operandB()];
+		if (variable_slots == null || site >= variable_slots.length) {
+			int length = Math.max(site + 1, variable_slots == null ? 8 : variable_slots.length * 2);
+			variable_slots = variable_slots == null ? new int[length] : Arrays.copyOf(variable_slots, length);
+		}
+		int slot = variable_slots[site] - 1;
+		if (slot < 0) {
+			slot = variables.slotOf(String.valueOf(instruction.operandA()));
+			variable_slots[site] = slot + 1;
+		}
+		return slot;
+	}
+
+	/**
+	 * run a binary operator on two numbers or two bools in place on the stack
+	 *
+	 * @return false if the operands need {@link #runOperator(Program.ByteCode, Value, Value)}
+	 */
+	private boolean runPrimitiveOperator(Program.ByteCode operation) {
+		byte b_type = state.peekType(0);
+		byte a_type = state.peekType(1);
+		float y = state.peekNumber(0);
+		float x = state.peekNumber(1);
+
+		if (a_type == State.NUMBER && b_type == State.NUMBER) {
+			switch (operation) {
+			case Add:
+				return replaceOperands(x + y);
+			case Subtract:
+				return replaceOperands(x - y);
+			case Multiply:
+				return replaceOperands(x * y);
+			case Divide:
+				return replaceOperands(x / y);
+			case Modulo:
+				return replaceOperands(x % y);
+			case EqualTo:
+				return replaceOperands(x == y);
+			case NotEqualTo:
+				return replaceOperands(x != y);
+			case GreaterThan:
+				return replaceOperands(Float.compare(x, y) > 0);
+			case GreaterThanOrEqualTo:
+				return replaceOperands(Float.compare(x, y) >= 0);
+			case LessThan:
+				return replaceOperands(Float.compare(x, y) < 0);
+			case LessThanOrEqualTo:
+				return replaceOperands(Float.compare(x, y) <= 0);
+			default:
+				return false;
+			}
+		} else if (a_type == State.BOOL && b_type == State.BOOL) {
+			boolean p = x != 0f;
+			boolean q = y != 0f;
+			switch (operation) {
+			case EqualTo:
+				return replaceOperands(p == q);
+			case NotEqualTo:
+				return replaceOperands(p != q);
+			case And:
+				return replaceOperands(p && q);
+			case Or:
+				return replaceOperands(p || q);
+			case Xor:
+				return replaceOperands(p ^ q);
+			default:
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private boolean replaceOperands(float result) {
+		state.popNumber();
+		state.popNumber();
+		state.pushNumber(result);
+		return true;
+	}
+
+	private boolean replaceOperands(boolean result) {
+		state.popNumber();
+		state.popNumber();
+		state.pushBool(result);
+		return true;
+	}
+
+	/**
+	 * run a binary operator. numbers and bools take a fast path, anything else
+	 * falls back to the Value methods the standard library uses
+	 */
+	protected static Value runOperator(Program.ByteCode operation, Value a, Value b) {
+		Value.Type a_type = a.getType();
+		Value.Type b_type = b.getType();
+
+		if (a_type == Value.Type.NUMBER && b_type == Value.Type.NUMBER) {
+			float x = a.getNumberValue();
+			float y = b.getNumberValue();
+			switch (operation) {
+			case Add:
+				return Value.of(x + y);
+			case Subtract:
+				return Value.of(x - y);
+			case Multiply:
+				return Value.of(x * y);
+			case Divide:
+				return Value.of(x / y);
+			case Modulo:
+				return Value.of(x % y);
+			case EqualTo:
+				return Value.of(x == y);
+			case NotEqualTo:
+				return Value.of(x != y);
+			// Value.compareTo compares boxed floats
+			case GreaterThan:
+				return Value.of(Float.compare(x, y) > 0);
+			case GreaterThanOrEqualTo:
+				return Value.of(Float.compare(x, y) >= 0);
+			case LessThan:
+				return Value.of(Float.compare(x, y) < 0);
+			case LessThanOrEqualTo:
+				return Value.of(Float.compare(x, y) <= 0);
+			default:
+				break;
+			}
+		} else if (a_type == Value.Type.BOOL && b_type == Value.Type.BOOL) {
+			boolean x = a.getBoolValue();
+			boolean y = b.getBoolValue();
+			switch (operation) {
+			case EqualTo:
+				return Value.of(x == y);
+			case NotEqualTo:
+				return Value.of(x != y);
+			case And:
+				return Value.of(x && y);
+			case Or:
+				return Value.of(x || y);
+			case Xor:
+				return Value.of(x ^ y);
+			default:
+				break;
+			}
+		}
+
+		switch (operation) {
+		case Add:
+			return a.add(b);
+		case Subtract:
+			return a.sub(b);
+		case Multiply:
+			return a.mul(b);
+		case Divide:
+			return a.div(b);
+		case Modulo:
+			return a.mod(b);
+		case EqualTo:
+			return Value.of(a.equals(b));
+		case NotEqualTo:
+			return Value.of(!a.equals(b));
+		case GreaterThan:
+			return Value.of(a.greaterThan(b));
+		case GreaterThanOrEqualTo:
+			return Value.of(a.greaterThanOrEqual(b));
+		case LessThan:
+			return Value.of(a.lessThan(b));
+		case LessThanOrEqualTo:
+			return Value.of(a.lessThanOrEqual(b));
+		case And:
+			return Value.of(a.asBool() && b.asBool());
+		case Or:
+			return Value.of(a.asBool() || b.asBool());
+		case Xor:
+			return Value.of(a.asBool() ^ b.asBool());
+		default:
+			throw new IllegalArgumentException(operation.name());
+		}
+	}
+
 	public LineHandler getLineHandler() {
 		return line_handler;
 	}
@@ -403,6 +748,16 @@ public class VirtualMachine {
 	}
 
 	protected class State {
+		// value stack type tags
+		public static final byte NUMBER = 0;
+		public static final byte BOOL = 1;
+		public static final byte NULL = 2;
+		public static final byte STRING = 3;
+		public static final byte OTHER = 4;
+
+		//grows when an expression needs more, most never do
+		private static final int INITIAL_STACK_SIZE = 4;
+
 		// the name of the node that we are currently on
 		public String current_node_name;
 
@@ -412,17 +767,81 @@ public class VirtualMachine {
 		// list of options, where each option = <string id,destination node>
 		public ArrayList<Option> current_options = new ArrayList<Option>();
 
-		// the value stack
-		private ArrayDeque<Value> stack = new ArrayDeque<Value>();
+		// the value stack. Numbers, bools and null are kept as a type tag and a
+		// float so pushing them never allocates, a Value is only made when one is
+		// handed to a function or the variable storage. Values come off the end
+		// they were first pushed at, as they did from the ArrayDeque (add/pop) this
+		// replaced, the order operands are compiled in depends on it.
+		private byte[] types = new byte[INITIAL_STACK_SIZE];
+		private float[] numbers = new float[INITIAL_STACK_SIZE];
+		// strings, and values of any other type kept whole
+		private Object[] objects = new Object[INITIAL_STACK_SIZE];
+		// the next value taken, and where the next value is put
+		private int bottom;
+		private int top;
+
+		public void pushNumber(float number) {
+			int i = push(NUMBER);
+			numbers[i] = number;
+		}
+
+		public void pushBool(boolean bool) {
+			int i = push(BOOL);
+			numbers[i] = bool ? 1f : 0f;
+		}
+
+		public void pushNull() {
+			push(NULL);
+		}
+
+		public void pushString(String string) {
+			if (string == null) {
+				pushNull();
+				return;
+			}
+			int i = push(STRING);
+			objects[i] = string;
+		}
+
+		/**
+		 * push a value on to the value stack, taking it apart if it is a number,
+		 * bool, string or null
+		 */
+		public void pushValue(Value value) {
+			switch (value.getType()) {
+			case NUMBER:
+				pushNumber(value.getNumberValue());
+				break;
+			case BOOL:
+				pushBool(value.getBoolValue());
+				break;
+			case NULL:
+				pushNull();
+				break;
+			case STRING:
+				pushString(value.getStringValue());
+				break;
+			default:
+				int i = push(OTHER);
+				objects[i] = value;
+				break;
+			}
+		}
 
 		/**
 		 * push a value on to the value stack
 		 */
 		public void pushValue(Object o) {
 			if (o instanceof Value)
-				stack.add((Value) o);
+				pushValue((Value) o);
+			else if (o instanceof String)
+				pushString((String) o);
+			else if (o == null)
+				pushNull();
+			else if (o instanceof Boolean)
+				pushBool((Boolean) o);
 			else
-				stack.add(new Value(o));
+				pushValue(Value.of(o));
 		}
 
 		/**
@@ -431,7 +850,9 @@ public class VirtualMachine {
 		 * @return
 		 */
 		public Value popValue() {
-			return stack.pop();
+			Value value = peekValue();
+			pop();
+			return value;
 		}
 
 		/**
@@ -440,14 +861,129 @@ public class VirtualMachine {
 		 * @return
 		 */
 		public Value peekValue() {
-			return stack.peek();
+			if (bottom == top)
+				return null;
+			switch (types[bottom]) {
+			case NUMBER:
+				return Value.of(numbers[bottom]);
+			case BOOL:
+				return Value.of(numbers[bottom] != 0f);
+			case NULL:
+				return Value.NULL;
+			default:
+				return Value.of(objects[bottom]);
+			}
+		}
+
+		/**
+		 * pop a value as {@link Value#asNumber()} would see it
+		 */
+		public float popNumber() {
+			float number;
+			switch (peekType(0)) {
+			case NUMBER:
+			case BOOL:
+				number = numbers[bottom];
+				break;
+			case NULL:
+				number = 0f;
+				break;
+			default:
+				number = peekValue().asNumber();
+				break;
+			}
+			pop();
+			return number;
+		}
+
+		/**
+		 * pop a value as {@link Value#asBool()} would see it
+		 */
+		public boolean popBool() {
+			boolean bool = peekBool();
+			pop();
+			return bool;
+		}
+
+		/**
+		 * peek at a value as {@link Value#asBool()} would see it
+		 */
+		public boolean peekBool() {
+			switch (peekType(0)) {
+			case NUMBER:
+				return !Float.isNaN(numbers[bottom]) && numbers[bottom] != 0f;
+			case BOOL:
+				return numbers[bottom] != 0f;
+			case NULL:
+				return false;
+			case STRING:
+				return !((String) objects[bottom]).isEmpty();
+			default:
+				return peekValue().asBool();
+			}
+		}
+
+		/**
+		 * peek at a value as {@link Value#asString()} would see it
+		 */
+		public String peekString() {
+			if (peekType(0) == STRING)
+				return (String) objects[bottom];
+			return peekValue().asString();
+		}
+
+		/**
+		 * the type of the value that many pops away
+		 */
+		public byte peekType(int depth) {
+			if (bottom + depth >= top)
+				throw new NoSuchElementException();
+			return types[bottom + depth];
+		}
+
+		/**
+		 * the number that many pops away, only meaningful for {@link #NUMBER} and
+		 * {@link #BOOL} values
+		 */
+		public float peekNumber(int depth) {
+			return numbers[bottom + depth];
 		}
 
 		/**
 		 * clear the value stack
 		 */
 		public void clearValueStack() {
-			stack.clear();
+			Arrays.fill(objects, bottom, top, null);
+			bottom = top = 0;
+		}
+
+		private int push(byte type) {
+			if (top == types.length) {
+				int size = top - bottom;
+				if (bottom > 0) {
+					//slide what is left back to the start before growing
+					System.arraycopy(types, bottom, types, 0, size);
+					System.arraycopy(numbers, bottom, numbers, 0, size);
+					System.arraycopy(objects, bottom, objects, 0, size);
+					Arrays.fill(objects, size, top, null);
+				} else {
+					types = Arrays.copyOf(types, size * 2);
+					numbers = Arrays.copyOf(numbers, size * 2);
+					objects = Arrays.copyOf(objects, size * 2);
+				}
+				bottom = 0;
+				top = size;
+			}
+			types[top] = type;
+			return top++;
+		}
+
+		private void pop() {
+			if (bottom == top)
+				throw new NoSuchElementException();
+			objects[bottom] = null;
+			if (++bottom == top)
+				bottom = top = 0;
 		}
 	}
 
@@ -0,0 +1,129 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CompileCacheTest {
+
+	private static final String TEXT = "title: Start\n---\nHello\n<<set $a to 1 + 2>>\n[[Next]]\n===\n"
+			+ "title: Next\n---\nWorld\n===\n"
+			+ "title: Last\n---\n-> One\n-> Two\n===\n";
+
+	private File directory;
+	private CompileCache cache;
+
+	@BeforeEach
+	public void createCache() throws IOException {
+		directory = Files.createTempDirectory("yarn-cache").toFile();
+		cache = new CompileCache(directory);
+	}
+
+	@AfterEach
+	public void deleteCache() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	private Dialogue load(String text, CompileCache cache) {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.getLoader().setCompileCache(cache);
+		dialogue.loadString(text, "Cached.yarn");
+		return dialogue;
+	}
+
+	@Test
+	public void secondLoadHitsEveryNode() {
+		String uncached = load(TEXT, null).getByteCode();
+
+		assertEquals(uncached, load(TEXT, cache).getByteCode());
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+
+		cache.resetStats();
+		assertEquals(uncached, load(TEXT, cache).getByteCode());
+		assertEquals(3, cache.getHits());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void changedNodesAreCompiledAgain() {
+		load(TEXT, cache);
+		cache.resetStats();
+
+		Dialogue changed = load(TEXT.replace("World", "Everyone"), cache);
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(load(TEXT.replace("World", "Everyone"), null).getByteCode(), changed.getByteCode());
+	}
+
+	@Test
+	public void libraryIsInTheKey() {
+		load(TEXT, cache);
+		cache.resetStats();
+
+		Dialogue more_functions = Fixtures.dialogue();
+		more_functions.library.registerFunction("extra", 0, (Library.ReturningFunc) params -> 1);
+		more_functions.getLoader().setCompileCache(cache);
+		more_functions.loadString(TEXT, "Cached.yarn");
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void optimizationIsInTheKey() {
+		load(TEXT, cache);
+		cache.resetStats();
+
+		Dialogue unoptimized = Fixtures.dialogue();
+		unoptimized.getLoader().setOptimization(Optimizer.Level.None);
+		unoptimized.getLoader().setCompileCache(cache);
+		unoptimized.loadString(TEXT, "Cached.yarn");
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void unreadableEntriesAreMisses() throws IOException {
+		String uncached = load(TEXT, null).getByteCode();
+		load(TEXT, cache);
+
+		File[] entries = directory.listFiles();
+		assertTrue(entries.length >= 3);
+		for (File entry : entries)
+			Files.write(entry.toPath(), new byte[] { 1, 2, 3 });
+
+		cache.resetStats();
+		assertEquals(uncached, load(TEXT, cache).getByteCode());
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+
+		//and were written again
+		cache.resetStats();
+		load(TEXT, cache);
+		assertEquals(3, cache.getHits());
+	}
+
+	@Test
+	public void clearEmptiesTheCache() {
+		load(TEXT, cache);
+		cache.clear();
+		cache.resetStats();
+
+		load(TEXT, cache);
+		assertEquals(0, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+}
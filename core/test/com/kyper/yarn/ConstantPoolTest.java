@@ -0,0 +1,101 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+
+public class ConstantPoolTest {
+
+	private static final String CONSTANTS = "title: Start\n---\n"
+			+ "<<set $a to 1.5>>\n<<set $b to 1.5 + 2>>\n<<set $c to true>>\n<<set $d to false>>\n"
+			+ "<<set $e to true>>\n<<set $f to \"hello\">>\n===\n";
+
+	private static final String GREETING = "title: Start\n---\n"
+			+ "<<set $x to \"hello\">>\n<<if $x == \"hello\">>\nSame\n<<endif>>\nDone\n===\n";
+
+	private static void assertPooled(Program.Node node) {
+		Set<Value> seen = new HashSet<Value>();
+		for (Value value : node.constants)
+			assertTrue(seen.add(value), "pooled twice " + value);
+
+		for (Instruction instruction : node.instructions) {
+			ByteCode operation = instruction.getOperation();
+			if (operation != ByteCode.PushNumber && operation != ByteCode.PushBool)
+				continue;
+			Value constant = node.constants[(Integer) instruction.operandB()];
+			if (operation == ByteCode.PushNumber)
+				assertEquals(Float.parseFloat(String.valueOf(instruction.operandA())), constant.getNumberValue());
+			else
+				assertEquals(Boolean.parseBoolean(String.valueOf(instruction.operandA())), constant.getBoolValue());
+		}
+	}
+
+	@Test
+	public void constantsArePooledPerNode() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(CONSTANTS, "Constants.yarn");
+
+		Program.Node node = dialogue.program.getNode("Start");
+		assertPooled(node);
+		//1.5, 2, true and false
+		assertEquals(4, node.constants.length);
+
+		MemoryVariableStorage variables = (MemoryVariableStorage) dialogue.continuity;
+		Fixtures.transcript(dialogue, "Start");
+		assertEquals(1.5f, variables.getValue("$a").getNumberValue());
+		assertEquals(true, variables.getValue("$c").getBoolValue());
+		assertEquals(false, variables.getValue("$d").getBoolValue());
+		assertEquals(true, variables.getValue("$e").getBoolValue());
+		assertEquals("hello", variables.getValue("$f").getStringValue());
+	}
+
+	@Test
+	public void loadedProgramsRebuildTheirConstants() throws IOException {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(CONSTANTS, "Constants.yarn");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		dialogue.saveCompiled(out);
+
+		Dialogue loaded = Fixtures.dialogue();
+		loaded.loadCompiled(new ByteArrayInputStream(out.toByteArray()));
+		Program.Node node = loaded.program.getNode("Start");
+		assertPooled(node);
+		assertEquals(4, node.constants.length);
+	}
+
+	@Test
+	public void stringTablesLoadedAfterCompilingChangeStringConstants() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(GREETING, "Greeting.yarn");
+		assertEquals("start Start\nline Same\nline Done\ncomplete null\n", Fixtures.transcript(dialogue, "Start"));
+
+		//translate the string the variable is set to, but not the one it is compared with
+		HashMap<String, String> translated = new HashMap<String, String>();
+		for (Map.Entry<String, String> entry : dialogue.getStringTable().entrySet()) {
+			if (entry.getValue().equals("hello")) {
+				translated.put(entry.getKey(), "bonjour");
+				break;
+			}
+		}
+		assertEquals(1, translated.size());
+		dialogue.addStringTable(translated);
+
+		assertEquals("start Start\nline Done\ncomplete null\n", Fixtures.transcript(dialogue, "Start"));
+		Value x = ((MemoryVariableStorage) dialogue.continuity).getValue("$x");
+		assertEquals("bonjour", x.getStringValue());
+	}
+
+}
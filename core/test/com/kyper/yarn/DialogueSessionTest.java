@@ -0,0 +1,186 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Dialogue.NodeCompleteResult;
+import com.kyper.yarn.Dialogue.OptionResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Dialogue.VariableStorage;
+
+public class DialogueSessionTest {
+
+	/**
+	 * run from start to the end of the dialogue, leaving through "See you later."
+	 * whenever there are options
+	 */
+	private static List<String> run(DialogueSession session, String start) {
+		List<String> lines = new ArrayList<String>();
+		assertTrue(session.start(start));
+		RunnerResult result;
+		int steps = 0;
+		while ((result = session.getNext()) != null && steps++ < 100) {
+			if (result instanceof LineResult) {
+				lines.add(((LineResult) result).getText());
+			} else if (result instanceof OptionResult) {
+				OptionResult options = (OptionResult) result;
+				int exit = options.getOptions().indexOf("See you later.");
+				assertTrue(exit >= 0, "no way out in " + options.getOptions());
+				options.choose(exit);
+			} else if (result instanceof NodeCompleteResult && ((NodeCompleteResult) result).next_node == null) {
+				break;
+			}
+		}
+		return lines;
+	}
+
+	@Test
+	public void visitedReadsTheSessionsOwnCounts() throws Exception {
+		DialogueRuntime runtime = new DialogueRuntime(Fixtures.space());
+		DialogueSession session = runtime.newSession(new MemoryVariableStorage());
+
+		List<String> first = run(session, "Sally");
+		List<String> second = run(session, "Sally");
+		assertNotEquals(first, second);
+		assertEquals(2, session.getVisitCount("Sally"));
+
+		//a new session has not been anywhere yet
+		DialogueSession fresh = runtime.newSession(new MemoryVariableStorage());
+		assertEquals(0, fresh.getVisitCount("Sally"));
+		assertEquals(first, run(fresh, "Sally"));
+		assertEquals(1, fresh.getVisitCount("Sally"));
+		assertEquals(2, session.getVisitCount("Sally"));
+
+		//every session calls the one shared library
+		assertSame(runtime.getLibrary(), session.getLibrary());
+		assertSame(runtime.getLibrary(), fresh.getLibrary());
+	}
+
+	@Test
+	public void concurrentSessionsKeepSeparateVisitCounts() throws Exception {
+		final DialogueRuntime runtime = new DialogueRuntime(Fixtures.space());
+
+		//what one session sees on its own
+		DialogueSession alone = runtime.newSession(new MemoryVariableStorage());
+		final List<List<String>> expected = new ArrayList<List<String>>();
+		for (int i = 0; i < 3; i++)
+			expected.add(run(alone, "Sally"));
+
+		final DialogueSession often = runtime.newSession(new MemoryVariableStorage());
+		final DialogueSession once = runtime.newSession(new MemoryVariableStorage());
+		final CountDownLatch go = new CountDownLatch(1);
+
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			Future<List<List<String>>> often_runs = threads.submit(new Callable<List<List<String>>>() {
+				@Override
+				public List<List<String>> call() throws Exception {
+					go.await();
+					List<List<String>> runs = new ArrayList<List<String>>();
+					for (int i = 0; i < 3; i++)
+						runs.add(run(often, "Sally"));
+					return runs;
+				}
+			});
+			Future<List<String>> once_run = threads.submit(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					go.await();
+					return run(once, "Sally");
+				}
+			});
+			go.countDown();
+
+			assertEquals(expected, often_runs.get());
+			//the other session's visits do not count here
+			assertEquals(expected.get(0), once_run.get());
+		} finally {
+			threads.shutdown();
+		}
+
+		assertEquals(3, often.getVisitCount("Sally"));
+		assertEquals(1, once.getVisitCount("Sally"));
+		assertEquals(3, alone.getVisitCount("Sally"));
+	}
+
+	@Test
+	public void contextFunctionsNeedARun() throws Exception {
+		Library library = Fixtures.space().getLibrary();
+		assertThrows(IllegalStateException.class, () -> library.getFunction("visited").invoke());
+	}
+
+	@Test
+	public void runtimeDecodesOnlyWhatRuns() throws Exception {
+		Dialogue source = Fixtures.space();
+		String expected = Fixtures.transcript(new DialogueRuntime(source).newSession(new MemoryVariableStorage()),
+				"Ship");
+
+		Program program = new ProgramReader().map(Fixtures.compiled(source));
+		DialogueRuntime runtime = new DialogueRuntime(program, source.library, message -> {
+		}, message -> {
+		});
+		int count = program.nodeCount();
+
+		assertEquals(expected, Fixtures.transcript(runtime.newSession(new MemoryVariableStorage()), "Ship"));
+		assertTrue(runtime.getProgram().pendingNodeNames().size() < count);
+		assertTrue(runtime.getProgram().pendingNodeNames().contains("Sally"));
+	}
+
+	@Test
+	public void lazyNodesRunFromARuntime() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.getLoader().setLazy(true);
+		dialogue.loadString("title: Start\n---\nHello\n[[Next]]\n===\n", "a.yarn");
+		dialogue.loadString("title: Next\n---\nWorld\n===\n", "b.yarn");
+
+		DialogueRuntime runtime = new DialogueRuntime(dialogue);
+		assertEquals(2, runtime.getProgram().pendingNodeNames().size());
+		assertEquals("start Start\nline Hello\ncomplete Next\nline World\ncomplete null\n",
+				Fixtures.transcript(runtime.newSession(new MemoryVariableStorage()), "Start"));
+		assertEquals(0, runtime.getProgram().pendingNodeNames().size());
+	}
+
+	private static long usedMemory() {
+		Runtime memory = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return memory.totalMemory() - memory.freeMemory();
+	}
+
+	@Test
+	public void sessionsStaySmall() throws Exception {
+		DialogueRuntime runtime = new DialogueRuntime(Fixtures.space());
+		//one storage for all of them so only the sessions themselves are measured
+		VariableStorage continuity = new MemoryVariableStorage();
+		int count = 10000;
+		DialogueSession[] sessions = new DialogueSession[count];
+
+		long before = usedMemory();
+		for (int i = 0; i < count; i++) {
+			sessions[i] = runtime.newSession(continuity);
+			sessions[i].start("Sally");
+		}
+		long retained = (usedMemory() - before) / count;
+
+		//a session that has started holds its machine, state and handlers, not a library
+		assertTrue(retained < 512, retained + " bytes per session");
+		for (DialogueSession session : sessions)
+			assertTrue(session.isRunning());
+	}
+
+}
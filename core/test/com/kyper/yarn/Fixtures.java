@@ -0,0 +1,167 @@
+package com.kyper.yarn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.kyper.yarn.Dialogue.CommandResult;
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Dialogue.NodeCompleteResult;
+import com.kyper.yarn.Dialogue.OptionResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Dialogue.YarnLogger;
+
+/**
+ * dialogues and yarn sources shared by the tests. Paths are relative to core/,
+ * where the tests run from.
+ */
+final class Fixtures {
+
+	static final String TESTS = "test/resources/Tests";
+	static final String SPACE = TESTS + "/Projects/Space/";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * a dialogue with in memory variables that logs nothing
+	 */
+	static Dialogue dialogue() {
+		return dialogue(message -> {
+		});
+	}
+
+	/**
+	 * a dialogue with in memory variables that only logs errors
+	 */
+	static Dialogue dialogue(YarnLogger error_logger) {
+		return new Dialogue(new MemoryVariableStorage(), message -> {
+		}, error_logger);
+	}
+
+	/**
+	 * a dialogue with the Sally and Ship nodes of the space project loaded
+	 */
+	static Dialogue space() throws IOException {
+		Dialogue dialogue = dialogue();
+		for (String name : new String[] { "Sally.yarn", "Ship.yarn" })
+			dialogue.loadString(read(SPACE + name), name);
+		return dialogue;
+	}
+
+	/**
+	 * save the compiled program of source to a temporary file that is deleted when
+	 * the tests finish
+	 */
+	static File compiled(Dialogue source) throws IOException {
+		File file = File.createTempFile("yarn", ".yarnc");
+		file.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			source.saveCompiled(out);
+		}
+		return file;
+	}
+
+	/**
+	 * run dialogue from start, always choosing the first option, and write down
+	 * everything it reports
+	 */
+	static void run(Dialogue dialogue, String start, StringBuilder out) {
+		out.append("start ").append(start).append('\n');
+		if (!dialogue.start(start))
+			return;
+		RunnerResult result;
+		int steps = 0;
+		while ((result = dialogue.getNext()) != null && steps++ < 500) {
+			if (describe(result, out))
+				break;
+		}
+	}
+
+	static String transcript(Dialogue dialogue, String start) {
+		StringBuilder out = new StringBuilder();
+		run(dialogue, start, out);
+		return out.toString();
+	}
+
+	/**
+	 * the same as {@link #transcript(Dialogue, String)} for one session of a
+	 * runtime
+	 */
+	static String transcript(DialogueSession session, String start) {
+		StringBuilder out = new StringBuilder();
+		out.append("start ").append(start).append('\n');
+		if (session.start(start)) {
+			RunnerResult result;
+			int steps = 0;
+			while ((result = session.getNext()) != null && steps++ < 500) {
+				if (describe(result, out))
+					break;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * write down result, choosing the first option if it has options
+	 *
+	 * @return true if the dialogue is over
+	 */
+	static boolean describe(RunnerResult result, StringBuilder out) {
+		if (result instanceof LineResult) {
+			out.append("line ").append(((LineResult) result).getText()).append('\n');
+		} else if (result instanceof CommandResult) {
+			out.append("command ").append(((CommandResult) result).getCommand()).append('\n');
+		} else if (result instanceof OptionResult) {
+			out.append("options ").append(((OptionResult) result).getOptions()).append('\n');
+			((OptionResult) result).choose(0);
+		} else if (result instanceof NodeCompleteResult) {
+			String next = ((NodeCompleteResult) result).next_node;
+			out.append("complete ").append(next).append('\n');
+			return next == null;
+		}
+		return false;
+	}
+
+	static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	static String read(String path) throws IOException {
+		return read(Paths.get(path));
+	}
+
+	/**
+	 * every .yarn file under the test resources, sorted by path
+	 */
+	static List<Path> corpus() throws IOException {
+		return corpus(".yarn");
+	}
+
+	/**
+	 * every file under the test resources ending in one of extensions, sorted by
+	 * path
+	 */
+	static List<Path> corpus(String... extensions) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (Stream<Path> paths = Files.walk(Paths.get(TESTS))) {
+			paths.filter(path -> {
+				for (String extension : extensions) {
+					if (path.toString().endsWith(extension))
+						return true;
+				}
+				return false;
+			}).sorted().forEach(files::add);
+		}
+		return files;
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Library.FunctionInfo;
+
+public class FunctionCallTest {
+
+	private static final String CALLS = "title: Start\n---\n"
+			+ "<<set $zero to seven()>>\n"
+			+ "<<set $one to twice(4)>>\n"
+			+ "<<set $two to minus(5, 2)>>\n"
+			+ "<<set $many to count(1, 2, 3)>>\n"
+			+ "Done\n===\n";
+
+	private static Dialogue dialogue(List<String> calls) {
+		Dialogue dialogue = Fixtures.dialogue();
+		Library library = dialogue.getLibrary();
+		library.registerFunction("seven", () -> {
+			calls.add("seven");
+			return 7;
+		});
+		library.registerFunction("twice", a -> {
+			calls.add("twice");
+			return a.asNumber() * 2;
+		});
+		library.registerFunction("minus", (a, b) -> {
+			calls.add("minus");
+			return a.asNumber() - b.asNumber();
+		});
+		library.registerFunction("count", -1, params -> {
+			calls.add("count");
+			return params.length;
+		});
+		dialogue.loadString(CALLS, "Calls.yarn");
+		return dialogue;
+	}
+
+	private static float number(Dialogue dialogue, String name) {
+		return dialogue.continuity.getValue(name).asNumber();
+	}
+
+	@Test
+	public void fixedArityFunctionsGetTheirParametersInOrder() {
+		List<String> calls = new ArrayList<String>();
+		Dialogue dialogue = dialogue(calls);
+		Fixtures.transcript(dialogue, "Start");
+
+		assertEquals(7f, number(dialogue, "$zero"));
+		assertEquals(8f, number(dialogue, "$one"));
+		assertEquals(3f, number(dialogue, "$two"));
+		assertEquals(3f, number(dialogue, "$many"));
+		assertEquals(4, calls.size(), calls.toString());
+	}
+
+	@Test
+	public void frozenNodesLinkTheirFunctionsOnce() {
+		List<String> calls = new ArrayList<String>();
+		Dialogue dialogue = dialogue(calls);
+		DialogueRuntime runtime = new DialogueRuntime(dialogue);
+		Program.Node start = runtime.getProgram().getNode("Start");
+		Library library = runtime.getLibrary();
+
+		for (int i = 0; i < 3; i++)
+			Fixtures.transcript(runtime.newSession(new MemoryVariableStorage()), "Start");
+		assertEquals(12, calls.size());
+
+		//every session shares the node's functions
+		FunctionInfo[] linked = start.linkFunctions(library);
+		assertNotNull(linked);
+		assertSame(linked, start.linkFunctions(library));
+		assertEquals(start.functions.length, linked.length);
+		for (int i = 0; i < linked.length; i++)
+			assertSame(library.getFunction(start.functions[i]), linked[i]);
+
+		//another library looks its functions up by name
+		assertNull(start.linkFunctions(new Library()));
+	}
+
+	@Test
+	public void unfrozenDialoguesSeeReplacedFunctions() {
+		List<String> calls = new ArrayList<String>();
+		Dialogue dialogue = dialogue(calls);
+		Fixtures.transcript(dialogue, "Start");
+		assertEquals(7f, number(dialogue, "$zero"));
+
+		dialogue.getLibrary().registerFunction("seven", () -> 70);
+		Fixtures.transcript(dialogue, "Start");
+		assertEquals(70f, number(dialogue, "$zero"));
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class HeaderTest {
+
+	private final List<String> errors = new ArrayList<String>();
+
+	private NodeInfo node(String headers) {
+		List<NodeInfo> nodes = new Loader(Fixtures.dialogue(errors::add))
+				.getNodesFromText(headers + "---\nBody\n===\n", NodeFormat.Text);
+		assertEquals(1, nodes.size());
+		return nodes.get(0);
+	}
+
+	@Test
+	public void headersSplitAtTheirFirstColon() {
+		NodeInfo node = node("title:  Start:Again \ntags: a b\ncolorID: 3\nposition: 10, -20\n");
+
+		assertEquals("Start:Again", node.getTitle());
+		assertEquals("a b", node.getTags());
+		assertEquals(3, node.getColorID());
+		assertEquals(10, node.getPosition().getX());
+		assertEquals(-20, node.getPosition().getY());
+		assertTrue(errors.isEmpty(), errors.toString());
+	}
+
+	@Test
+	public void unknownHeadersAreKeptAsMetadata() {
+		NodeInfo node = node("title: Start\narbitraryheader: some: value\nmood:\n");
+
+		assertEquals("some: value", node.getMetadata("arbitraryheader"));
+		assertEquals("", node.getMetadata("mood"));
+		assertNull(node.getMetadata("title"));
+		assertEquals(2, node.getMetadata().size());
+		assertTrue(errors.isEmpty(), errors.toString());
+	}
+
+	@Test
+	public void badHeadersAreLogged() {
+		NodeInfo node = node("title: Start\nno colon here\ncolorID: red\nposition: 1,2,3\n");
+
+		assertEquals("Start", node.getTitle());
+		assertEquals(3, errors.size(), errors.toString());
+		assertTrue(errors.get(0).contains("cant parse header 'no colon here'"), errors.get(0));
+		assertTrue(errors.get(1).startsWith("could not convert colorID"), errors.get(1));
+		assertTrue(errors.get(2).contains("invalid value '1,2,3'"), errors.get(2));
+	}
+
+}
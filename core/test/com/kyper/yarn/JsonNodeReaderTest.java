@@ -0,0 +1,69 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class JsonNodeReaderTest {
+
+	private static final String NODES = "[\n"
+			+ "\t{\"title\": \"A\", \"tags\": \"one two\", \"body\": \"Hello \\\"there\\\"\\n[[B]]\",\n"
+			+ "\t\t\"position\": {\"x\": 12.7, \"y\": -3}, \"colorID\": 2,\n"
+			+ "\t\t\"unknown\": [1, {\"deep\": [true, null, \"]}\"]}], \"also\": {\"a\": {}}},\n"
+			+ "\t{\"body\": \"Bye\", \"title\": \"B\"}\n"
+			+ "]";
+
+	@Test
+	public void nodesArePulledOneAtATime() {
+		Loader.JsonNodeReader reader = new Loader(Fixtures.dialogue()).new JsonNodeReader(new StringReader(NODES));
+
+		assertTrue(reader.hasNext());
+		NodeInfo a = reader.next();
+		assertEquals("A", a.getTitle());
+		assertEquals("one two", a.getTags());
+		assertEquals("Hello \"there\"\n[[B]]", a.getBody());
+		assertEquals(2, a.getColorID());
+		assertEquals(12, a.getPosition().getX());
+		assertEquals(-3, a.getPosition().getY());
+
+		assertTrue(reader.hasNext());
+		NodeInfo b = reader.next();
+		assertEquals("B", b.getTitle());
+		assertEquals("Bye", b.getBody());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void jsonLoadsLikeTheTextFormat() throws IOException {
+		Dialogue json = Fixtures.dialogue();
+		json.loadString(Fixtures.read(Fixtures.SPACE + "Sally.json"), "Sally.json");
+		Dialogue text = Fixtures.dialogue();
+		text.loadString(Fixtures.read(Fixtures.SPACE + "Sally.yarn"), "Sally.yarn");
+
+		assertEquals(text.allNodes(), json.allNodes());
+		assertEquals(Fixtures.transcript(text, "Sally"), Fixtures.transcript(json, "Sally"));
+	}
+
+	@Test
+	public void malformedInputKeepsTheNodesBeforeIt() {
+		List<String> errors = new ArrayList<String>();
+		List<NodeInfo> nodes = new Loader(Fixtures.dialogue(errors::add)).getNodesFromText(
+				"[{\"title\": \"A\", \"body\": \"Hi\"},\n{\"title\": \"B\", \"body\": ]", NodeFormat.Json);
+
+		assertEquals(1, nodes.size());
+		assertEquals("A", nodes.get(0).getTitle());
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).startsWith("Error parsing Yarn input"), errors.get(0));
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+
+public class LazyLoadTest {
+
+	private static final String GOOD = "title: Start\n---\nHello\n===\n"
+			+ "title: Next\n---\nWorld <<set $x to 1 + 2>>\n===\n";
+
+	private static final String BAD = "title: Bad\n---\n<<set $x to >>\n===\n";
+
+	private final List<String> errors = new ArrayList<String>();
+
+	private Dialogue dialogue(boolean lazy) {
+		Dialogue dialogue = Fixtures.dialogue(message -> errors.add(message));
+		dialogue.getLoader().setLazy(lazy);
+		return dialogue;
+	}
+
+	@Test
+	public void nodesCompileWhenFirstRun() {
+		Dialogue dialogue = dialogue(true);
+		dialogue.loadString(GOOD + BAD, "Lazy.yarn");
+		assertEquals(new HashSet<String>(Arrays.asList("Start", "Next", "Bad")),
+				dialogue.program.pendingNodeNames());
+
+		assertTrue(dialogue.start("Start"));
+		RunnerResult result = dialogue.getNext();
+		assertTrue(result instanceof LineResult);
+		assertEquals("Hello", ((LineResult) result).getText().trim());
+
+		assertFalse(dialogue.program.pendingNodeNames().contains("Start"));
+		assertTrue(dialogue.program.pendingNodeNames().contains("Next"));
+		assertTrue(errors.isEmpty(), errors.toString());
+	}
+
+	@Test
+	public void validateAllReportsBrokenNodes() {
+		Dialogue eager = dialogue(false);
+		assertThrows(RuntimeException.class, () -> eager.loadString(GOOD + BAD, "Lazy.yarn"));
+
+		Dialogue lazy = dialogue(true);
+		lazy.loadString(GOOD + BAD, "Lazy.yarn");
+		errors.clear();
+
+		assertFalse(lazy.validateAll());
+		assertEquals(1, errors.size(), errors.toString());
+		assertTrue(errors.get(0).contains("Bad"), errors.get(0));
+		assertEquals(new HashSet<String>(Arrays.asList("Bad")), lazy.program.pendingNodeNames());
+	}
+
+	@Test
+	public void lazyNodesCompileLikeEagerOnes() {
+		Dialogue eager = dialogue(false);
+		eager.loadString(GOOD, "Lazy.yarn");
+
+		Dialogue lazy = dialogue(true);
+		lazy.loadString(GOOD, "Lazy.yarn");
+		assertTrue(lazy.validateAll());
+		assertTrue(lazy.program.pendingNodeNames().isEmpty());
+
+		assertEquals(eager.getByteCode(), lazy.getByteCode());
+		assertTrue(errors.isEmpty(), errors.toString());
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.LexerGrammar.LexerState;
+import com.kyper.yarn.LexerGrammar.TokenRule;
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class LexerGrammarTest {
+
+	private static String lex(Lexer lexer, String body) {
+		StringBuilder out = new StringBuilder();
+		try {
+			TokenBuffer tokens = lexer.tokenise(body);
+			for (int i = 0; i < tokens.size(); i++)
+				out.append(tokens.token(i)).append('\n');
+		} catch (RuntimeException e) {
+			out.append("exception ").append(e.getMessage());
+		}
+		return out.toString();
+	}
+
+	private static List<String> corpusBodies() throws Exception {
+		Loader loader = new Loader(Fixtures.dialogue());
+		List<String> bodies = new ArrayList<String>();
+		for (Path file : Fixtures.corpus()) {
+			for (NodeInfo node : loader.getNodesFromText(Fixtures.read(file), NodeFormat.Text))
+				bodies.add(node.getBody());
+		}
+		return bodies;
+	}
+
+	@Test
+	public void oneGrammarIsShared() {
+		assertSame(LexerGrammar.get(), LexerGrammar.get());
+	}
+
+	@Test
+	public void grammarCanNotBeChanged() {
+		LexerGrammar grammar = LexerGrammar.get();
+		assertThrows(UnsupportedOperationException.class, () -> grammar.getStates().remove("base"));
+
+		LexerState state = grammar.getDefaultState();
+		assertThrows(UnsupportedOperationException.class, () -> state.token_rules.clear());
+		assertThrows(UnsupportedOperationException.class, () -> state.token_rules.set(0, state.token_rules.get(1)));
+	}
+
+	@Test
+	public void rulesEnterTheStateTheyName() {
+		for (LexerState state : LexerGrammar.get().getStates().values()) {
+			assertSame(state, LexerGrammar.get().getState(state.name));
+			assertTrue(state.token_rules.size() > 0, state.name);
+			for (TokenRule rule : state.token_rules) {
+				assertNotNull(rule);
+				if (rule.enter_state == null)
+					assertEquals(null, rule.enter);
+				else
+					assertSame(LexerGrammar.get().getState(rule.enter_state), rule.enter);
+			}
+		}
+	}
+
+	@Test
+	public void oneLexerTokenisesManyNodes() throws Exception {
+		Lexer lexer = new Lexer();
+		for (String body : corpusBodies())
+			assertEquals(lex(new Lexer(), body), lex(lexer, body), body);
+	}
+
+	@Test
+	public void lexersOnManyThreadsAgree() throws Exception {
+		final List<String> bodies = corpusBodies();
+		final List<String> expected = new ArrayList<String>();
+		for (String body : bodies)
+			expected.add(lex(new Lexer(), body));
+
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(threads.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() {
+						Lexer lexer = new Lexer();
+						List<String> lexed = new ArrayList<String>();
+						for (String body : bodies)
+							lexed.add(lex(lexer, body));
+						return lexed;
+					}
+				}));
+			}
+			for (Future<List<String>> result : results)
+				assertEquals(expected, result.get());
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Lexer.MatchMode;
+import com.kyper.yarn.Lexer.TokenType;
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class LexerTest {
+
+	private static String lex(MatchMode mode, String body) {
+		StringBuilder out = new StringBuilder();
+		try {
+			TokenBuffer tokens = new Lexer(mode).tokenise(body);
+			for (int i = 0; i < tokens.size(); i++) {
+				out.append(tokens.type(i)).append(' ').append(tokens.line(i)).append(':').append(tokens.column(i))
+						.append(' ').append(tokens.value(i)).append(' ').append(tokens.delimitsText(i)).append('\n');
+			}
+		} catch (RuntimeException e) {
+			out.append("exception ").append(e.getMessage());
+		}
+		return out.toString();
+	}
+
+	private static List<String> corpusBodies() throws IOException {
+		Loader loader = new Loader(Fixtures.dialogue());
+		List<String> bodies = new ArrayList<String>();
+		for (Path file : Fixtures.corpus()) {
+			for (NodeInfo node : loader.getNodesFromText(Fixtures.read(file), NodeFormat.Text))
+				bodies.add(node.getBody());
+		}
+		return bodies;
+	}
+
+	@Test
+	public void scannerIsTheDefault() {
+		assertEquals(MatchMode.Scanner, new Lexer().getMatchMode());
+	}
+
+	@Test
+	public void scannerMatchesRegexOnTheCorpus() throws IOException {
+		List<String> bodies = corpusBodies();
+		assertTrue(bodies.size() > 20);
+		for (String body : bodies)
+			assertEquals(lex(MatchMode.Regex, body), lex(MatchMode.Scanner, body), body);
+	}
+
+	@Test
+	public void scannerMatchesRegexOnEdgeCases() {
+		List<String> bodies = Arrays.asList("Hello <<cmd>> world", "<<flip Harley3 +1>>",
+				"-> Option <<if $x > 1.5 && not $y>>\n    inner line\n        <<set $z to 2.+ >>\nout",
+				"[[Label|Dest.1]] and [[Only]]", "<<if \"str\" == \"a\\\\b\">>x<<endif>>",
+				"\tTabbed\r\n  <<set $a += -1.25>>", "# tag\n-> a #t1 #t2\n-> b",
+				"<<foo(1, \"x\", true, null, false)>>", "line // comment", "<<set $a to isx>>",
+				"<<if gte isx eq 3 neq 4 xor or and>>", "<<set $a to \"unterminated>>", "<<if 1 ~ 2>>");
+		for (String body : bodies)
+			assertEquals(lex(MatchMode.Regex, body), lex(MatchMode.Scanner, body), body);
+	}
+
+	@Test
+	public void keywordsNeedAWordBoundary() {
+		TokenBuffer tokens = new Lexer().tokenise("<<set $a to isx>>");
+		assertEquals(TokenType.Identifier, tokens.type(4));
+		assertEquals("isx", tokens.value(4));
+	}
+
+}
@@ -0,0 +1,79 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+
+public class LinkedJumpTest {
+
+	private static final String BRANCHES = "title: Start\n---\n"
+			+ "-> Alpha\n    A line\n-> Beta\n    B line\n"
+			+ "<<set $x to 2>>\n"
+			+ "<<if $x == 1>>\nOne\n<<elseif $x == 2>>\nTwo\n<<else>>\nOther\n<<endif>>\n"
+			+ "Done\n===\n";
+
+	private static void assertLinked(Program.Node node) {
+		for (Instruction instruction : node.instructions) {
+			ByteCode operation = instruction.getOperation();
+			assertNotEquals(ByteCode.Label, operation, node.name);
+			if (operation != ByteCode.JumpTo && operation != ByteCode.JumpIfFalse)
+				continue;
+
+			int target = (Integer) instruction.operandA();
+			assertTrue(target >= 0 && target <= node.instructions.size(), node.name + " jumps to " + target);
+			assertEquals(target, node.labelTarget((String) instruction.operandB()), node.name);
+		}
+	}
+
+	@Test
+	public void labelsAreLinkedAway() throws Exception {
+		int nodes = 0;
+		for (Path file : Fixtures.corpus(".yarn", ".json")) {
+			Dialogue dialogue = Fixtures.dialogue();
+			try {
+				dialogue.loadString(Fixtures.read(file), file.getFileName().toString());
+			} catch (RuntimeException e) {
+				//some files are there to fail
+				continue;
+			}
+			for (Program.Node node : dialogue.program.getNodes().values()) {
+				assertLinked(node);
+				nodes++;
+			}
+		}
+		assertTrue(nodes > 20);
+	}
+
+	@Test
+	public void branchesRunTheRightClause() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(BRANCHES, "Branches.yarn");
+
+		assertEquals("start Start\n"
+				+ "options [Alpha, Beta]\n"
+				+ "line A line\n"
+				+ "line Two\n"
+				+ "line Done\n"
+				+ "complete null\n", Fixtures.transcript(dialogue, "Start"));
+	}
+
+	@Test
+	public void dumpsStillNameTheLabels() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(BRANCHES, "Branches.yarn");
+
+		String code = dialogue.getByteCode();
+		Program.Node start = dialogue.program.getNode("Start");
+		assertTrue(start.labelCount() > 0);
+		for (int i = 0; i < start.labelCount(); i++)
+			assertTrue(code.contains(start.labelName(i)), start.labelName(i));
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.jupiter.api.Test;
+
+public class MappedProgramTest {
+
+	@Test
+	public void nodesAreDecodedWhenAskedFor() throws IOException {
+		Dialogue source = Fixtures.space();
+		Program program = new ProgramReader().map(Fixtures.compiled(source));
+
+		assertEquals(source.allNodes(), program.nodeNames());
+		assertEquals(source.allNodes().size(), program.nodeCount());
+		assertTrue(program.containsNode("Sally"));
+		assertFalse(program.containsNode("Nobody"));
+		assertNull(program.getNode("Nobody"));
+		assertEquals(source.allNodes(), program.pendingNodeNames());
+
+		Program.Node sally = program.getNode("Sally");
+		assertEquals("Sally", sally.name);
+		assertSame(sally, program.getNode("Sally"));
+		assertFalse(program.pendingNodeNames().contains("Sally"));
+		assertEquals(source.allNodes().size() - 1, program.pendingNodeNames().size());
+
+		assertEquals(source.allNodes(), program.getNodes().keySet());
+		assertTrue(program.pendingNodeNames().isEmpty());
+		assertSame(sally, program.getNodes().get("Sally"));
+	}
+
+	@Test
+	public void mappedProgramsMatchTheSource() throws IOException {
+		Dialogue source = Fixtures.space();
+		Dialogue mapped = Fixtures.dialogue();
+		mapped.loadCompiledMapped(Fixtures.compiled(source));
+
+		//nodes decoded one at a time join the program in the order they are asked
+		//for, so compare the whole program before running anything
+		assertEquals(source.getByteCode(), mapped.getByteCode());
+		assertEquals(source.getStringTable(), mapped.getStringTable());
+		for (String node : source.allNodes())
+			assertEquals(Fixtures.transcript(source, node), Fixtures.transcript(mapped, node), node);
+	}
+
+	@Test
+	public void changedFilesFailTheChecksum() throws IOException {
+		File file = Fixtures.compiled(Fixtures.space());
+		RandomAccessFile changed = new RandomAccessFile(file, "rw");
+		try {
+			changed.seek(changed.length() / 2);
+			int b = changed.read();
+			changed.seek(changed.length() / 2);
+			changed.write(b ^ 0x10);
+		} finally {
+			changed.close();
+		}
+
+		IOException e = assertThrows(IOException.class, () -> new ProgramReader().map(file));
+		assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+	}
+
+}
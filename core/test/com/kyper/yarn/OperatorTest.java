@@ -0,0 +1,70 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Lexer.TokenType;
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+
+public class OperatorTest {
+
+	private static final String[] OPERANDS = { "3", "0", "-2.5", "true", "false", "\"a\"", "null" };
+
+	//the operator as written and the standard library function it stands for
+	private static final String[][] OPERATORS = { { "+", TokenType.Add.name() }, { "-", TokenType.Minus.name() },
+			{ "*", TokenType.Multiply.name() }, { "/", TokenType.Divide.name() }, { "%", TokenType.Modulo.name() },
+			{ "==", TokenType.EqualTo.name() }, { "!=", TokenType.NotEqualTo.name() },
+			{ ">", TokenType.GreaterThan.name() }, { ">=", TokenType.GreaterThanOrEqualTo.name() },
+			{ "<", TokenType.LessThan.name() }, { "<=", TokenType.LessThanOrEqualTo.name() },
+			{ "and", TokenType.And.name() }, { "or", TokenType.Or.name() }, { "xor", TokenType.Xor.name() } };
+
+	private static String result(String expression, String function) {
+		final Dialogue dialogue = Fixtures.dialogue();
+		if (function != null) {
+			dialogue.library.registerFunction("call_operator", 2, (Library.ReturningFunc) params -> dialogue.library
+					.getFunction(function).invoke(params[0], params[1]));
+		}
+		try {
+			dialogue.loadString("title: Start\n---\n<<set $x to " + expression + ">>\n===\n", "Operators.yarn");
+			Fixtures.transcript(dialogue, "Start");
+		} catch (RuntimeException e) {
+			return "exception " + e.getClass().getSimpleName();
+		}
+		Value x = dialogue.continuity.getValue("$x");
+		return x.getType() + " " + x.getNumberValue() + " " + x.getBoolValue() + " " + x.getStringValue();
+	}
+
+	@Test
+	public void operatorsCompileToTheirOwnInstructions() {
+		Dialogue dialogue = Fixtures.dialogue();
+		//Full would fold the constants away
+		dialogue.getLoader().setOptimization(Optimizer.Level.None);
+		dialogue.loadString("title: Start\n---\n<<set $x to 10 - 4 * 2>>\n<<set $y to !($x == 2)>>\n===\n",
+				"Operators.yarn");
+
+		boolean subtract = false;
+		for (Instruction instruction : dialogue.program.getNode("Start").instructions) {
+			assertFalse(instruction.getOperation() == ByteCode.CallFunc, instruction.toString());
+			subtract |= instruction.getOperation() == ByteCode.Subtract;
+		}
+		assertTrue(subtract);
+	}
+
+	@Test
+	public void instructionsMatchTheLibraryFunctions() {
+		for (String[] operator : OPERATORS) {
+			for (String a : OPERANDS) {
+				for (String b : OPERANDS) {
+					String expression = a + " " + operator[0] + " " + b;
+					assertEquals(result("call_operator(" + a + ", " + b + ")", operator[1]), result(expression, null),
+							expression);
+				}
+			}
+		}
+	}
+
+}
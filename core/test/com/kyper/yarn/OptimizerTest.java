@@ -0,0 +1,219 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.CommandResult;
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Dialogue.NodeCompleteResult;
+import com.kyper.yarn.Dialogue.OptionResult;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Optimizer.Level;
+import com.kyper.yarn.Program.ByteCode;
+import com.kyper.yarn.Program.Instruction;
+
+public class OptimizerTest {
+
+	private static final String TESTS = "test/resources/Tests";
+
+	/**
+	 * writes down every variable the machine sets
+	 */
+	private static class RecordingStorage extends MemoryVariableStorage {
+		private final StringBuilder out;
+
+		RecordingStorage(StringBuilder out) {
+			this.out = out;
+		}
+
+		@Override
+		public void setValue(String name, Value value) {
+			out.append("set ").append(name).append(' ').append(value.getType()).append(' ')
+					.append(value.getNumberValue()).append(' ').append(value.getBoolValue()).append(' ')
+					.append(value.getStringValue()).append('\n');
+			super.setValue(name, value);
+		}
+	}
+
+	private static Dialogue dialogue(StringBuilder out, Level level) {
+		Dialogue dialogue = new Dialogue(new RecordingStorage(out), message -> {
+		}, message -> out.append("error ").append(message).append('\n'));
+		dialogue.getLoader().setOptimization(level);
+		dialogue.library.registerFunction("assert", -1, (Library.Function) params -> {
+			if (!params[0].asBool())
+				out.append("assert failed\n");
+		});
+		dialogue.library.registerFunction("add_three_operands", 3,
+				(Library.ReturningFunc) params -> params[0].add(params[1]).add(params[2]));
+		dialogue.library.registerFunction("last_value", -1,
+				(Library.ReturningFunc) params -> params[params.length - 1]);
+		return dialogue;
+	}
+
+	private static void run(Dialogue dialogue, String start, StringBuilder out) {
+		out.append("start ").append(start).append('\n');
+		if (!dialogue.start(start))
+			return;
+		RunnerResult result;
+		int steps = 0;
+		while ((result = dialogue.getNext()) != null && steps++ < 500) {
+			if (result instanceof LineResult) {
+				out.append("line ").append(((LineResult) result).getText()).append('\n');
+			} else if (result instanceof CommandResult) {
+				out.append("command ").append(((CommandResult) result).getCommand()).append('\n');
+			} else if (result instanceof OptionResult) {
+				out.append("options ").append(((OptionResult) result).getOptions()).append('\n');
+				((OptionResult) result).choose(0);
+			} else if (result instanceof NodeCompleteResult) {
+				String next = ((NodeCompleteResult) result).next_node;
+				out.append("complete ").append(next).append('\n');
+				if (next == null)
+					break;
+			}
+		}
+	}
+
+	private static String transcript(Path file, Level level) throws IOException {
+		String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		StringBuilder out = new StringBuilder();
+		Dialogue dialogue = dialogue(out, level);
+		try {
+			dialogue.loadString(text, file.getFileName().toString());
+			for (String node : new TreeSet<String>(dialogue.allNodes()))
+				run(dialogue, node, out);
+		} catch (RuntimeException e) {
+			out.append("exception ").append(e.getMessage()).append('\n');
+		}
+		return out.toString();
+	}
+
+	private static String transcript(String body, Level level) {
+		StringBuilder out = new StringBuilder();
+		Dialogue dialogue = dialogue(out, level);
+		dialogue.loadString("title: Start\n---\n" + body + "\n===\n", "Start.yarn");
+		run(dialogue, "Start", out);
+		return out.toString();
+	}
+
+	private static List<Path> corpus() throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (Stream<Path> paths = Files.walk(Paths.get(TESTS))) {
+			paths.filter(path -> path.toString().endsWith(".yarn") || path.toString().endsWith(".json"))
+					.forEach(files::add);
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	@Test
+	public void everyLevelRunsTheCorpusTheSame() throws IOException {
+		List<Path> files = corpus();
+		assertTrue(files.size() > 10);
+
+		for (Path file : files) {
+			//the options come out in a different order every run
+			if (file.getFileName().toString().equals("RandomOptions.yarn"))
+				continue;
+
+			String none = transcript(file, Level.None);
+			assertEquals(none, transcript(file, Level.Basic), file + " at Basic");
+			assertEquals(none, transcript(file, Level.Full), file + " at Full");
+		}
+	}
+
+	@Test
+	public void foldingKeepsTheOperandOrder() {
+		//values are popped in the order they were pushed, so the left operand is
+		//the one the machine pops second
+		String[] bodies = { "<<set $x to 10 - 4>>", "<<set $x to 12 / 3>>", "<<set $x to 7 % 3>>",
+				"<<set $x to 1 + 2 * 3 - 4 / 2>>", "<<set $x to 5 > 3>>", "<<set $x to 3 <= 1>>",
+				"<<set $x to true and false or true>>", "<<set $x to -(8 - 10)>>" };
+
+		for (String body : bodies) {
+			String none = transcript(body, Level.None);
+			assertEquals(none, transcript(body, Level.Basic), body);
+			assertEquals(none, transcript(body, Level.Full), body);
+		}
+	}
+
+	@Test
+	public void fullFoldsConstantExpressions() {
+		Dialogue dialogue = dialogue(new StringBuilder(), Level.Full);
+		dialogue.loadString("title: Start\n---\n<<set $x to 10 - 4>>\n===\n", "Start.yarn");
+
+		int pushes = 0;
+		for (Instruction instruction : dialogue.program.getNode("Start").instructions) {
+			if (instruction.getOperation() == ByteCode.PushNumber)
+				pushes++;
+		}
+		assertEquals(1, pushes);
+	}
+
+	@Test
+	public void ifClausesLeaveTheStackEmpty() {
+		//the condition used to stay on the stack when the clause ran, and came off
+		//the bottom of the stack in place of the next value the node pushed
+		String body = "<<if true>>\nHi\n<<endif>>\n<<set $x to 10 - 4>>\n[[Go|Next]]\n[[Stay|Start]]";
+		for (Level level : Level.values()) {
+			Dialogue dialogue = Fixtures.dialogue();
+			dialogue.getLoader().setOptimization(level);
+			dialogue.loadString("title: Start\n---\n" + body + "\n===\ntitle: Next\n---\nThere\n===\n", "Start.yarn");
+			assertEquals("start Start\n"
+					+ "line Hi\n"
+					+ "options [Go, Stay]\n"
+					+ "complete Next\n"
+					+ "line There\n"
+					+ "complete null\n", Fixtures.transcript(dialogue, "Start"), level.toString());
+			assertEquals(6, dialogue.continuity.getValue("$x").getNumberValue(), level.toString());
+		}
+	}
+
+	@Test
+	public void fullFoldsAfterAnIf() {
+		Dialogue dialogue = dialogue(new StringBuilder(), Level.Full);
+		dialogue.loadString("title: Start\n---\n<<if $y == 1>>\nOne\n<<else>>\nOther\n<<endif>>\n"
+				+ "<<set $x to 10 - 4>>\n===\n", "Start.yarn");
+
+		int subtracts = 0;
+		for (Instruction instruction : dialogue.program.getNode("Start").instructions) {
+			if (instruction.getOperation() == ByteCode.Subtract)
+				subtracts++;
+		}
+		assertEquals(0, subtracts);
+	}
+
+	@Test
+	public void callsAreNotOptimizedAcross() {
+		//pick takes any number of parameters when the node is compiled but is
+		//swapped for one that takes exactly one before it runs, which leaves the
+		//parameter count on the stack
+		String body = "<<set $z to pick(1)>>\n<<set $x to 10 - 4>>\n<<set $y to 3>>";
+		String[] transcripts = new String[Level.values().length];
+		for (Level level : Level.values()) {
+			StringBuilder out = new StringBuilder();
+			Dialogue dialogue = dialogue(out, level);
+			dialogue.library.registerFunction("pick", -1, (Library.ReturningFunc) params -> params[0]);
+			dialogue.loadString("title: Start\n---\n" + body + "\n===\n", "Start.yarn");
+			dialogue.library.registerFunction("pick", 1, (Library.ReturningFunc) params -> params[0]);
+			run(dialogue, "Start", out);
+			transcripts[level.ordinal()] = out.toString();
+		}
+		assertEquals(transcripts[0], transcripts[1]);
+		assertEquals(transcripts[0], transcripts[2]);
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+public class ParallelLoadTest {
+
+	private static String compile(Path file, ExecutorService executor) throws IOException {
+		String text = Fixtures.read(file);
+		StringBuilder errors = new StringBuilder();
+		Dialogue dialogue = Fixtures.dialogue(message -> errors.append(message).append('\n'));
+		dialogue.getLoader().setExecutor(executor);
+		try {
+			dialogue.loadString(text, file.getFileName().toString());
+		} catch (RuntimeException e) {
+			return "exception " + e.getMessage() + "\n" + errors;
+		}
+		return dialogue.allNodes() + "\n" + dialogue.getByteCode() + errors;
+	}
+
+	@Test
+	public void parallelLoadsCompileLikeSerialOnes() throws IOException {
+		List<Path> files = Fixtures.corpus(".yarn", ".json");
+		assertTrue(files.size() > 10);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (Path file : files)
+				assertEquals(compile(file, null), compile(file, executor), file.toString());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void manyNodesKeepTheirOrder() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			text.append("title: Node").append(i).append("\n---\n");
+			text.append("<<set $n to ").append(i).append(" + 1>>\nLine ").append(i).append("\n[[Node")
+					.append((i + 1) % 200).append("]]\n===\n");
+		}
+
+		Dialogue serial = Fixtures.dialogue();
+		serial.loadString(text.toString(), "Many.yarn");
+
+		Dialogue parallel = Fixtures.dialogue();
+		parallel.getLoader().setParallel(true);
+		parallel.loadString(text.toString(), "Many.yarn");
+
+		assertEquals(new ArrayList<String>(serial.allNodes()), new ArrayList<String>(parallel.allNodes()));
+		assertEquals(serial.getByteCode(), parallel.getByteCode());
+	}
+
+}
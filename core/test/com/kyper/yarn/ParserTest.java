@@ -0,0 +1,131 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Lexer.TokenType;
+import com.kyper.yarn.Program.ParseException;
+
+public class ParserTest {
+
+	private static Parser parser(String body) {
+		return new Parser(new Lexer().tokenise(body), Fixtures.dialogue().library);
+	}
+
+	@Test
+	public void cursorLooksAheadWithoutConsuming() {
+		Parser parser = parser("<<set $a to 1>>");
+		int count = parser.remaining();
+
+		assertTrue(parser.nextSymbolIs(TokenType.BeginCommand));
+		assertTrue(parser.nextSymbolsAre(TokenType.BeginCommand, TokenType.Set, TokenType.Variable));
+		assertFalse(parser.nextSymbolsAre(TokenType.BeginCommand, TokenType.If));
+		assertEquals(count, parser.remaining());
+
+		TokenType[] too_many = new TokenType[count + 1];
+		for (int i = 0; i < too_many.length; i++)
+			too_many[i] = TokenType.BeginCommand;
+		assertFalse(parser.nextSymbolsAre(too_many));
+		assertEquals(count, parser.remaining());
+
+		Lexer.Token begin = parser.peek();
+		assertEquals(begin.toString(), parser.expectSymbol(TokenType.BeginCommand).toString());
+		assertEquals(count - 1, parser.remaining());
+		assertEquals(TokenType.Set, parser.expectSymbol(TokenType.If, TokenType.Set).type);
+		assertEquals("$a", parser.expectSymbol().value());
+	}
+
+	@Test
+	public void unexpectedSymbolsAreReported() {
+		Parser parser = parser("<<set $a to 1>>");
+		ParseException e = assertThrows(ParseException.class, () -> parser.expectSymbol(TokenType.OptionStart));
+		assertTrue(e.getMessage().contains(TokenType.OptionStart.name()), e.getMessage());
+
+		Parser empty = parser("");
+		while (empty.peek().type != TokenType.EndOfInput)
+			empty.expectSymbol();
+		assertThrows(ParseException.class, () -> empty.expectSymbol());
+	}
+
+	@Test
+	public void symbolsCanBeConsumedWithoutTokens() {
+		Parser parser = parser("<<set $a to \"hi\">>");
+		int count = parser.remaining();
+
+		parser.skipSymbol(TokenType.BeginCommand);
+		assertEquals(TokenType.Set, parser.expectType(TokenType.If, TokenType.Set));
+		assertEquals("$a", parser.expectValue(TokenType.Variable));
+		parser.skipSymbol();
+		assertEquals("hi", parser.expectValue(TokenType.Number, TokenType.Str));
+		assertEquals(count - 5, parser.remaining());
+
+		ParseException e = assertThrows(ParseException.class, () -> parser.skipSymbol(TokenType.OptionStart));
+		assertTrue(e.getMessage().contains(TokenType.OptionStart.name()), e.getMessage());
+		assertThrows(ParseException.class, () -> parser("<<if>>").expectType(TokenType.Set, TokenType.Text));
+
+		Parser empty = parser("");
+		while (!empty.nextSymbolIs(TokenType.EndOfInput))
+			empty.skipSymbol();
+		assertThrows(ParseException.class, () -> empty.skipSymbol());
+	}
+
+	@Test
+	public void statementsNeedingLookaheadParse() {
+		String body = "<<if $x == 1>>\nOne\n<<elseif $x>>\nTwo\n<<else>>\nThree\n<<endif>>\n"
+				+ "-> A\n    in a\n[[Go|Dest]]\n<<set $y to visited(\"A\") + 3>>";
+		assertEquals("Node Start {\n"
+				+ "| If:\n"
+				+ "| | Function call to EqualTo (2 parameters) {\n"
+				+ "| | | 1.0\n"
+				+ "| | | $x\n"
+				+ "| | }\n"
+				+ "| | {\n"
+				+ "| | | Line: One\n"
+				+ "| | }\n"
+				+ "| Else If:\n"
+				+ "| | $x\n"
+				+ "| | {\n"
+				+ "| | | Line: Two\n"
+				+ "| | }\n"
+				+ "| Else:\n"
+				+ "| | {\n"
+				+ "| | | Line: Three\n"
+				+ "| | }\n"
+				+ "| Shortcut option group {\n"
+				+ "| | Option \"A\"\n"
+				+ "| | {\n"
+				+ "| | | Node Start.1 {\n"
+				+ "| | | | Line: in a\n"
+				+ "| | | }\n"
+				+ "| | }\n"
+				+ "| }\n"
+				+ "| Option: \"Go\" -> Dest\n"
+				+ "| Set:\n"
+				+ "| | $y\n"
+				+ "| | EqualToOrAssign\n"
+				+ "| | Function call to Add (2 parameters) {\n"
+				+ "| | | 3.0\n"
+				+ "| | | Function call to visited (1 parameters) {\n"
+				+ "| | | | \"A\"\n"
+				+ "| | | }\n"
+				+ "| | }\n"
+				+ "}\n", parser(body).parse().printTree(0));
+	}
+
+	@Test
+	public void longNodesParse() {
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			body.append("<<if $x == ").append(i).append(">>\nLine ").append(i).append("\n<<else>>\nOther\n<<endif>>\n");
+
+		Parser parser = parser(body.toString());
+		String tree = parser.parse().printTree(0);
+		assertEquals(0, parser.remaining() - 1);
+		assertEquals(2000, tree.split("If:", -1).length - 1);
+	}
+
+}
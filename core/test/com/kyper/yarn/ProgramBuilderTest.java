@@ -0,0 +1,70 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgramBuilderTest {
+
+	private static String file(String... titles) {
+		StringBuilder text = new StringBuilder();
+		for (String title : titles)
+			text.append("title: ").append(title).append("\n---\n").append(title).append(" line\n===\n");
+		return text.toString();
+	}
+
+	@Test
+	public void loadsAppendToOneProgram() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(file("A", "B"), "First.yarn");
+		Program program = dialogue.program;
+		Program.Node a = program.getNode("A");
+
+		dialogue.loadString(file("C"), "Second.yarn");
+		dialogue.loadString(file("D", "E"), "Third.yarn");
+
+		//the same program grows, the nodes already in it are not copied
+		assertSame(program, dialogue.program);
+		assertSame(a, dialogue.program.getNode("A"));
+		assertEquals(Arrays.asList("A", "B", "C", "D", "E"), new ArrayList<String>(program.nodeNames()));
+		assertEquals("start E\nline E line\ncomplete null\n", Fixtures.transcript(dialogue, "E"));
+	}
+
+	@Test
+	public void duplicateNodesAreRejected() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(file("A"), "First.yarn");
+
+		IllegalStateException e = assertThrows(IllegalStateException.class,
+				() -> dialogue.loadString(file("B", "A"), "Second.yarn"));
+		assertTrue(e.getMessage().contains("A"), e.getMessage());
+	}
+
+	@Test
+	public void frozenProgramsTakeNoMoreLoads() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(file("A"), "First.yarn");
+		Program frozen = dialogue.freeze();
+
+		assertTrue(frozen.isFrozen());
+		assertSame(frozen, dialogue.program);
+		assertSame(frozen, dialogue.freeze());
+		assertThrows(IllegalStateException.class, () -> dialogue.loadString(file("B"), "Second.yarn"));
+		assertThrows(IllegalStateException.class, () -> dialogue.addStringTable(new HashMap<String, String>()));
+		assertEquals("start A\nline A line\ncomplete null\n", Fixtures.transcript(dialogue, "A"));
+
+		dialogue.unloadAll();
+		dialogue.loadString(file("B"), "Second.yarn");
+		assertFalse(dialogue.program.isFrozen());
+		assertEquals(Arrays.asList("B"), new ArrayList<String>(dialogue.program.nodeNames()));
+	}
+
+}
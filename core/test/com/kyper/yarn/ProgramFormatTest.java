@@ -0,0 +1,99 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgramFormatTest {
+
+	private static List<Dialogue> corpus() throws IOException {
+		List<Dialogue> dialogues = new ArrayList<Dialogue>();
+		for (Path file : Fixtures.corpus(".yarn", ".json")) {
+			Dialogue dialogue = Fixtures.dialogue();
+			try {
+				dialogue.loadString(Fixtures.read(file), file.getFileName().toString());
+			} catch (RuntimeException e) {
+				//some files are there to fail
+				continue;
+			}
+			dialogues.add(dialogue);
+		}
+		return dialogues;
+	}
+
+	private static byte[] space() throws IOException {
+		return new ProgramWriter().write(Fixtures.space().program);
+	}
+
+	@Test
+	public void programsReadBackTheSame() throws IOException {
+		List<Dialogue> dialogues = corpus();
+		assertTrue(dialogues.size() > 10);
+
+		for (Dialogue dialogue : dialogues) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			dialogue.saveCompiled(out);
+
+			Dialogue loaded = Fixtures.dialogue();
+			loaded.loadCompiled(new ByteArrayInputStream(out.toByteArray()));
+
+			assertEquals(dialogue.allNodes(), loaded.allNodes());
+			assertEquals(dialogue.getByteCode(), loaded.getByteCode());
+			assertEquals(dialogue.getStringTable(), loaded.getStringTable());
+			assertEquals(dialogue.getTextForAllNodes(), loaded.getTextForAllNodes());
+		}
+	}
+
+	@Test
+	public void writingIsRepeatable() throws IOException {
+		byte[] bytes = space();
+		assertTrue(Arrays.equals(bytes, space()));
+		assertTrue(Arrays.equals(bytes, new ProgramWriter().write(new ProgramReader().read(bytes))));
+	}
+
+	@Test
+	public void changedBytesFailTheChecksum() throws IOException {
+		byte[] bytes = space();
+		for (int i = ProgramWriter.MAGIC.length + 4; i < bytes.length; i += 7) {
+			byte[] changed = bytes.clone();
+			changed[i] ^= 0x10;
+			IOException e = assertThrows(IOException.class, () -> new ProgramReader().read(changed));
+			assertTrue(e.getMessage().contains("checksum"), e.getMessage());
+		}
+	}
+
+	@Test
+	public void truncatedProgramsAreRejected() throws IOException {
+		byte[] bytes = space();
+		for (int length = 0; length < bytes.length; length++) {
+			byte[] truncated = Arrays.copyOf(bytes, length);
+			assertThrows(IOException.class, () -> new ProgramReader().read(truncated), "truncated to " + length);
+		}
+	}
+
+	@Test
+	public void otherFilesAreRejected() throws IOException {
+		byte[] bytes = space();
+
+		byte[] magic = bytes.clone();
+		magic[0] = 'X';
+		IOException e = assertThrows(IOException.class, () -> new ProgramReader().read(magic));
+		assertEquals("Not a compiled yarn program", e.getMessage());
+
+		byte[] version = bytes.clone();
+		version[ProgramWriter.MAGIC.length + 3]++;
+		e = assertThrows(IOException.class, () -> new ProgramReader().read(version));
+		assertTrue(e.getMessage().startsWith("Unsupported compiled yarn version"), e.getMessage());
+	}
+
+}
@@ -0,0 +1,177 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class ProgramFreezeTest {
+
+	private static Program mapped(Dialogue source) throws Exception {
+		return new ProgramReader().map(Fixtures.compiled(source));
+	}
+
+	@Test
+	public void frozenTablesMatchTheProgram() throws Exception {
+		Dialogue dialogue = Fixtures.space();
+		Program program = dialogue.program;
+		Map<String, String> strings = new HashMap<String, String>(dialogue.getStringTable());
+		String code = dialogue.getByteCode();
+
+		Program frozen = dialogue.freeze();
+		assertTrue(frozen.isFrozen());
+		assertSame(frozen, frozen.freeze());
+		assertEquals(strings, dialogue.getStringTable());
+		assertEquals(code, dialogue.getByteCode());
+		assertEquals(new ArrayList<String>(program.nodeNames()), new ArrayList<String>(frozen.nodeNames()));
+
+		Program.Node sally = frozen.getNode("Sally");
+		assertTrue(sally.labelCount() > 0);
+		for (int i = 0; i < sally.labelCount(); i++)
+			assertEquals(sally.labelTarget(i), sally.labelTarget(sally.labelName(i)));
+		assertEquals(NameTable.NOT_FOUND, sally.labelTarget("nowhere"));
+	}
+
+	@Test
+	public void frozenProgramsCanNotBeChanged() throws Exception {
+		Dialogue dialogue = Fixtures.space();
+		Program frozen = dialogue.freeze();
+
+		assertThrows(IllegalStateException.class, () -> frozen.loadStrings(new HashMap<String, String>()));
+		assertThrows(IllegalStateException.class, () -> frozen.registerString("hi", "Sally", null, 1, false));
+		assertThrows(IllegalStateException.class, () -> frozen.include(new Program()));
+		assertThrows(IllegalStateException.class, () -> dialogue.loadString("title: More\n---\nHi\n===\n", "more.yarn"));
+		assertThrows(UnsupportedOperationException.class, () -> frozen.getNodes().remove("Sally"));
+		assertFalse(dialogue.nodeExists("More"));
+
+		//unloading makes room for a new program
+		dialogue.unloadAll();
+		dialogue.loadString("title: More\n---\nHi\n===\n", "more.yarn");
+		assertTrue(dialogue.nodeExists("More"));
+		assertFalse(dialogue.program.isFrozen());
+	}
+
+	@Test
+	public void frozenMapKeepsItsOrder() {
+		LinkedHashMap<String, Integer> map = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < 100; i++)
+			map.put("name" + (99 - i), i);
+
+		Program.FrozenMap<Integer> frozen = new Program.FrozenMap<Integer>(map);
+		assertEquals(map, frozen);
+		assertEquals(map.size(), frozen.size());
+		assertEquals(new ArrayList<String>(map.keySet()), new ArrayList<String>(frozen.keySet()));
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			assertTrue(frozen.containsKey(entry.getKey()));
+			assertEquals(entry.getValue(), frozen.get(entry.getKey()));
+		}
+		assertFalse(frozen.containsKey("name100"));
+		assertNull(frozen.get("name100"));
+		assertNull(frozen.get(null));
+		assertThrows(UnsupportedOperationException.class, () -> frozen.put("name0", 1));
+	}
+
+	@Test
+	public void nameTableGivesDenseSlots() {
+		List<String> names = Arrays.asList("$b", "$a", "$c");
+		NameTable table = new NameTable(names);
+		assertEquals(3, table.size());
+		for (int i = 0; i < names.size(); i++) {
+			assertEquals(i, table.indexOf(names.get(i)));
+			assertEquals(names.get(i), table.name(i));
+		}
+		assertEquals(NameTable.NOT_FOUND, table.indexOf("$d"));
+		assertEquals(NameTable.NOT_FOUND, table.indexOf(null));
+		assertThrows(IllegalArgumentException.class, () -> new NameTable(Arrays.asList("$a", "$a")));
+		assertThrows(IllegalArgumentException.class, () -> new NameTable(new String[] { null }));
+	}
+
+	@Test
+	public void freezingKeepsMappedNodesPending() throws Exception {
+		Dialogue source = Fixtures.space();
+		Program program = mapped(source);
+		int count = source.allNodes().size();
+		assertEquals(count, program.pendingNodeNames().size());
+
+		Program frozen = program.freeze();
+		assertTrue(frozen.isFrozen());
+		assertEquals(count, frozen.pendingNodeNames().size());
+
+		//asking what is there decodes nothing
+		assertEquals(source.allNodes(), frozen.nodeNames());
+		assertEquals(count, frozen.nodeCount());
+		assertTrue(frozen.containsNode("Sally"));
+		assertFalse(frozen.containsNode("Nobody"));
+		assertEquals(count, frozen.pendingNodeNames().size());
+
+		Program.Node sally = frozen.getNode("Sally");
+		assertSame(sally, frozen.getNode("Sally"));
+		assertFalse(frozen.pendingNodeNames().contains("Sally"));
+		assertEquals(count - 1, frozen.pendingNodeNames().size());
+
+		assertEquals(count, frozen.getNodes().size());
+		assertEquals(0, frozen.pendingNodeNames().size());
+		assertSame(sally, frozen.getNodes().get("Sally"));
+
+		assertThrows(IllegalStateException.class, () -> frozen.loadStrings(new HashMap<String, String>()));
+	}
+
+	@Test
+	public void threadsShareOneDecodedNode() throws Exception {
+		final Program frozen = mapped(Fixtures.space()).freeze();
+		final CountDownLatch go = new CountDownLatch(1);
+
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Program.Node>> nodes = new ArrayList<Future<Program.Node>>();
+			for (int i = 0; i < 8; i++) {
+				nodes.add(threads.submit(new Callable<Program.Node>() {
+					@Override
+					public Program.Node call() throws Exception {
+						go.await();
+						return frozen.getNode("Sally");
+					}
+				}));
+			}
+			go.countDown();
+
+			Program.Node first = nodes.get(0).get();
+			for (Future<Program.Node> node : nodes)
+				assertSame(first, node.get());
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+	@Test
+	public void lazyNodesCompileAfterFreezing() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.getLoader().setLazy(true);
+		dialogue.loadString("title: Start\n---\nHello\n[[Next]]\n===\n", "a.yarn");
+		dialogue.loadString("title: Next\n---\nWorld\n===\n", "b.yarn");
+
+		Program frozen = dialogue.freeze();
+		assertEquals(2, frozen.pendingNodeNames().size());
+
+		assertEquals("start Start\nline Hello\ncomplete Next\nline World\ncomplete null\n",
+				Fixtures.transcript(dialogue, "Start"));
+		assertEquals(0, frozen.pendingNodeNames().size());
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.VirtualMachine.ExecutionState;
+
+public class RunUntilSuspendTest {
+
+	private static final String NODES = "title: Start\n---\n<<set $x to 1>>\nA\n<<wave>>\nB\n"
+			+ "[[One|Next]]\n[[Two|Next]]\n===\n"
+			+ "title: Next\n---\nC\n===\n";
+
+	@Test
+	public void eachCallStopsAtOneResult() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(NODES, "Nodes.yarn");
+
+		List<RunnerResult> handled = new ArrayList<RunnerResult>();
+		VirtualMachine vm = new VirtualMachine(dialogue, dialogue.program);
+		vm.setLineHandler(handled::add);
+		vm.setCommandHandler(handled::add);
+		vm.setOptionsHandler(handled::add);
+		vm.setCompleteHandler(handled::add);
+		vm.setNode("Start");
+
+		StringBuilder out = new StringBuilder("start Start\n");
+		int calls = 0;
+		RunnerResult result;
+		while ((result = vm.runUntilSuspend()) != null) {
+			calls++;
+			//the handlers still see every result, and only the one it returns
+			assertEquals(calls, handled.size());
+			assertSame(handled.get(calls - 1), result);
+			if (Fixtures.describe(result, out))
+				break;
+		}
+
+		assertEquals(Fixtures.transcript(dialogue, "Start"), out.toString());
+		assertEquals(7, calls);
+		assertEquals(ExecutionState.Stopped, vm.getExecutionState());
+		assertNull(vm.runUntilSuspend());
+	}
+
+	@Test
+	public void stoppedDialoguesStayStopped() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(NODES, "Nodes.yarn");
+
+		assertEquals("start Start\nline A\ncommand wave\nline B\noptions [One, Two]\n"
+				+ "complete Next\nline C\ncomplete null\n", Fixtures.transcript(dialogue, "Start"));
+
+		//the last node is not replayed
+		assertNull(dialogue.getNext());
+		assertFalse(dialogue.isNextLine());
+		assertNull(dialogue.getNext());
+	}
+
+}
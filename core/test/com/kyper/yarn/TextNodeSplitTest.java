@@ -0,0 +1,125 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class TextNodeSplitTest {
+
+	private static final String TEXT = "title: Start\n"
+			+ "tags: one two\n"
+			+ "colorID: 3\n"
+			+ "position: 10,-20\n"
+			+ "---\n"
+			+ "A line\n"
+			+ "\n"
+			+ "[[Next]]\n"
+			+ "===\n"
+			+ "\n"
+			+ "title: Next\n"
+			+ "---\n"
+			+ "===\n"
+			+ "title: Last\n"
+			+ "---\n"
+			+ "The end";
+
+	private final List<String> errors = new ArrayList<String>();
+	private final Loader loader = new Loader(new Dialogue(new MemoryVariableStorage(), message -> {
+	}, message -> errors.add(message)));
+
+	private List<String> fromString(String text) {
+		return describe(loader.getNodesFromText(text, NodeFormat.Text));
+	}
+
+	private List<String> fromReader(String text) {
+		List<NodeInfo> nodes = new ArrayList<NodeInfo>();
+		Loader.TextNodeReader reader = loader.new TextNodeReader(new OneCharReader(text));
+		while (reader.hasNext())
+			nodes.add(reader.next());
+		return describe(nodes);
+	}
+
+	private static List<String> describe(List<NodeInfo> nodes) {
+		List<String> described = new ArrayList<String>();
+		for (NodeInfo node : nodes) {
+			String body = node.getBody().replace("\r\n", "\n");
+			described.add(node.getTitle() + "|" + node.getTags() + "|" + node.getColorID() + "|"
+					+ (node.getPosition() == null ? null : node.getPosition().getX() + "," + node.getPosition().getY())
+					+ "|" + body);
+		}
+		return described;
+	}
+
+	@Test
+	public void everyLineEndingSplitsTheSame() {
+		List<String> expected = fromString(TEXT);
+		assertEquals(3, expected.size());
+		assertEquals("Start|one two|3|10,-20|A line\n\n[[Next]]", expected.get(0));
+		assertEquals("Last|null|0|null|The end", expected.get(2));
+
+		for (String ending : new String[] { "\n", "\r\n", "\r" }) {
+			String text = TEXT.replace("\n", ending);
+			assertEquals(expected, fromString(text), "string with " + ending.length() + " char endings");
+			assertEquals(expected, fromReader(text), "reader with " + ending.length() + " char endings");
+		}
+		assertEquals(0, errors.size(), errors.toString());
+	}
+
+	@Test
+	public void textWithoutSentinelHasNoNodes() {
+		for (String text : new String[] { "", "title: Start\nno body", "title: Start\n---" }) {
+			errors.clear();
+			assertEquals(0, fromString(text).size());
+			List<String> string_errors = new ArrayList<String>(errors);
+
+			errors.clear();
+			assertEquals(0, fromReader(text).size());
+			assertEquals(string_errors, errors);
+			assertEquals(1, errors.size(), errors.toString());
+		}
+	}
+
+	@Test
+	public void headersWithoutBodyAreLogged() {
+		String text = "title: Start\n---\nHi\n===\ntitle: Broken\n";
+		assertEquals(1, fromString(text).size());
+		List<String> string_errors = new ArrayList<String>(errors);
+
+		errors.clear();
+		assertEquals(1, fromReader(text).size());
+		assertEquals(string_errors, errors);
+		assertEquals(1, errors.size(), errors.toString());
+	}
+
+	/**
+	 * hands out a character at a time, so line endings are split across reads
+	 */
+	private static class OneCharReader extends Reader {
+		private final Reader reader;
+
+		OneCharReader(String text) {
+			reader = new StringReader(text);
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			return reader.read(buffer, offset, Math.min(length, 1));
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Loader.NodeFormat;
+import com.kyper.yarn.Loader.NodeInfo;
+
+public class TextSliceTest {
+
+	@Test
+	public void slicesReadThroughToTheirSource() {
+		String source = "title: A\n---\nHello there\n===\n";
+		TextSlice slice = new TextSlice(source, 13, 24);
+
+		assertEquals(11, slice.length());
+		assertEquals('H', slice.charAt(0));
+		assertEquals("Hello there", slice.toString());
+		assertEquals("there", slice.subSequence(6, 11).toString());
+		assertSame(source, ((TextSlice) slice.subSequence(6, 11)).getSource());
+
+		assertThrows(IndexOutOfBoundsException.class, () -> slice.charAt(11));
+		assertThrows(IndexOutOfBoundsException.class, () -> new TextSlice(source, 20, 40));
+	}
+
+	@Test
+	public void loadedBodiesAreSlicesOfTheFile() {
+		String text = "title: A\n---\nHello there\n===\ntitle: B\n---\n<<set $x to 1>>\nBye\n===\n";
+		List<NodeInfo> nodes = new Loader(Fixtures.dialogue()).getNodesFromText(text, NodeFormat.Text);
+
+		assertEquals(2, nodes.size());
+		CharSequence body = nodes.get(1).getBodyText();
+		assertTrue(body instanceof TextSlice, body.getClass().getName());
+		assertSame(text, ((TextSlice) body).getSource());
+		assertEquals("<<set $x to 1>>\nBye", body.toString().trim());
+		assertEquals(body.toString(), nodes.get(1).getBody());
+
+		//once a body has been asked for as a string the slice is let go
+		assertSame(nodes.get(1).getBody(), nodes.get(1).getBodyText());
+	}
+
+	@Test
+	public void slicedBodiesTokeniseLikeStrings() {
+		String text = "title: A\n---\n-> One <<if $x>>\n    <<set $y to \"two\">>\n[[Three|B]]\n===\n";
+		NodeInfo node = new Loader(Fixtures.dialogue()).getNodesFromText(text, NodeFormat.Text).get(0);
+
+		TokenBuffer sliced = new Lexer().tokenise(node.getBodyText());
+		TokenBuffer copied = new Lexer().tokenise(node.getBodyText().toString());
+		assertEquals(copied.size(), sliced.size());
+		for (int i = 0; i < copied.size(); i++)
+			assertEquals(copied.token(i).toString(), sliced.token(i).toString());
+	}
+
+}
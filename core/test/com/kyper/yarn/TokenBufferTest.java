@@ -0,0 +1,69 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Lexer.TokenType;
+
+public class TokenBufferTest {
+
+	@Test
+	public void valuesAreSlicedOnceWhenAskedFor() {
+		TokenBuffer tokens = new Lexer().tokenise("<<set $a to \"hello\">>");
+
+		assertEquals(TokenType.Str, tokens.type(4));
+		assertEquals(7, tokens.length(4));
+		String value = tokens.value(4);
+		assertEquals("hello", value);
+		assertSame(value, tokens.value(4));
+		assertEquals("hello", tokens.token(4).value());
+
+		int end = tokens.size() - 1;
+		assertEquals(TokenType.EndOfInput, tokens.type(end));
+		assertEquals(0, tokens.length(end));
+		assertNull(tokens.value(end));
+	}
+
+	@Test
+	public void tokensKeepWhereTheyWereFound() {
+		TokenBuffer tokens = new Lexer().tokenise("First\n-> Option\n    <<go>>");
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < tokens.size(); i++) {
+			out.append(tokens.type(i)).append(' ').append(tokens.line(i)).append(':').append(tokens.column(i))
+					.append(' ').append(tokens.lexerState(i)).append('\n');
+		}
+		assertEquals("Text 1:5 base\n"
+				+ "ShortcutOption 2:3 base\n"
+				+ "Text 2:9 shortcut-option\n"
+				+ "Indent 3:0 base\n"
+				+ "BeginCommand 3:6 base\n"
+				+ "Identifier 3:8 command\n"
+				+ "EndCommand 3:10 command-or-expression\n"
+				+ "Dedent 4:0 base\n"
+				+ "EndOfInput 5:0 base\n", out.toString());
+	}
+
+	@Test
+	public void buffersGrowAndClear() {
+		Lexer lexer = new Lexer();
+		lexer.tokenise("");
+		TokenBuffer tokens = new TokenBuffer(LexerGrammar.get(), 1);
+		String line = "<<set $a to 1 + 2 + 3>>";
+		tokens.setSource(line);
+		lexer.tokeniseLine(line, 0, line.length(), 1, tokens);
+		assertEquals(10, tokens.size());
+		assertEquals("3", tokens.value(8));
+
+		tokens.clear();
+		assertEquals(0, tokens.size());
+		line = "<<set $b to 4>>";
+		tokens.setSource(line);
+		lexer.tokeniseLine(line, 0, line.length(), 1, tokens);
+		assertEquals("$b", tokens.value(2));
+		assertEquals("4", tokens.value(4));
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+public class ValueStackTest {
+
+	private static VirtualMachine.State stack() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString("title: Start\n---\nHi\n===\n", "Start.yarn");
+		return new VirtualMachine(dialogue, dialogue.program).new State();
+	}
+
+	@Test
+	public void valuesComeOffInTheOrderTheyWentOn() {
+		VirtualMachine.State stack = stack();
+		Value other = Value.defaultValue(Value.Type.VARNAME);
+		stack.pushNumber(2.5f);
+		stack.pushBool(true);
+		stack.pushNull();
+		stack.pushString("hi");
+		stack.pushValue(other);
+
+		assertEquals(VirtualMachine.State.NUMBER, stack.peekType(0));
+		assertEquals(VirtualMachine.State.OTHER, stack.peekType(4));
+		assertEquals(2.5f, stack.peekNumber(0));
+		assertEquals(2.5f, stack.popNumber());
+		assertTrue(stack.popBool());
+		assertSame(Value.NULL, stack.popValue());
+		assertEquals("hi", stack.peekString());
+		assertEquals(Value.of("hi"), stack.popValue());
+		assertEquals(Value.Type.VARNAME, stack.popValue().getType());
+		assertNull(stack.peekValue());
+		assertThrows(NoSuchElementException.class, () -> stack.popValue());
+	}
+
+	@Test
+	public void valuesAreReadLikeValuesWouldBe() {
+		VirtualMachine.State stack = stack();
+		stack.pushString("");
+		stack.pushString("3");
+		stack.pushNumber(Float.NaN);
+		stack.pushValue(Value.of(7f));
+		stack.pushValue((Object) false);
+
+		assertFalse(stack.popBool());
+		assertEquals(3f, stack.popNumber());
+		assertFalse(stack.popBool());
+		assertEquals(Value.of(7f), stack.popValue());
+		assertEquals(VirtualMachine.State.BOOL, stack.peekType(0));
+		assertFalse(stack.popBool());
+	}
+
+	@Test
+	public void theStackGrowsAndSlides() {
+		VirtualMachine.State stack = stack();
+		//taking some off first leaves room at the start to slide into
+		for (int i = 0; i < 3; i++)
+			stack.pushNumber(i);
+		assertEquals(0f, stack.popNumber());
+		assertEquals(1f, stack.popNumber());
+		for (int i = 3; i < 40; i++)
+			stack.pushNumber(i);
+		for (int i = 2; i < 40; i++)
+			assertEquals((float) i, stack.popNumber());
+		assertNull(stack.peekValue());
+
+		stack.pushString("left");
+		stack.clearValueStack();
+		assertNull(stack.peekValue());
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.YarnRuntimeException;
+
+public class ValueTest {
+
+	@Test
+	public void commonValuesAreShared() {
+		assertSame(Value.TRUE, Value.of(true));
+		assertSame(Value.FALSE, Value.of((Object) false));
+		assertSame(Value.NULL, Value.of((String) null));
+		assertSame(Value.NULL, Value.of((Object) null));
+		assertSame(Value.of(7f), Value.of(7));
+		assertSame(Value.of(-128f), Value.of(-128f));
+		assertSame(Value.of(1024f), Value.of(1024.0));
+
+		//outside the shared range values are made as needed
+		assertNotSame(Value.of(1025f), Value.of(1025f));
+		assertEquals(Value.of(1025f), Value.of(1025f));
+		assertNotSame(Value.of(0.5f), Value.of(0.5f));
+
+		//negative zero keeps its sign
+		assertEquals(Float.floatToRawIntBits(-0f), Float.floatToRawIntBits(Value.of(-0f).getNumberValue()));
+
+		Value hi = Value.of("hi");
+		assertSame(hi, Value.of((Object) hi));
+		assertThrows(YarnRuntimeException.class, () -> Value.of(new Object()));
+	}
+
+	@Test
+	public void valuesNeverChange() {
+		for (Field field : Value.class.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers()))
+				assertTrue(Modifier.isFinal(field.getModifiers()), field.getName());
+		}
+		assertTrue(Modifier.isFinal(Value.class.getModifiers()));
+
+		Value two = Value.of(2f);
+		Value three = Value.of(3f);
+		assertEquals(Value.of(5f), two.add(three));
+		assertEquals(Value.of(-1f), two.sub(three));
+		assertEquals(Value.of(-2f), two.negative());
+		assertEquals(2f, two.getNumberValue());
+		assertEquals(3f, three.getNumberValue());
+
+		Value name = Value.varName("$x");
+		assertEquals(Value.Type.VARNAME, name.getType());
+		assertEquals("$x", name.getVarName());
+	}
+
+	@Test
+	@SuppressWarnings("deprecation")
+	public void constructorsStillMakeEqualValues() {
+		assertEquals(Value.NULL, new Value());
+		assertEquals(Value.of(3f), new Value(3));
+		assertEquals(Value.of("hi"), new Value("hi"));
+		assertEquals(Value.TRUE, new Value(Value.TRUE));
+	}
+
+}
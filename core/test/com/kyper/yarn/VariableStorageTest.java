@@ -0,0 +1,159 @@
+package com.kyper.yarn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.kyper.yarn.Dialogue.LineResult;
+import com.kyper.yarn.Dialogue.MemoryVariableStorage;
+import com.kyper.yarn.Dialogue.RunnerResult;
+import com.kyper.yarn.Dialogue.SlotVariableStorage;
+import com.kyper.yarn.Dialogue.VariableStorage;
+
+public class VariableStorageTest {
+
+	private static final String SCRIPT = "title: Start\n"
+			+ "---\n"
+			+ "<<set $gold to 3>>\n"
+			+ "<<set $gold to $gold + 4>>\n"
+			+ "<<if $gold == 7>>\n"
+			+ "Rich\n"
+			+ "<<endif>>\n"
+			+ "===\n";
+
+	private static List<String> run(VariableStorage storage) {
+		Dialogue dialogue = new Dialogue(storage, message -> {
+		}, message -> {
+		});
+		dialogue.loadString(SCRIPT, "Gold.yarn");
+
+		List<String> lines = new ArrayList<String>();
+		assertTrue(dialogue.start("Start"));
+		RunnerResult result;
+		while ((result = dialogue.getNext()) != null && lines.size() < 10) {
+			if (result instanceof LineResult)
+				lines.add(((LineResult) result).getText().trim());
+		}
+		return lines;
+	}
+
+	@Test
+	public void slotsAreGivenOutOnceInOrder() {
+		SlotVariableStorage storage = new SlotVariableStorage(new NameTable(new String[] { "$a", "$b" }));
+		assertEquals(0, storage.slotOf("$a"));
+		assertEquals(1, storage.slotOf("$b"));
+		assertEquals(2, storage.slotOf("$c"));
+		assertEquals(0, storage.slotOf("$a"));
+
+		//more names than the first array holds
+		for (int i = 0; i < 40; i++)
+			storage.setValue("$n" + i, Value.of(i));
+		for (int i = 0; i < 40; i++)
+			assertEquals(Value.of(i), storage.getValue(storage.slotOf("$n" + i)));
+	}
+
+	@Test
+	public void slotsAndNamesReadTheSameValue() {
+		SlotVariableStorage storage = new SlotVariableStorage();
+		assertSame(Value.NULL, storage.getValue("$missing"));
+
+		int slot = storage.slotOf("$gold");
+		storage.setValue(slot, Value.of(5));
+		assertEquals(Value.of(5), storage.getValue("$gold"));
+		storage.setValue("$gold", Value.of(6));
+		assertEquals(Value.of(6), storage.getValue(slot));
+
+		//clearing drops the values but keeps the slots
+		storage.clear();
+		assertSame(Value.NULL, storage.getValue(slot));
+		assertEquals(slot, storage.slotOf("$gold"));
+	}
+
+	@Test
+	public void machineRunsTheSameOnEveryStorage() {
+		MemoryVariableStorage memory = new MemoryVariableStorage();
+		SlotVariableStorage slots = new SlotVariableStorage();
+
+		assertEquals(Arrays.asList("Rich"), run(memory));
+		assertEquals(run(memory), run(slots));
+		assertEquals(Value.of(7), memory.getValue("$gold"));
+		assertEquals(Value.of(7), slots.getValue("$gold"));
+	}
+
+	@Test
+	public void memoryStorageOverridesSeeTheMachine() {
+		final List<String> reads = new ArrayList<String>();
+		final List<Float> writes = new ArrayList<Float>();
+		MemoryVariableStorage storage = new MemoryVariableStorage() {
+			@Override
+			public Value getValue(String name) {
+				reads.add(name);
+				return super.getValue(name);
+			}
+
+			@Override
+			public void setValue(String name, Value value) {
+				if (name.equals("$gold"))
+					writes.add(value.getNumberValue());
+				super.setValue(name, value);
+			}
+		};
+
+		run(storage);
+		assertEquals(Arrays.asList("$gold", "$gold"), reads);
+		assertEquals(Arrays.asList(3f, 7f), writes);
+	}
+
+	@Test
+	public void frozenNodesShareTheirVariableSites() {
+		Dialogue dialogue = Fixtures.dialogue();
+		dialogue.loadString(SCRIPT, "Gold.yarn");
+		DialogueRuntime runtime = new DialogueRuntime(dialogue);
+		Program program = runtime.getProgram();
+		Program.Node start = program.getNode("Start");
+
+		//the same names in different slots for each session
+		SlotVariableStorage first = new SlotVariableStorage();
+		SlotVariableStorage second = new SlotVariableStorage(new NameTable(new String[] { "$silver", "$gold" }));
+		String expected = "start Start\nline Rich\ncomplete null\n";
+		assertEquals(expected, Fixtures.transcript(runtime.newSession(first), "Start"));
+		assertEquals(expected, Fixtures.transcript(runtime.newSession(second), "Start"));
+		assertEquals(Value.of(7), first.getValue("$gold"));
+		assertEquals(Value.of(7), second.getValue("$gold"));
+		assertSame(Value.NULL, second.getValue("$silver"));
+
+		int[] sites = start.linkVariables(program);
+		assertSame(sites, start.linkVariables(program));
+		assertEquals(start.variables.length, sites.length);
+		assertNull(start.linkVariables(new Program()));
+	}
+
+	@Test
+	public void variableNamesFollowTheNodes() throws Exception {
+		Program program = Fixtures.space().freeze();
+		NameTable table = program.variableNames();
+		assertSame(table, program.variableNames());
+
+		List<String> expected = new ArrayList<String>();
+		for (Program.Node node : program.getNodes().values()) {
+			if (node.variables == null)
+				continue;
+			for (String name : node.variables) {
+				if (!expected.contains(name))
+					expected.add(name);
+			}
+		}
+		assertTrue(expected.size() > 0);
+		assertEquals(expected.size(), table.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(i, table.indexOf(expected.get(i)));
+	}
+
+}